@@ -0,0 +1,68 @@
+package com.a9ski.jpa.benchmark;
+
+import java.util.Date;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+/**
+ * Embedded H2 database with EclipseLink used by the benchmarks
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+final class BenchmarkDatabase {
+
+	static final String PERSISTENCE_UNIT = "jpautils-benchmark";
+
+	private BenchmarkDatabase() {
+		super();
+	}
+
+	/**
+	 * Creates entity manager factory and fills the database with <tt>rows</tt> entities
+	 *
+	 * @param rows
+	 *            number of entities to be created
+	 * @return the entity manager factory
+	 */
+	static EntityManagerFactory create(final int rows) {
+		final EntityManagerFactory emf = Persistence.createEntityManagerFactory(PERSISTENCE_UNIT);
+		final EntityManager em = emf.createEntityManager();
+		try {
+			em.getTransaction().begin();
+			em.createQuery("DELETE FROM BenchmarkEntity").executeUpdate();
+			for (int i = 0; i < rows; i++) {
+				em.persist(newEntity(i));
+				if (i % 1000 == 999) {
+					em.flush();
+					em.clear();
+				}
+			}
+			em.getTransaction().commit();
+		} finally {
+			em.close();
+		}
+		return emf;
+	}
+
+	/**
+	 * Creates a new transient entity
+	 *
+	 * @param i
+	 *            sequence number of the entity
+	 * @return new entity
+	 */
+	static BenchmarkEntity newEntity(final int i) {
+		final BenchmarkEntity e = new BenchmarkEntity();
+		final Date now = new Date();
+		e.setName("entity " + i);
+		e.setCreated(now);
+		e.setEdited(now);
+		e.setCreator((long) (i % 10));
+		e.setEditor((long) (i % 10));
+		e.setDeleted(i % 7 == 0);
+		return e;
+	}
+}
@@ -0,0 +1,45 @@
+package com.a9ski.jpa.benchmark;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Table;
+
+import com.a9ski.entities.AuditableEntity;
+
+/**
+ * Entity used by the benchmarks
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+@Entity
+@Table(name = "benchmark_entity")
+public class BenchmarkEntity extends AuditableEntity {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = -1808375640296543541L;
+
+	@Column(name = "name")
+	private String name;
+
+	/**
+	 * Returns the name
+	 *
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Sets the name
+	 *
+	 * @param name
+	 *            the name
+	 */
+	public void setName(final String name) {
+		this.name = name;
+	}
+}
@@ -0,0 +1,150 @@
+package com.a9ski.jpa.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler (allocation rates) and compares the primary scores with the committed baseline. Higher scores are better for {@link Mode#Throughput} benchmarks and lower scores for the time based modes. The run fails
+ * if a score regressed by more than the tolerance or if the baseline has no score for a benchmark.
+ * <p>
+ * System properties:
+ * <ul>
+ * <li><tt>benchmark.baseline</tt> - the baseline file, default <tt>src/jmh/resources/baseline.properties</tt></li>
+ * <li><tt>benchmark.result</tt> - the JSON result file, default <tt>target/jmh-result.json</tt></li>
+ * <li><tt>benchmark.tolerance</tt> - allowed relative score regression before the run fails, default <tt>0.1</tt></li>
+ * <li><tt>benchmark.updateBaseline</tt> - when <tt>true</tt> the baseline file is overwritten with the scores of the run</li>
+ * </ul>
+ * The program arguments are passed to JMH, e.g. <tt>-f 1 -wi 1 -i 3 CriteriaBuilderHelperBenchmark</tt>
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+public final class BenchmarkRunner {
+
+	private BenchmarkRunner() {
+		super();
+	}
+
+	public static void main(final String[] args) throws RunnerException, IOException, CommandLineOptionException {
+		final Path baselineFile = Paths.get(System.getProperty("benchmark.baseline", "src/jmh/resources/baseline.properties"));
+		final String resultFile = System.getProperty("benchmark.result", "target/jmh-result.json");
+		final double tolerance = Double.parseDouble(System.getProperty("benchmark.tolerance", "0.1"));
+
+		final CommandLineOptions cmd = new CommandLineOptions(args);
+		final OptionsBuilder builder = new OptionsBuilder();
+		if (cmd.getIncludes().isEmpty()) {
+			builder.include(BenchmarkRunner.class.getPackage().getName() + ".*");
+		}
+		final Options options = builder.parent(cmd).addProfiler(GCProfiler.class).resultFormat(ResultFormatType.JSON).result(resultFile).build();
+		final Collection<RunResult> results = new Runner(options).run();
+
+		final Map<String, Double> scores = new TreeMap<>();
+		final Set<String> lowerIsBetter = new HashSet<>();
+		for (final RunResult r : results) {
+			final Result<?> primary = r.getPrimaryResult();
+			scores.put(key(r), primary.getScore());
+			if (r.getParams().getMode() != Mode.Throughput) {
+				// average, sample and single shot time
+				lowerIsBetter.add(key(r));
+			}
+		}
+
+		final Properties baseline = readBaseline(baselineFile);
+		if (Boolean.getBoolean("benchmark.updateBaseline")) {
+			writeBaseline(baselineFile, baseline, scores);
+			return;
+		}
+		if (compare(baseline, scores, lowerIsBetter, tolerance) > 0) {
+			System.exit(1);
+		}
+	}
+
+	private static String key(final RunResult r) {
+		final StringBuilder sb = new StringBuilder(r.getParams().getBenchmark());
+		for (final String p : r.getParams().getParamsKeys()) {
+			sb.append(':').append(p).append('=').append(r.getParams().getParam(p));
+		}
+		return sb.toString();
+	}
+
+	private static int compare(final Properties baseline, final Map<String, Double> scores, final Set<String> lowerIsBetter, final double tolerance) {
+		int regressions = 0;
+		System.out.println();
+		System.out.println(String.format("%-100s %15s %15s %8s", "Benchmark", "Baseline", "Score", "Change"));
+		for (final Map.Entry<String, Double> e : scores.entrySet()) {
+			final String base = baseline.getProperty(e.getKey());
+			if (base == null) {
+				// a missing score would silently disable the check, the baseline must be updated together with the new benchmark
+				regressions++;
+				System.out.println(String.format("%-100s %15s %15.3f %8s", e.getKey(), "-", e.getValue(), "MISSING"));
+				continue;
+			}
+			final double baseScore = Double.parseDouble(base);
+			final double change = (e.getValue() - baseScore) / baseScore;
+			final boolean regression = lowerIsBetter.contains(e.getKey()) ? change > tolerance : change < -tolerance;
+			if (regression) {
+				regressions++;
+			}
+			System.out.println(String.format("%-100s %15.3f %15.3f %+7.1f%%%s", e.getKey(), baseScore, e.getValue(), change * 100, regression ? " REGRESSION" : ""));
+		}
+		return regressions;
+	}
+
+	private static Properties readBaseline(final Path file) throws IOException {
+		final Properties p = new Properties();
+		if (Files.exists(file)) {
+			try (InputStream in = Files.newInputStream(file)) {
+				p.load(in);
+			}
+		}
+		return p;
+	}
+
+	private static void writeBaseline(final Path file, final Properties baseline, final Map<String, Double> scores) throws IOException {
+		// the scores of the benchmarks excluded from the run are kept
+		final Map<String, String> merged = new TreeMap<>();
+		baseline.stringPropertyNames().forEach(k -> merged.put(k, baseline.getProperty(k)));
+		scores.forEach((k, v) -> merged.put(k, String.format(Locale.ROOT, "%.3f", v)));
+		final List<String> lines = new ArrayList<>();
+		lines.add("# Baseline scores of the JMH benchmarks - <benchmark>=<primary score>");
+		lines.add("# Regenerate on the reference machine with:");
+		lines.add("#   mvn -Pbenchmark verify -Dbenchmark.updateBaseline=true");
+		lines.add("# and commit the updated file together with the change that caused the difference.");
+		for (final Map.Entry<String, String> e : merged.entrySet()) {
+			// escapes the ':' and '=' separators of the parameters in the key, the date comment is skipped
+			final Properties p = new Properties();
+			p.setProperty(e.getKey(), e.getValue());
+			final StringWriter w = new StringWriter();
+			p.store(w, null);
+			final String[] stored = w.toString().split("\\R");
+			lines.add(stored[stored.length - 1]);
+		}
+		Files.write(file, lines, StandardCharsets.ISO_8859_1);
+	}
+}
@@ -0,0 +1,108 @@
+package com.a9ski.jpa.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.a9ski.entities.IdentifiableEntity_;
+import com.a9ski.entities.filters.AuditableEntityFilter;
+import com.a9ski.jpa.CriteriaBuilderHelper;
+import com.a9ski.jpa.JpaUtils;
+
+/**
+ * Benchmarks of the query building methods of {@link CriteriaBuilderHelper} and {@link JpaUtils}. No SQL is executed.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CriteriaBuilderHelperBenchmark {
+
+	@Param({ "10", "1000" })
+	private int inSize;
+
+	private EntityManagerFactory emf;
+	private CriteriaBuilder cb;
+	private Root<BenchmarkEntity> root;
+	private CriteriaBuilderHelper cbh;
+	private JpaUtils jpaUtils;
+	private List<Long> ids;
+	private AuditableEntityFilter filter;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		emf = Persistence.createEntityManagerFactory(BenchmarkDatabase.PERSISTENCE_UNIT);
+		cb = emf.getCriteriaBuilder();
+		final CriteriaQuery<BenchmarkEntity> cq = cb.createQuery(BenchmarkEntity.class);
+		root = cq.from(BenchmarkEntity.class);
+		cbh = new CriteriaBuilderHelper(cb, Locale.ENGLISH);
+		jpaUtils = new JpaUtils(() -> null);
+		ids = LongStream.range(0, inSize).boxed().collect(Collectors.toList());
+
+		filter = new AuditableEntityFilter();
+		filter.setIds(new HashSet<>(ids));
+		final Set<Long> users = new HashSet<>();
+		users.add(1L);
+		users.add(2L);
+		filter.setCreators(users);
+		filter.setEditors(users);
+		filter.setDeleted(false);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		emf.close();
+	}
+
+	@Benchmark
+	public String createLikePattern() {
+		return cbh.createLikePattern("   Hello    %_ \\  World   ", '\\');
+	}
+
+	@Benchmark
+	public String toIgnoreCaseString() {
+		return cbh.toIgnoreCaseString("Hello World");
+	}
+
+	@Benchmark
+	public List<Predicate> in() {
+		final CriteriaBuilderHelper h = new CriteriaBuilderHelper(cb, Locale.ENGLISH, new ArrayList<>());
+		return h.in(root.get(IdentifiableEntity_.id), ids).getPredicates();
+	}
+
+	@Benchmark
+	public List<Predicate> addAuditableEntityPredicates() {
+		return jpaUtils.addAuditableEntityPredicates(cb, root, filter).getPredicates();
+	}
+
+	@Benchmark
+	public List<Predicate> addAuditableEntityPredicatesWithParameters() {
+		final CriteriaBuilderHelper h = new CriteriaBuilderHelper(cb, Locale.ENGLISH, new ArrayList<>(), 100, new ArrayList<>());
+		return jpaUtils.addAuditableEntityPredicates(h, root, filter).getPredicates();
+	}
+}
@@ -0,0 +1,57 @@
+package com.a9ski.jpa.benchmark;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.a9ski.jpa.EntityInstantiator;
+
+/**
+ * Benchmarks of creating entities with {@link EntityInstantiator} compared to reflection and <tt>new</tt>
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EntityInstantiatorBenchmark {
+
+	private Class<BenchmarkEntity> entityClass;
+
+	private Constructor<BenchmarkEntity> constructor;
+
+	@Setup
+	public void setUp() throws NoSuchMethodException {
+		entityClass = BenchmarkEntity.class;
+		constructor = entityClass.getDeclaredConstructor();
+	}
+
+	@Benchmark
+	public BenchmarkEntity constructor() {
+		return new BenchmarkEntity();
+	}
+
+	@Benchmark
+	@SuppressWarnings("deprecation")
+	public BenchmarkEntity classNewInstance() throws ReflectiveOperationException {
+		return entityClass.newInstance();
+	}
+
+	@Benchmark
+	public BenchmarkEntity cachedConstructorNewInstance() throws ReflectiveOperationException {
+		return constructor.newInstance();
+	}
+
+	@Benchmark
+	public BenchmarkEntity entityInstantiator() {
+		return EntityInstantiator.newInstance(entityClass);
+	}
+}
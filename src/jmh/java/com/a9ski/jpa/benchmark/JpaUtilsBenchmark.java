@@ -0,0 +1,116 @@
+package com.a9ski.jpa.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.a9ski.entities.IdentifiableEntity_;
+import com.a9ski.entities.filters.AuditableEntityFilter;
+import com.a9ski.exceptions.ObjectAlreadyModifiedException;
+import com.a9ski.jpa.CriteriaApiObjects;
+import com.a9ski.jpa.JpaUtils;
+import com.a9ski.jpa.QueryConfig;
+
+/**
+ * Benchmarks of list, count and save methods of {@link JpaUtils} against embedded H2 database. The save benchmarks roll back their transactions, so the number of rows stays the same during the run.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class JpaUtilsBenchmark {
+
+	private static final int ROWS = 10_000;
+
+	@Param({ "20", "500" })
+	private int pageSize;
+
+	private EntityManagerFactory emf;
+	private EntityManager em;
+	private JpaUtils jpaUtils;
+	private AuditableEntityFilter filter;
+	private int counter;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		emf = BenchmarkDatabase.create(ROWS);
+		em = emf.createEntityManager();
+		jpaUtils = new JpaUtils(em);
+		filter = new AuditableEntityFilter();
+		filter.setDeleted(false);
+		filter.setFirstResult(ROWS / 2);
+		filter.setMaxResults(pageSize);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		em.close();
+		emf.close();
+	}
+
+	@Setup(Level.Invocation)
+	public void clear() {
+		// do not measure first level cache hits
+		em.clear();
+	}
+
+	private QueryConfig createQueryConfig(final CriteriaApiObjects<BenchmarkEntity> cao, final AuditableEntityFilter f) {
+		return new QueryConfig(jpaUtils.addAuditableEntityPredicates(cao, f), Collections.singletonList(cao.getCriteriaBuilder().asc(cao.getPath().get(IdentifiableEntity_.id))), f.isDistinct());
+	}
+
+	@Benchmark
+	public List<BenchmarkEntity> list() {
+		return jpaUtils.listEntities(filter, this::createQueryConfig, BenchmarkEntity.class);
+	}
+
+	@Benchmark
+	public List<Long> listIds() {
+		return jpaUtils.listEntityIds(filter, this::createQueryConfig, BenchmarkEntity.class);
+	}
+
+	@Benchmark
+	public long count() {
+		return jpaUtils.countEntities(filter, this::createQueryConfig, BenchmarkEntity.class);
+	}
+
+	@Benchmark
+	public BenchmarkEntity save() throws ObjectAlreadyModifiedException {
+		em.getTransaction().begin();
+		try {
+			return jpaUtils.save(BenchmarkDatabase.newEntity(counter++));
+		} finally {
+			em.getTransaction().rollback();
+		}
+	}
+
+	@Benchmark
+	public List<Long> saveAll() throws ObjectAlreadyModifiedException {
+		final List<BenchmarkEntity> entities = new ArrayList<>(pageSize);
+		for (int i = 0; i < pageSize; i++) {
+			entities.add(BenchmarkDatabase.newEntity(counter++));
+		}
+		em.getTransaction().begin();
+		try {
+			return jpaUtils.saveAll(entities, 100);
+		} finally {
+			em.getTransaction().rollback();
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package com.a9ski.jpa.benchmark;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import com.a9ski.entities.filters.Matching;
+import com.a9ski.jpa.LikePatternBuilder;
+import com.a9ski.utils.StringUtils;
+
+/**
+ * Compares {@link LikePatternBuilder} with the multi pass algorithm used before it
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LikePatternBenchmark {
+
+	@Param({ "john", "   John    Smith  %_ \\  Jr.   " })
+	private String text;
+
+	private final LikePatternBuilder builder = new LikePatternBuilder(false, 0);
+	private final LikePatternBuilder reusingBuilder = new LikePatternBuilder(true, 0);
+	private final LikePatternBuilder cachingBuilder = new LikePatternBuilder(true, 256);
+
+	@Benchmark
+	public String legacy() {
+		final String escaped = StringUtils.replaceWithSingleSpace(text.toLowerCase(Locale.ENGLISH).trim()).replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+		return "%" + StringUtils.replaceWithSingleSpace(escaped).replace(' ', '%') + "%";
+	}
+
+	@Benchmark
+	public String singlePass() {
+		return builder.build(text, Matching.LIKE, '\\', Locale.ENGLISH);
+	}
+
+	@Benchmark
+	public String singlePassReusedBuffer() {
+		return reusingBuilder.build(text, Matching.LIKE, '\\', Locale.ENGLISH);
+	}
+
+	@Benchmark
+	public String singlePassCached() {
+		return cachingBuilder.build(text, Matching.LIKE, '\\', Locale.ENGLISH);
+	}
+}
@@ -0,0 +1,105 @@
+package com.a9ski.jpa.benchmark;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.TypedQuery;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.a9ski.entities.IdentifiableEntity_;
+import com.a9ski.entities.filters.AuditableEntityFilter;
+import com.a9ski.jpa.CriteriaApiObjects;
+import com.a9ski.jpa.JpaDialect;
+import com.a9ski.jpa.JpaUtils;
+import com.a9ski.jpa.QueryConfig;
+
+/**
+ * Benchmarks of listing large pages with and without read-only mode (see {@link QueryConfig#isReadOnly()}). Each invocation lists a page and flushes the entity manager, so the score includes the dirty checking of the listed entities. Run with the
+ * GC profiler to compare the allocation rate.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReadOnlyQueryBenchmark {
+
+	private static final int ROWS = 10_000;
+
+	@Param({ "1000", "5000" })
+	private int pageSize;
+
+	/**
+	 * <tt>tracked</tt> - managed entities, <tt>hints</tt> - EclipseLink read-only hints, <tt>detach</tt> - detaching the results
+	 */
+	@Param({ "tracked", "hints", "detach" })
+	private String mode;
+
+	private EntityManagerFactory emf;
+	private EntityManager em;
+	private JpaUtils jpaUtils;
+	private AuditableEntityFilter filter;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		emf = BenchmarkDatabase.create(ROWS);
+		em = emf.createEntityManager();
+		final Map<String, Object> hints = "hints".equals(mode) ? JpaDialect.ECLIPSELINK_READ_ONLY_HINTS : Collections.emptyMap();
+		jpaUtils = new JpaUtils(() -> em).withJpaDialect(new JpaDialect() {
+			@Override
+			public String getSql(final TypedQuery<?> q) {
+				return null;
+			}
+
+			@Override
+			public Map<String, Object> getReadOnlyHints() {
+				return hints;
+			}
+		});
+		filter = new AuditableEntityFilter();
+		filter.setMaxResults(pageSize);
+		filter.setReadOnly(!"tracked".equals(mode));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		em.close();
+		emf.close();
+	}
+
+	@Setup(Level.Invocation)
+	public void clear() {
+		em.clear();
+	}
+
+	private QueryConfig createQueryConfig(final CriteriaApiObjects<BenchmarkEntity> cao, final AuditableEntityFilter f) {
+		return new QueryConfig(jpaUtils.addAuditableEntityPredicates(cao, f), Collections.singletonList(cao.getCriteriaBuilder().asc(cao.getPath().get(IdentifiableEntity_.id))), f.isDistinct());
+	}
+
+	@Benchmark
+	public List<BenchmarkEntity> listAndFlush() {
+		em.getTransaction().begin();
+		try {
+			final List<BenchmarkEntity> entities = jpaUtils.listEntities(filter, this::createQueryConfig, BenchmarkEntity.class);
+			em.flush();
+			return entities;
+		} finally {
+			em.getTransaction().rollback();
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package com.a9ski.jpa.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.a9ski.exceptions.ObjectAlreadyModifiedException;
+import com.a9ski.jpa.JpaUtils;
+import com.a9ski.jpa.SaveMode;
+
+/**
+ * Benchmarks of saving a detached entity with the different {@link SaveMode}s. Each invocation saves the entity with an empty persistence context and rolls back the transaction.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SaveModeBenchmark {
+
+	private static final int ROWS = 1_000;
+
+	@Param({ "MERGE", "VERSIONED_UPDATE" })
+	private SaveMode mode;
+
+	private EntityManagerFactory emf;
+	private EntityManager em;
+	private JpaUtils jpaUtils;
+	private BenchmarkEntity entity;
+	private long version;
+	private int counter;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		emf = BenchmarkDatabase.create(ROWS);
+		em = emf.createEntityManager();
+		jpaUtils = new JpaUtils(em);
+		entity = em.createQuery("SELECT e FROM BenchmarkEntity e ORDER BY e.id", BenchmarkEntity.class).setMaxResults(1).getSingleResult();
+		version = entity.getVersion();
+		em.clear();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		em.close();
+		emf.close();
+	}
+
+	@Setup(Level.Invocation)
+	public void clear() {
+		em.clear();
+		// the transactions are rolled back, so the version in the database does not change
+		entity.setVersion(version);
+		entity.setName("entity " + counter++);
+	}
+
+	@Benchmark
+	public BenchmarkEntity save() throws ObjectAlreadyModifiedException {
+		em.getTransaction().begin();
+		try {
+			return jpaUtils.save(entity, true, mode);
+		} finally {
+			em.getTransaction().rollback();
+		}
+	}
+}
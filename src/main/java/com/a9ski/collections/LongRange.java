@@ -0,0 +1,124 @@
+package com.a9ski.collections;
+
+import java.io.Serializable;
+
+/**
+ * Range of consecutive <tt>long</tt> values. Both bounds are inclusive.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+public class LongRange implements Serializable {
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = -1870353546468402937L;
+
+	private final long start;
+	private final long end;
+
+	/**
+	 * Creates a new range
+	 *
+	 * @param start
+	 *            the lower bound (inclusive)
+	 * @param end
+	 *            the upper bound (inclusive)
+	 */
+	public LongRange(final long start, final long end) {
+		super();
+		if (start > end) {
+			throw new IllegalArgumentException("Invalid argument: start should not be greater than end");
+		}
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * Returns the lower bound (inclusive)
+	 *
+	 * @return the lower bound (inclusive)
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * Returns the upper bound (inclusive)
+	 *
+	 * @return the upper bound (inclusive)
+	 */
+	public long getEnd() {
+		return end;
+	}
+
+	/**
+	 * Returns the number of values in the range
+	 *
+	 * @return the number of values in the range
+	 */
+	public long size() {
+		return end - start + 1;
+	}
+
+	/**
+	 * Checks if the value is within the range
+	 *
+	 * @param value
+	 *            the value
+	 * @return true if the value is within the range
+	 */
+	public boolean contains(final long value) {
+		return value >= start && value <= end;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + (int) (end ^ (end >>> 32));
+		result = prime * result + (int) (start ^ (start >>> 32));
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (!(obj instanceof LongRange)) {
+			return false;
+		}
+		final LongRange other = (LongRange) obj;
+		if (end != other.end) {
+			return false;
+		}
+		if (start != other.start) {
+			return false;
+		}
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "[" + start + ".." + end + "]";
+	}
+}
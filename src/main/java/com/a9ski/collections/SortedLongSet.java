@@ -0,0 +1,197 @@
+package com.a9ski.collections;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable set of <tt>long</tt> values stored in a sorted primitive array. Uses a fraction of the memory of <tt>HashSet&lt;Long&gt;</tt> and does not box the values unless accessed through the {@link java.util.Set} interface, which is implemented as an
+ * adapter, so the set can be used everywhere a <tt>Set&lt;Long&gt;</tt> is expected (e.g. entity filter IDs).
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+public final class SortedLongSet extends AbstractSet<Long> implements Serializable {
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 5125326425307862946L;
+
+	private static final SortedLongSet EMPTY = new SortedLongSet(new long[0]);
+
+	private final long[] values;
+
+	private SortedLongSet(final long[] sortedDistinctValues) {
+		super();
+		this.values = sortedDistinctValues;
+	}
+
+	/**
+	 * Creates a set containing given values
+	 *
+	 * @param values
+	 *            the values. Can be unsorted and contain duplicates
+	 * @return a set containing given values
+	 */
+	public static SortedLongSet of(final long... values) {
+		if (values == null || values.length == 0) {
+			return EMPTY;
+		}
+		final long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		int size = 1;
+		for (int i = 1; i < sorted.length; i++) {
+			if (sorted[i] != sorted[size - 1]) {
+				sorted[size++] = sorted[i];
+			}
+		}
+		return new SortedLongSet(size == sorted.length ? sorted : Arrays.copyOf(sorted, size));
+	}
+
+	/**
+	 * Creates a set containing the values of given collection. <tt>null</tt> elements are ignored.
+	 *
+	 * @param values
+	 *            the values
+	 * @return a set containing the values of given collection
+	 */
+	public static SortedLongSet copyOf(final Collection<Long> values) {
+		if (values instanceof SortedLongSet) {
+			return (SortedLongSet) values;
+		}
+		if (values == null || values.isEmpty()) {
+			return EMPTY;
+		}
+		return of(values.stream().filter(v -> v != null).mapToLong(Long::longValue).toArray());
+	}
+
+	/**
+	 * Checks if the set contains given value
+	 *
+	 * @param value
+	 *            the value
+	 * @return true if the set contains the value
+	 */
+	public boolean contains(final long value) {
+		return Arrays.binarySearch(values, value) >= 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractCollection#contains(java.lang.Object)
+	 */
+	@Override
+	public boolean contains(final Object o) {
+		return o instanceof Long && contains(((Long) o).longValue());
+	}
+
+	/**
+	 * Returns the value at given position in ascending order
+	 *
+	 * @param index
+	 *            the position
+	 * @return the value at given position
+	 */
+	public long get(final int index) {
+		return values[index];
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractCollection#size()
+	 */
+	@Override
+	public int size() {
+		return values.length;
+	}
+
+	/**
+	 * Returns a copy of the values in ascending order
+	 *
+	 * @return the values in ascending order
+	 */
+	public long[] toLongArray() {
+		return values.clone();
+	}
+
+	/**
+	 * Returns the values grouped in ranges of consecutive values, in ascending order. E.g. the set <tt>{1, 2, 3, 7, 9, 10}</tt> is represented as <tt>[1..3], [7..7], [9..10]</tt>
+	 *
+	 * @return the ranges of consecutive values
+	 */
+	public List<LongRange> ranges() {
+		if (values.length == 0) {
+			return Collections.emptyList();
+		}
+		final List<LongRange> ranges = new ArrayList<>();
+		long start = values[0];
+		for (int i = 1; i < values.length; i++) {
+			if (values[i] != values[i - 1] + 1) {
+				ranges.add(new LongRange(start, values[i - 1]));
+				start = values[i];
+			}
+		}
+		ranges.add(new LongRange(start, values[values.length - 1]));
+		return ranges;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractCollection#iterator()
+	 */
+	@Override
+	public Iterator<Long> iterator() {
+		return new Iterator<Long>() {
+			private int position;
+
+			@Override
+			public boolean hasNext() {
+				return position < values.length;
+			}
+
+			@Override
+			public Long next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return values[position++];
+			}
+		};
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractSet#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		int result = 0;
+		for (final long v : values) {
+			result += (int) (v ^ (v >>> 32));
+		}
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractSet#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(final Object obj) {
+		if (obj instanceof SortedLongSet) {
+			return Arrays.equals(values, ((SortedLongSet) obj).values);
+		}
+		return super.equals(obj);
+	}
+}
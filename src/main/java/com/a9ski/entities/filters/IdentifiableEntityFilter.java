@@ -2,6 +2,8 @@ package com.a9ski.entities.filters;
 
 import java.util.Set;
 
+import com.a9ski.collections.SortedLongSet;
+
 /**
  * Filter for querying identifiable entities. All derived entities must have filter which is subclass of this one.
  * 
@@ -26,7 +28,7 @@ public class IdentifiableEntityFilter extends PageableFilter {
 	}
 
 	/**
-	 * Sets entity IDs to be filtered
+	 * Sets entity IDs to be filtered. For large number of IDs use {@link SortedLongSet}, which stores the IDs as primitive values and allows matching runs of consecutive IDs with range predicates
 	 * 
 	 * @param ids
 	 *            entity IDs to be filtered
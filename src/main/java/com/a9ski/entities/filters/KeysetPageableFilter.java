@@ -0,0 +1,70 @@
+package com.a9ski.entities.filters;
+
+/**
+ * Filter for querying pages using keyset (seek) pagination. Instead of skipping <tt>firstResult</tt> rows, the next page is located using the continuation token returned with the previous page, so deep pages cost the same as the first one.
+ * <p>
+ * The <tt>firstResult</tt> property is ignored by keyset queries.
+ *
+ */
+public class KeysetPageableFilter extends PageableFilter {
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = -4223504838183436121L;
+
+	private String continuationToken;
+
+	/**
+	 * Gets the continuation token returned with the previous page. <tt>null</tt> means the first page
+	 *
+	 * @return the continuation token returned with the previous page
+	 */
+	public String getContinuationToken() {
+		return continuationToken;
+	}
+
+	/**
+	 * Sets the continuation token returned with the previous page. <tt>null</tt> means the first page
+	 *
+	 * @param continuationToken
+	 *            the continuation token returned with the previous page
+	 */
+	public void setContinuationToken(String continuationToken) {
+		this.continuationToken = continuationToken;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = super.hashCode();
+		result = prime * result + ((continuationToken == null) ? 0 : continuationToken.hashCode());
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!super.equals(obj))
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		KeysetPageableFilter other = (KeysetPageableFilter) obj;
+		if (continuationToken == null) {
+			if (other.continuationToken != null)
+				return false;
+		} else if (!continuationToken.equals(other.continuationToken))
+			return false;
+		return true;
+	}
+}
@@ -20,6 +20,8 @@ public class PageableFilter implements Filter {
 
 	private Locale locale;
 
+	private boolean readOnly;
+
 	/**
 	 * Flag indicating that only distinct entities must be returned
 	 * 
@@ -96,6 +98,25 @@ public class PageableFilter implements Filter {
 		this.locale = locale;
 	}
 
+	/**
+	 * Flag indicating that the entities are only read and will not be modified. See {@link com.a9ski.jpa.QueryConfig#isReadOnly()}
+	 * 
+	 * @return flag indicating that the entities are only read
+	 */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	/**
+	 * Sets flag indicating that the entities are only read and will not be modified
+	 * 
+	 * @param readOnly
+	 *            flag indicating that the entities are only read
+	 */
+	public void setReadOnly(boolean readOnly) {
+		this.readOnly = readOnly;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -109,6 +130,7 @@ public class PageableFilter implements Filter {
 		result = prime * result + firstResult;
 		result = prime * result + ((locale == null) ? 0 : locale.hashCode());
 		result = prime * result + maxResults;
+		result = prime * result + (readOnly ? 1231 : 1237);
 		return result;
 	}
 
@@ -137,6 +159,8 @@ public class PageableFilter implements Filter {
 			return false;
 		if (maxResults != other.maxResults)
 			return false;
+		if (readOnly != other.readOnly)
+			return false;
 		return true;
 	}
 }
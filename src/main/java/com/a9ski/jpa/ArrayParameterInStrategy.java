@@ -0,0 +1,67 @@
+package com.a9ski.jpa;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Predicate;
+
+import org.apache.commons.lang3.ClassUtils;
+
+import com.a9ski.utils.NullUtils;
+
+/**
+ * IN strategy binding the values as a single array parameter (e.g. <tt>field = ANY(?)</tt> on PostgreSQL) when the number of values exceeds given threshold. The SQL text does not depend on the number of values at all.
+ * <p>
+ * The array comparison is expressed as a call of a boolean function <tt>functionName(field, array)</tt>, which must be registered in the JPA provider (e.g. as a Hibernate SQL function rendering <tt>?1 = ANY(?2)</tt>). The array is always passed as a
+ * parameter, so if the criteria builder helper does not work in parameter binding mode or the list is shorter than the threshold the <tt>fallback</tt> strategy is used.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+public class ArrayParameterInStrategy implements InStrategy {
+
+	private final String functionName;
+	private final int threshold;
+	private final InStrategy fallback;
+
+	/**
+	 * Creates a new strategy
+	 *
+	 * @param functionName
+	 *            the name of the boolean function checking if the field is contained in the array
+	 * @param threshold
+	 *            the minimum number of values bound as array
+	 * @param fallback
+	 *            the strategy used for shorter lists or when the helper does not work in parameter binding mode
+	 */
+	public ArrayParameterInStrategy(final String functionName, final int threshold, final InStrategy fallback) {
+		super();
+		NullUtils.checkNotNull(functionName, "Invalid argument: functionName should not be null");
+		NullUtils.checkNotNull(fallback, "Invalid argument: fallback should not be null");
+		this.functionName = functionName;
+		this.threshold = threshold;
+		this.fallback = fallback;
+	}
+
+	@Override
+	public <T> Predicate in(final CriteriaBuilderHelper cbh, final Expression<T> field, final Collection<T> values) {
+		if (!cbh.isParameterBinding() || values.size() < threshold) {
+			return fallback.in(cbh, field, values);
+		}
+		final CriteriaBuilder cb = cbh.getCriteriaBuilder();
+		final Object array = toArray(field.getJavaType(), values);
+		return cb.isTrue(cb.function(functionName, Boolean.class, field, cbh.parameter(array.getClass(), array)));
+	}
+
+	private static Object toArray(final Class<?> javaType, final Collection<?> values) {
+		final Class<?> componentType = javaType != null ? ClassUtils.primitiveToWrapper(javaType) : Object.class;
+		final Object array = Array.newInstance(componentType, values.size());
+		int i = 0;
+		for (final Object v : values) {
+			Array.set(array, i++, v);
+		}
+		return array;
+	}
+}
@@ -0,0 +1,235 @@
+package com.a9ski.jpa;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.persistence.EntityManager;
+import javax.persistence.QueryTimeoutException;
+
+import com.a9ski.utils.NullUtils;
+
+/**
+ * Executes queries asynchronously, each query with its own entity manager obtained from <tt>entityManagerSupplier</tt> and closed after the query. The supplier must create a new application managed entity manager on every call (e.g.
+ * <tt>emf::createEntityManager</tt>). The queries are executed outside of the transaction of the caller, so they do not see its uncommitted changes.
+ * <p>
+ * At most <tt>maxConcurrency</tt> queries run at the same time and at most <tt>queueCapacity</tt> queries wait for execution. When the executor is saturated {@link #submit(Function)} blocks the caller until a query completes. The queries run on
+ * virtual threads on JDK 21 and later and on a fixed pool of <tt>maxConcurrency</tt> daemon threads otherwise.
+ * <p>
+ * If <tt>queryTimeoutMillis</tt> is positive, the queries created by {@link JpaUtils} get the {@link QueryConfig#QUERY_TIMEOUT_HINT} hint and a query waiting in the queue longer than the timeout fails with {@link QueryTimeoutException} without
+ * being executed. Cancelling the returned future (see {@link CompletableFuture#cancel(boolean)}) skips a waiting query and interrupts the thread of a running one, while the running statement itself is bounded by the query timeout. Cancelling
+ * a dependent future (e.g. returned by <tt>thenApply</tt>) does not cancel the query.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+public class AsyncQueryExecutor implements AutoCloseable {
+
+	private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+	private final Supplier<EntityManager> entityManagerSupplier;
+
+	private final ExecutorService executor;
+
+	private final Semaphore pending;
+
+	private final Semaphore running;
+
+	private final long queryTimeoutMillis;
+
+	private volatile boolean closed;
+
+	/**
+	 * Creates a new executor
+	 *
+	 * @param entityManagerSupplier
+	 *            supplier creating a new entity manager for every query
+	 * @param maxConcurrency
+	 *            the maximum number of queries running at the same time
+	 * @param queueCapacity
+	 *            the maximum number of queries waiting for execution
+	 * @param queryTimeoutMillis
+	 *            the query timeout in milliseconds. Use <tt>0</tt> for no timeout
+	 */
+	public AsyncQueryExecutor(final Supplier<EntityManager> entityManagerSupplier, final int maxConcurrency, final int queueCapacity, final long queryTimeoutMillis) {
+		super();
+		NullUtils.checkNotNull(entityManagerSupplier, "Invalid argument: entityManagerSupplier should not be null");
+		if (maxConcurrency <= 0) {
+			throw new IllegalArgumentException("Invalid argument: maxConcurrency must be positive");
+		}
+		if (queueCapacity < 0) {
+			throw new IllegalArgumentException("Invalid argument: queueCapacity should not be negative");
+		}
+		if (queryTimeoutMillis < 0) {
+			throw new IllegalArgumentException("Invalid argument: queryTimeoutMillis should not be negative");
+		}
+		this.entityManagerSupplier = entityManagerSupplier;
+		this.pending = new Semaphore(maxConcurrency + queueCapacity);
+		this.running = new Semaphore(maxConcurrency);
+		this.queryTimeoutMillis = queryTimeoutMillis;
+		final ExecutorService virtualThreadExecutor = createVirtualThreadExecutor();
+		this.executor = virtualThreadExecutor != null ? virtualThreadExecutor : Executors.newFixedThreadPool(maxConcurrency, r -> {
+			final Thread t = new Thread(r, "jpa-async-query-" + THREAD_COUNTER.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Creates executor starting a virtual thread per task using reflection, because virtual threads are available since JDK 21
+	 *
+	 * @return the executor or <tt>null</tt> if virtual threads are not available
+	 */
+	private static ExecutorService createVirtualThreadExecutor() {
+		try {
+			final Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		} catch (final ReflectiveOperationException | RuntimeException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the query timeout in milliseconds or <tt>0</tt> if there is no timeout
+	 *
+	 * @return the query timeout in milliseconds
+	 */
+	public long getQueryTimeoutMillis() {
+		return queryTimeoutMillis;
+	}
+
+	/**
+	 * Adds the query timeout hint to the query configurations created by the factory
+	 *
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @return the query configuration factory adding the query timeout hint
+	 */
+	public <E> Function<CriteriaApiObjects<E>, QueryConfig> withQueryTimeout(final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory) {
+		if (queryTimeoutMillis <= 0) {
+			return queryConfigFactory;
+		}
+		return cao -> {
+			final QueryConfig qc = queryConfigFactory != null ? queryConfigFactory.apply(cao) : null;
+			return (qc != null ? qc : new QueryConfig(null, null, null, true)).withHint(QueryConfig.QUERY_TIMEOUT_HINT, queryTimeoutMillis);
+		};
+	}
+
+	/**
+	 * Executes the task asynchronously with a new entity manager. Blocks the caller while the executor is saturated.
+	 *
+	 * @param task
+	 *            the task
+	 * @return future completed with the result of the task
+	 */
+	public <R> CompletableFuture<R> submit(final Function<EntityManager, R> task) {
+		NullUtils.checkNotNull(task, "Invalid argument: task should not be null");
+		if (closed) {
+			throw new IllegalStateException("The executor is closed");
+		}
+		final QueryFuture<R> future = new QueryFuture<>();
+		try {
+			pending.acquire();
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			future.completeExceptionally(ex);
+			return future;
+		}
+		final long submitted = System.nanoTime();
+		try {
+			executor.execute(() -> run(task, future, submitted));
+		} catch (final RejectedExecutionException ex) {
+			pending.release();
+			future.completeExceptionally(ex);
+		}
+		return future;
+	}
+
+	private <R> void run(final Function<EntityManager, R> task, final QueryFuture<R> future, final long submitted) {
+		try {
+			running.acquire();
+			try {
+				if (queryTimeoutMillis > 0 && System.nanoTime() - submitted > TimeUnit.MILLISECONDS.toNanos(queryTimeoutMillis)) {
+					future.completeExceptionally(new QueryTimeoutException("The query waited more than " + queryTimeoutMillis + " ms for execution"));
+					return;
+				}
+				if (!future.start(Thread.currentThread())) {
+					return;
+				}
+				final EntityManager em = entityManagerSupplier.get();
+				final R result;
+				try {
+					result = task.apply(em);
+				} finally {
+					future.finish();
+					// clear the interrupt of a cancelled query, so it does not affect the next task of the thread
+					Thread.interrupted();
+					em.close();
+				}
+				future.complete(result);
+			} finally {
+				running.release();
+			}
+		} catch (final InterruptedException ex) {
+			future.completeExceptionally(ex);
+		} catch (final RuntimeException | Error ex) {
+			future.completeExceptionally(ex);
+		} finally {
+			pending.release();
+		}
+	}
+
+	/**
+	 * Stops accepting new queries. The submitted queries are completed.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		executor.shutdown();
+	}
+
+	/**
+	 * Future interrupting the thread of the running query when cancelled
+	 */
+	private static class QueryFuture<R> extends CompletableFuture<R> {
+		// guarded by this
+		private Thread worker;
+
+		synchronized boolean start(final Thread thread) {
+			if (isDone()) {
+				return false;
+			}
+			worker = thread;
+			return true;
+		}
+
+		synchronized void finish() {
+			worker = null;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.CompletableFuture#cancel(boolean)
+		 */
+		@Override
+		public boolean cancel(final boolean mayInterruptIfRunning) {
+			final boolean cancelled = super.cancel(mayInterruptIfRunning);
+			if (cancelled) {
+				synchronized (this) {
+					if (worker != null) {
+						worker.interrupt();
+					}
+				}
+			}
+			return cancelled;
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package com.a9ski.jpa;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Cache invalidation event published through {@link CacheInvalidationBus}. The event invalidates either a single entity (class and ID), all entities of a class (no ID) or the whole cache (no class).
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+public class CacheInvalidation implements Serializable {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = -2309815766802427474L;
+
+	private static final CacheInvalidation ALL = new CacheInvalidation(null, null, 0);
+
+	private final String entityClassName;
+
+	private final Long id;
+
+	private final long version;
+
+	/**
+	 * Creates a new event
+	 *
+	 * @param entityClassName
+	 *            the entity class name or <tt>null</tt> for invalidating the whole cache
+	 * @param id
+	 *            the entity ID or <tt>null</tt> for invalidating all entities of the class
+	 * @param version
+	 *            the version of the modified entity or <tt>0</tt> if unknown
+	 */
+	public CacheInvalidation(final String entityClassName, final Long id, final long version) {
+		super();
+		if (entityClassName == null && id != null) {
+			throw new IllegalArgumentException("Invalid argument: entityClassName should not be null when id is set");
+		}
+		this.entityClassName = entityClassName;
+		this.id = id;
+		this.version = version;
+	}
+
+	/**
+	 * Returns event invalidating the whole cache
+	 *
+	 * @return event invalidating the whole cache
+	 */
+	public static CacheInvalidation all() {
+		return ALL;
+	}
+
+	/**
+	 * Returns event invalidating all entities of given class
+	 *
+	 * @param entityClass
+	 *            the entity class
+	 * @return event invalidating all entities of given class
+	 */
+	public static CacheInvalidation of(final Class<?> entityClass) {
+		return new CacheInvalidation(entityClass.getName(), null, 0);
+	}
+
+	/**
+	 * Returns event invalidating single entity
+	 *
+	 * @param entityClass
+	 *            the entity class
+	 * @param id
+	 *            the entity ID
+	 * @param version
+	 *            the version of the modified entity or <tt>0</tt> if unknown
+	 * @return event invalidating single entity
+	 */
+	public static CacheInvalidation of(final Class<?> entityClass, final long id, final long version) {
+		return new CacheInvalidation(entityClass.getName(), id, version);
+	}
+
+	/**
+	 * Returns the entity class name
+	 *
+	 * @return the entity class name or <tt>null</tt> if the whole cache is invalidated
+	 */
+	public String getEntityClassName() {
+		return entityClassName;
+	}
+
+	/**
+	 * Returns the entity ID
+	 *
+	 * @return the entity ID or <tt>null</tt> if all entities of the class are invalidated
+	 */
+	public Long getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the version of the modified entity
+	 *
+	 * @return the version of the modified entity or <tt>0</tt> if unknown
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Checks if the whole cache is invalidated
+	 *
+	 * @return <tt>true</tt> if the whole cache is invalidated
+	 */
+	public boolean isAll() {
+		return entityClassName == null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((entityClassName == null) ? 0 : entityClassName.hashCode());
+		result = prime * result + ((id == null) ? 0 : id.hashCode());
+		result = prime * result + (int) (version ^ (version >>> 32));
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null || getClass() != obj.getClass()) {
+			return false;
+		}
+		final CacheInvalidation other = (CacheInvalidation) obj;
+		return version == other.version && Objects.equals(entityClassName, other.entityClassName) && Objects.equals(id, other.id);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "CacheInvalidation [entityClassName=" + entityClassName + ", id=" + id + ", version=" + version + "]";
+	}
+}
@@ -0,0 +1,215 @@
+package com.a9ski.jpa;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import com.a9ski.utils.NullUtils;
+
+/**
+ * Propagates the cache invalidations of {@link JpaUtils} (<tt>clearCache</tt> and <tt>save</tt>) to the other nodes of a cluster through an {@link InvalidationChannel}. The events received from the other nodes evict the entities from the shared
+ * cache of the entity manager factory and from the {@link EntityCache}.
+ * <p>
+ * The events are sent in batches every <tt>flushIntervalMillis</tt>. Events in a batch are coalesced: an entity modified many times is sent once with its latest version (or unconditionally if any of the versions is unknown), a class invalidation replaces the invalidations of its entities and a whole
+ * cache invalidation replaces everything else. The invalidations of saved entities are sent after the JTA transaction is committed, so saving entities requires {@link TransactionContext}. Resource-local transactions cannot be
+ * tracked, so the bus cannot be used for saving entities in them: an invalidation published before the commit lets the other nodes cache the old row again.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+public class CacheInvalidationBus implements AutoCloseable {
+
+	private static final String PENDING_ATTACHMENT = CacheInvalidationBus.class.getName() + ".pending";
+
+	private final EntityManagerFactory emf;
+
+	private final EntityCache entityCache;
+
+	private final InvalidationChannel channel;
+
+	private final ScheduledExecutorService scheduler;
+
+	// guarded by this
+	private boolean pendingAll;
+
+	// guarded by this
+	private final Set<String> pendingClasses = new HashSet<>();
+
+	// guarded by this
+	private final Map<Pair<String, Long>, Long> pendingEntities = new HashMap<>();
+
+	/**
+	 * Creates a new bus and subscribes it to the channel
+	 *
+	 * @param emf
+	 *            the entity manager factory which cache is evicted on received events
+	 * @param entityCache
+	 *            the entity cache evicted on received events. Can be <tt>null</tt>
+	 * @param channel
+	 *            the invalidation channel
+	 * @param flushIntervalMillis
+	 *            the interval between two batches. Use <tt>0</tt> to send the events immediately
+	 */
+	public CacheInvalidationBus(final EntityManagerFactory emf, final EntityCache entityCache, final InvalidationChannel channel, final long flushIntervalMillis) {
+		super();
+		NullUtils.checkNotNull(emf, "Invalid argument: emf should not be null");
+		NullUtils.checkNotNull(channel, "Invalid argument: channel should not be null");
+		if (flushIntervalMillis < 0) {
+			throw new IllegalArgumentException("Invalid argument: flushIntervalMillis should not be negative");
+		}
+		this.emf = emf;
+		this.entityCache = entityCache;
+		this.channel = channel;
+		if (flushIntervalMillis > 0) {
+			this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				final Thread t = new Thread(r, "cache-invalidation-bus");
+				t.setDaemon(true);
+				return t;
+			});
+			this.scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+		} else {
+			this.scheduler = null;
+		}
+		channel.subscribe(this::receive);
+	}
+
+	/**
+	 * Queues an event for the next batch
+	 *
+	 * @param event
+	 *            the event
+	 */
+	public void publish(final CacheInvalidation event) {
+		synchronized (this) {
+			if (event.isAll()) {
+				pendingAll = true;
+			} else if (event.getId() == null) {
+				pendingClasses.add(event.getEntityClassName());
+			} else {
+				pendingEntities.merge(Pair.of(event.getEntityClassName(), event.getId()), event.getVersion(), (v1, v2) -> v1 <= 0 || v2 <= 0 ? 0 : Math.max(v1, v2));
+			}
+		}
+		if (scheduler == null) {
+			flush();
+		}
+	}
+
+	/**
+	 * Queues an event for the next batch after the current transaction is committed. The event is dropped if the transaction is rolled back.
+	 *
+	 * @param event
+	 *            the event
+	 * @throws IllegalStateException
+	 *             thrown if there is no transaction of {@link TransactionContext}, e.g. the entity is saved in a resource-local transaction
+	 */
+	public void publishAfterCommit(final CacheInvalidation event) {
+		final TransactionContext ctx = TransactionContext.getDefault();
+		final List<CacheInvalidation> pending = ctx.getAttachment(PENDING_ATTACHMENT);
+		if (pending != null) {
+			pending.add(event);
+			return;
+		}
+		final List<CacheInvalidation> events = new ArrayList<>();
+		events.add(event);
+		if (!ctx.afterCommit(() -> events.forEach(this::publish))) {
+			// publishing before the commit lets the other nodes cache the uncommitted state again
+			throw new IllegalStateException("Cannot publish cache invalidation after commit without JTA transaction (see TransactionContext): " + event);
+		}
+		ctx.putAttachment(PENDING_ATTACHMENT, events);
+	}
+
+	/**
+	 * Sends the queued events
+	 */
+	public void flush() {
+		final List<CacheInvalidation> batch = new ArrayList<>();
+		synchronized (this) {
+			if (pendingAll) {
+				batch.add(CacheInvalidation.all());
+			} else {
+				pendingClasses.forEach(c -> batch.add(new CacheInvalidation(c, null, 0)));
+				pendingEntities.forEach((k, v) -> {
+					if (!pendingClasses.contains(k.getKey())) {
+						batch.add(new CacheInvalidation(k.getKey(), k.getValue(), v));
+					}
+				});
+			}
+			pendingAll = false;
+			pendingClasses.clear();
+			pendingEntities.clear();
+		}
+		if (!batch.isEmpty()) {
+			try {
+				channel.publish(batch);
+			} catch (final RuntimeException ex) {
+				JpaUtils.LOGGER.warn("Cannot publish cache invalidation events", ex);
+			}
+		}
+	}
+
+	/**
+	 * Evicts the entities of received events from the caches
+	 *
+	 * @param events
+	 *            the received events
+	 */
+	protected void receive(final Collection<CacheInvalidation> events) {
+		for (final CacheInvalidation e : events) {
+			if (e.isAll()) {
+				emf.getCache().evictAll();
+				if (entityCache != null) {
+					entityCache.clear();
+				}
+				continue;
+			}
+			final Class<?> entityClass = resolveClass(e.getEntityClassName());
+			if (entityClass == null) {
+				continue;
+			}
+			if (e.getId() == null) {
+				emf.getCache().evict(entityClass);
+				if (entityCache != null) {
+					entityCache.invalidate(entityClass);
+				}
+			} else {
+				emf.getCache().evict(entityClass, e.getId());
+				if (entityCache != null) {
+					entityCache.invalidate(entityClass, e.getId(), e.getVersion());
+				}
+			}
+		}
+	}
+
+	private Class<?> resolveClass(final String className) {
+		try {
+			final ClassLoader cl = Thread.currentThread().getContextClassLoader();
+			return Class.forName(className, false, cl != null ? cl : CacheInvalidationBus.class.getClassLoader());
+		} catch (final ClassNotFoundException ex) {
+			JpaUtils.LOGGER.warn("Unknown entity class in cache invalidation event {}", className);
+			return null;
+		}
+	}
+
+	/**
+	 * Sends the queued events, stops the batching and closes the channel
+	 */
+	@Override
+	public void close() {
+		if (scheduler != null) {
+			scheduler.shutdown();
+		}
+		flush();
+		channel.close();
+	}
+}
@@ -1,5 +1,6 @@
 package com.a9ski.jpa;
 
+import javax.persistence.criteria.CommonAbstractCriteria;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Path;
@@ -15,6 +16,7 @@ import javax.persistence.criteria.Path;
 public class CriteriaApiObjects<E> {
 	private final CriteriaBuilder criteriaBuilder;
 	private final CriteriaQuery<?> criteriaQuery;
+	private final CommonAbstractCriteria criteria;
 	private final Path<E> path;
 
 	/**
@@ -28,9 +30,24 @@ public class CriteriaApiObjects<E> {
 	 *            the JPA entity path
 	 */
 	public CriteriaApiObjects(final CriteriaBuilder criteriaBuilder, final CriteriaQuery<?> criteriaQuery, final Path<E> path) {
+		this(criteriaBuilder, (CommonAbstractCriteria) criteriaQuery, path);
+	}
+
+	/**
+	 * Creates a new holder object for a query, bulk update or bulk delete
+	 *
+	 * @param criteriaBuilder
+	 *            the criteria builder
+	 * @param criteria
+	 *            the criteria query, {@link javax.persistence.criteria.CriteriaUpdate} or {@link javax.persistence.criteria.CriteriaDelete}
+	 * @param path
+	 *            the JPA entity path
+	 */
+	public CriteriaApiObjects(final CriteriaBuilder criteriaBuilder, final CommonAbstractCriteria criteria, final Path<E> path) {
 		super();
 		this.criteriaBuilder = criteriaBuilder;
-		this.criteriaQuery = criteriaQuery;
+		this.criteriaQuery = criteria instanceof CriteriaQuery ? (CriteriaQuery<?>) criteria : null;
+		this.criteria = criteria;
 		this.path = path;
 	}
 
@@ -46,12 +63,21 @@ public class CriteriaApiObjects<E> {
 	/**
 	 * Returns the criteria query
 	 *
-	 * @return the criteria query
+	 * @return the criteria query or <tt>null</tt> for bulk update and delete
 	 */
 	public CriteriaQuery<?> getCriteriaQuery() {
 		return criteriaQuery;
 	}
 
+	/**
+	 * Returns the criteria query, update or delete. Can be used for creating subqueries
+	 *
+	 * @return the criteria
+	 */
+	public CommonAbstractCriteria getCriteria() {
+		return criteria;
+	}
+
 	/**
 	 * Returns JPA entity path
 	 *
@@ -7,18 +7,23 @@ import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 
+import javax.persistence.Parameter;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.ParameterExpression;
 import javax.persistence.criteria.Path;
 import javax.persistence.criteria.Predicate;
 
 import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.lang3.tuple.Pair;
 
+import com.a9ski.collections.LongRange;
+import com.a9ski.collections.SortedLongSet;
 import com.a9ski.entities.filters.FilterStringField;
+import com.a9ski.entities.filters.Matching;
 import com.a9ski.utils.DateRange;
 import com.a9ski.utils.ExtCollectionUtils;
 import com.a9ski.utils.Range;
-import com.a9ski.utils.StringUtils;
 
 /**
  * Helper object for simplifying usage of CriteriaBuilder
@@ -30,11 +35,18 @@ public class CriteriaBuilderHelper {
 
 	private static final char ESCAPE_CHAR = '\\';
 
+	private static final String PARAMETER_PREFIX = "cbh_p";
+
+	static final int MIN_BETWEEN_RANGE_SIZE = 4;
+
 	private final CriteriaBuilder cb;
 	private final Locale locale;
 	private final List<Predicate> predicates;
 	private final List<CriteriaBuilderHelper> ors = new ArrayList<>();
 	private final int maxNumberOfInElements;
+	private final List<Pair<Parameter<Object>, Object>> parameters;
+	private final InStrategy inStrategy;
+	private int maxInListSize;
 
 	/**
 	 * Creates a new helper object
@@ -75,10 +87,51 @@ public class CriteriaBuilderHelper {
 	 *            the maximum number of elements in IN predicate. If adding IN predicate with more than <tt>maxNumberOfInElements</tt> the IN clause is split into several IN clauses joined with AND predicate
 	 */
 	public CriteriaBuilderHelper(final CriteriaBuilder cb, final Locale locale, final List<Predicate> predicates, final int maxNumberOfInElements) {
+		this(cb, locale, predicates, maxNumberOfInElements, null);
+	}
+
+	/**
+	 * Creates a new helper object
+	 *
+	 * @param cb
+	 *            the criteria builder
+	 * @param locale
+	 *            the locale used for string comparison
+	 * @param predicates
+	 *            the initial predicates
+	 * @param maxNumberOfInElements
+	 *            the maximum number of elements in IN predicate. If adding IN predicate with more than <tt>maxNumberOfInElements</tt> the IN clause is split into several IN clauses joined with AND predicate
+	 * @param parameters
+	 *            the list collecting the query parameters. If not <tt>null</tt> the helper works in parameter binding mode - the values are not passed as literals, but as named parameters added to this list, so the query text does not depend on the
+	 *            values. The list should be passed to {@link QueryConfig} and all helpers used for the same query must share the same list.
+	 */
+	public CriteriaBuilderHelper(final CriteriaBuilder cb, final Locale locale, final List<Predicate> predicates, final int maxNumberOfInElements, final List<Pair<Parameter<Object>, Object>> parameters) {
+		this(cb, locale, predicates, maxNumberOfInElements, parameters, null);
+	}
+
+	/**
+	 * Creates a new helper object
+	 *
+	 * @param cb
+	 *            the criteria builder
+	 * @param locale
+	 *            the locale used for string comparison
+	 * @param predicates
+	 *            the initial predicates
+	 * @param maxNumberOfInElements
+	 *            the maximum number of elements in IN predicate. Used only if <tt>inStrategy</tt> is <tt>null</tt>
+	 * @param parameters
+	 *            the list collecting the query parameters or <tt>null</tt>. See {@link #CriteriaBuilderHelper(CriteriaBuilder, Locale, List, int, List)}
+	 * @param inStrategy
+	 *            the strategy used for creating IN predicates with more than one value (see {@link DatabaseDialect#createInStrategy()}). If <tt>null</tt> a {@link SplittingInStrategy} with <tt>maxNumberOfInElements</tt> is used
+	 */
+	public CriteriaBuilderHelper(final CriteriaBuilder cb, final Locale locale, final List<Predicate> predicates, final int maxNumberOfInElements, final List<Pair<Parameter<Object>, Object>> parameters, final InStrategy inStrategy) {
 		this.cb = cb;
 		this.locale = (locale != null ? locale : Locale.getDefault());
 		this.predicates = predicates; // NOSONAR
 		this.maxNumberOfInElements = maxNumberOfInElements;
+		this.parameters = parameters; // NOSONAR
+		this.inStrategy = inStrategy != null ? inStrategy : new SplittingInStrategy(maxNumberOfInElements);
 	}
 
 	/**
@@ -90,6 +143,73 @@ public class CriteriaBuilderHelper {
 		return maxNumberOfInElements;
 	}
 
+	/**
+	 * Returns the strategy used for creating IN predicates
+	 *
+	 * @return the strategy used for creating IN predicates
+	 */
+	public InStrategy getInStrategy() {
+		return inStrategy;
+	}
+
+	/**
+	 * Returns true if the helper works in parameter binding mode, i.e. values are passed as query parameters instead of literals
+	 *
+	 * @return true if the helper works in parameter binding mode
+	 */
+	public boolean isParameterBinding() {
+		return parameters != null;
+	}
+
+	/**
+	 * Returns the query parameters registered in parameter binding mode or <tt>null</tt> if the helper does not work in parameter binding mode
+	 *
+	 * @return the query parameters
+	 */
+	public List<Pair<Parameter<Object>, Object>> getParameters() {
+		return parameters; // NOSONAR this is supposed to be modifiable
+	}
+
+	/**
+	 * Returns the number of values of the largest IN or NOT IN predicate created by this helper and its OR helpers
+	 *
+	 * @return the size of the largest IN list or <tt>0</tt> if there are no IN predicates
+	 */
+	public int getMaxInListSize() {
+		int max = maxInListSize;
+		for (final CriteriaBuilderHelper cpbOr : ors) {
+			max = Math.max(max, cpbOr.getMaxInListSize());
+		}
+		return max;
+	}
+
+	/**
+	 * Registers a new named parameter with given value
+	 *
+	 * @param type
+	 *            the parameter type
+	 * @param value
+	 *            the parameter value
+	 * @return the parameter expression
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T> ParameterExpression<T> parameter(final Class<T> type, final Object value) {
+		final ParameterExpression<T> p = cb.parameter(type, PARAMETER_PREFIX + parameters.size());
+		parameters.add(Pair.of((Parameter<Object>) (Parameter<?>) p, value));
+		return p;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> Expression<T> valueParameter(final T value) {
+		final Class<T> type = (Class<T>) (value instanceof Enum ? ((Enum<?>) value).getDeclaringClass() : value.getClass());
+		return parameter(type, value);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Expression<Collection<?>> collectionParameter(final Collection<?> values) {
+		return (Expression<Collection<?>>) (Expression) parameter(Collection.class, values);
+	}
+
 	/**
 	 * Creates a <b>LIKE</b> predicate
 	 *
@@ -103,7 +223,11 @@ public class CriteriaBuilderHelper {
 	 */
 	public CriteriaBuilderHelper like(final Expression<String> field, final String patternValue, final char escapeCharacter) {
 		if (org.apache.commons.lang3.StringUtils.isNotBlank(patternValue)) {
-			predicates.add(cb.like(cb.lower(field), toIgnoreCaseString(patternValue), escapeCharacter));
+			if (isParameterBinding()) {
+				predicates.add(cb.like(cb.lower(field), valueParameter(toIgnoreCaseString(patternValue)), escapeCharacter));
+			} else {
+				predicates.add(cb.like(cb.lower(field), toIgnoreCaseString(patternValue), escapeCharacter));
+			}
 		}
 		return this;
 	}
@@ -167,7 +291,7 @@ public class CriteriaBuilderHelper {
 	 */
 	public <T> CriteriaBuilderHelper equal(final Expression<T> field, final T value) { // NOSONAR
 		if (value != null) {
-			predicates.add(cb.equal(field, value));
+			predicates.add(isParameterBinding() ? cb.equal(field, valueParameter(value)) : cb.equal(field, value));
 		}
 		return this;
 	}
@@ -183,7 +307,7 @@ public class CriteriaBuilderHelper {
 	 */
 	public <T> CriteriaBuilderHelper notEqual(final Expression<T> field, final T value) {
 		if (value != null) {
-			predicates.add(cb.notEqual(field, value));
+			predicates.add(isParameterBinding() ? cb.notEqual(field, valueParameter(value)) : cb.notEqual(field, value));
 		}
 		return this;
 	}
@@ -235,7 +359,10 @@ public class CriteriaBuilderHelper {
 	/**
 	 * Create a <b>IN</b> predicate
 	 * <p>
-	 * If the number of values is bigger than {@link #getMaxNumberOfInElements()} then the IN clause is split into several IN clauses joined with AND predicate
+	 * Predicates with more than one value are created by the {@link #getInStrategy() IN strategy}. By default if the number of values is bigger than {@link #getMaxNumberOfInElements()} then the IN clause is split into several IN clauses joined with OR
+	 * predicate
+	 * <p>
+	 * If the values are {@link SortedLongSet} the runs of consecutive values are matched with <b>BETWEEN</b> predicates instead of listing every value
 	 *
 	 * @param field
 	 *            an entity field
@@ -245,20 +372,64 @@ public class CriteriaBuilderHelper {
 	 */
 	public <T> CriteriaBuilderHelper in(final Expression<T> field, final Collection<T> values) {
 		if (ExtCollectionUtils.isNotEmpty(values)) {
+			maxInListSize = Math.max(maxInListSize, values.size());
 			if (values.size() == 1) {
 				equal(field, values.iterator().next());
-			} else if (values.size() <= maxNumberOfInElements) {
-				predicates.add(field.in(values));
 			} else {
-				final CriteriaBuilderHelper or = or();
-				for (final List<T> subSearchIn : ExtCollectionUtils.split(values, maxNumberOfInElements, ArrayList::new)) {
-					or.in(field, subSearchIn);
-				}
+				predicates.add(createInPredicate(field, values));
 			}
 		}
 		return this;
 	}
 
+	@SuppressWarnings("unchecked")
+	private <T> Predicate createInPredicate(final Expression<T> field, final Collection<T> values) {
+		if (values instanceof SortedLongSet) {
+			final SortedLongSet set = (SortedLongSet) values;
+			if (set.ranges().stream().anyMatch(r -> r.size() >= MIN_BETWEEN_RANGE_SIZE)) {
+				return inRanges((Expression<Long>) field, set);
+			}
+		}
+		return inStrategy.in(this, field, values);
+	}
+
+	private Predicate inRanges(final Expression<Long> field, final SortedLongSet values) {
+		final List<Predicate> or = new ArrayList<>();
+		final List<Long> singles = new ArrayList<>();
+		for (final LongRange r : values.ranges()) {
+			if (r.size() >= MIN_BETWEEN_RANGE_SIZE) {
+				if (isParameterBinding()) {
+					or.add(cb.between(field, valueParameter(r.getStart()), valueParameter(r.getEnd())));
+				} else {
+					or.add(cb.between(field, r.getStart(), r.getEnd()));
+				}
+			} else {
+				for (long v = r.getStart(); v <= r.getEnd(); v++) {
+					singles.add(v);
+				}
+			}
+		}
+		if (singles.size() == 1) {
+			or.add(isParameterBinding() ? cb.equal(field, valueParameter(singles.get(0))) : cb.equal(field, singles.get(0)));
+		} else if (!singles.isEmpty()) {
+			or.add(inStrategy.in(this, field, singles));
+		}
+		return or.size() == 1 ? or.get(0) : cb.or(or.toArray(new Predicate[or.size()]));
+	}
+
+	/**
+	 * Creates a single <b>IN</b> predicate with all the values, without applying the IN strategy. In parameter binding mode the values are bound as a single collection valued parameter.
+	 *
+	 * @param field
+	 *            an entity field
+	 * @param values
+	 *            collection of values
+	 * @return the IN predicate
+	 */
+	public <T> Predicate inPredicate(final Expression<T> field, final Collection<T> values) {
+		return isParameterBinding() ? field.in(collectionParameter(values)) : field.in(values);
+	}
+
 	/**
 	 * Create a <b>NOT IN</b> predicate. IF the number of values is bigger than
 	 * <p>
@@ -278,7 +449,7 @@ public class CriteriaBuilderHelper {
 	/**
 	 * Create a <b>NOT IN</b> predicate
 	 * <p>
-	 * If the number of values is bigger than {@link #getMaxNumberOfInElements()} then the NOT IN clause is split into several NOT IN clauses joined with AND predicate
+	 * The predicate is the negation of the predicate created by the {@link #getInStrategy() IN strategy}, so when the IN clause is split the NOT IN clauses are effectively joined with AND predicate
 	 *
 	 * @param field
 	 *            an entity field
@@ -288,15 +459,11 @@ public class CriteriaBuilderHelper {
 	 */
 	public <T> CriteriaBuilderHelper notIn(final Expression<T> field, final Collection<T> values) {
 		if (!CollectionUtils.isEmpty(values)) {
+			maxInListSize = Math.max(maxInListSize, values.size());
 			if (values.size() == 1) {
 				notEqual(field, values.iterator().next());
-			} else if (values.size() <= maxNumberOfInElements) {
-				predicates.add(cb.not(field.in(values)));
 			} else {
-				final CriteriaBuilderHelper or = or();
-				for (final List<T> subSearchIn : ExtCollectionUtils.split(values, maxNumberOfInElements, ArrayList::new)) {
-					or.notIn(field, subSearchIn);
-				}
+				predicates.add(cb.not(createInPredicate(field, values)));
 			}
 		}
 		return this;
@@ -337,10 +504,11 @@ public class CriteriaBuilderHelper {
 	 */
 	public CriteriaBuilderHelper equalBool(final Expression<Boolean> field, final Boolean value) {
 		if (value != null) {
+			final Predicate equal = isParameterBinding() ? cb.equal(field, valueParameter(value)) : cb.equal(field, value);
 			if (!value) {
-				predicates.add(cb.or(field.isNull(), cb.equal(field, value)));
+				predicates.add(cb.or(field.isNull(), equal));
 			} else {
-				predicates.add(cb.equal(field, value));
+				predicates.add(equal);
 			}
 		}
 		return this;
@@ -357,10 +525,11 @@ public class CriteriaBuilderHelper {
 	 */
 	public CriteriaBuilderHelper notEqualBool(final Expression<Boolean> field, final Boolean value) {
 		if (value != null) {
+			final Predicate equal = isParameterBinding() ? cb.equal(field, valueParameter(value)) : cb.equal(field, value);
 			if (!value) {
-				predicates.add(cb.not(cb.or(field.isNull(), cb.equal(field, value))));
+				predicates.add(cb.not(cb.or(field.isNull(), equal)));
 			} else {
-				predicates.add(cb.not(cb.equal(field, value)));
+				predicates.add(cb.not(equal));
 			}
 		}
 		return this;
@@ -377,7 +546,7 @@ public class CriteriaBuilderHelper {
 	 */
 	public <T extends Comparable<T>> CriteriaBuilderHelper greaterThanOrEqualTo(final Expression<T> field, final T value) {
 		if (value != null) {
-			predicates.add(cb.greaterThanOrEqualTo(field, value));
+			predicates.add(isParameterBinding() ? cb.greaterThanOrEqualTo(field, valueParameter(value)) : cb.greaterThanOrEqualTo(field, value));
 		}
 		return this;
 	}
@@ -393,7 +562,7 @@ public class CriteriaBuilderHelper {
 	 */
 	public <T extends Comparable<T>> CriteriaBuilderHelper lessThanOrEqualTo(final Expression<T> field, final T value) {
 		if (value != null) {
-			predicates.add(cb.lessThanOrEqualTo(field, value));
+			predicates.add(isParameterBinding() ? cb.lessThanOrEqualTo(field, valueParameter(value)) : cb.lessThanOrEqualTo(field, value));
 		}
 		return this;
 	}
@@ -409,7 +578,7 @@ public class CriteriaBuilderHelper {
 	 */
 	public <T extends Comparable<? super T>> CriteriaBuilderHelper greaterThan(final Expression<T> field, final T value) {
 		if (value != null) {
-			predicates.add(cb.greaterThan(field, value));
+			predicates.add(isParameterBinding() ? cb.greaterThan(field, valueParameter(value)) : cb.greaterThan(field, value));
 		}
 		return this;
 	}
@@ -425,7 +594,7 @@ public class CriteriaBuilderHelper {
 	 */
 	public <T extends Comparable<? super T>> CriteriaBuilderHelper lessThan(final Expression<T> field, final T value) {
 		if (value != null) {
-			predicates.add(cb.lessThan(field, value));
+			predicates.add(isParameterBinding() ? cb.lessThan(field, valueParameter(value)) : cb.lessThan(field, value));
 		}
 		return this;
 	}
@@ -441,7 +610,7 @@ public class CriteriaBuilderHelper {
 	 */
 	public <T extends Date> CriteriaBuilderHelper greaterThanOrEqualTo(final Expression<T> field, final Date value) {
 		if (value != null) {
-			predicates.add(cb.greaterThanOrEqualTo(field, value));
+			predicates.add(isParameterBinding() ? cb.greaterThanOrEqualTo(field, valueParameter(value)) : cb.greaterThanOrEqualTo(field, value));
 		}
 		return this;
 	}
@@ -457,7 +626,7 @@ public class CriteriaBuilderHelper {
 	 */
 	public <T extends Date> CriteriaBuilderHelper lessThanOrEqualTo(final Expression<T> field, final Date value) {
 		if (value != null) {
-			predicates.add(cb.lessThanOrEqualTo(field, value));
+			predicates.add(isParameterBinding() ? cb.lessThanOrEqualTo(field, valueParameter(value)) : cb.lessThanOrEqualTo(field, value));
 		}
 		return this;
 	}
@@ -473,7 +642,7 @@ public class CriteriaBuilderHelper {
 	 */
 	public <T extends Date> CriteriaBuilderHelper greaterThan(final Expression<T> field, final Date value) {
 		if (value != null) {
-			predicates.add(cb.greaterThan(field, value));
+			predicates.add(isParameterBinding() ? cb.greaterThan(field, valueParameter(value)) : cb.greaterThan(field, value));
 		}
 		return this;
 	}
@@ -489,7 +658,7 @@ public class CriteriaBuilderHelper {
 	 */
 	public <T extends Date> CriteriaBuilderHelper lessThan(final Expression<T> field, final Date value) {
 		if (value != null) {
-			predicates.add(cb.lessThan(field, value));
+			predicates.add(isParameterBinding() ? cb.lessThan(field, valueParameter(value)) : cb.lessThan(field, value));
 		}
 		return this;
 	}
@@ -612,7 +781,7 @@ public class CriteriaBuilderHelper {
 	 * @return the new predicate helper whose predicates are joined by <b>OR</b> clause
 	 */
 	public CriteriaBuilderHelper or() {
-		final CriteriaBuilderHelper cpbOr = new CriteriaBuilderHelper(cb, locale);
+		final CriteriaBuilderHelper cpbOr = new CriteriaBuilderHelper(cb, locale, new ArrayList<Predicate>(), maxNumberOfInElements, parameters, inStrategy);
 		ors.add(cpbOr);
 		return cpbOr;
 	}
@@ -645,26 +814,6 @@ public class CriteriaBuilderHelper {
 		return org.apache.commons.lang3.StringUtils.isEmpty(s) ? null : s.toLowerCase(locale);
 	}
 
-	private String replaceSpacesWithWildcard(final String s) {
-		return StringUtils.replaceWithSingleSpace(org.apache.commons.lang3.StringUtils.defaultString(s)).replace(' ', '%');
-	}
-
-	private String escapeLikeTerms(final String s, final char escapeChar) {
-		// @formatter:off
-		return StringUtils.replaceWithSingleSpace(org.apache.commons.lang3.StringUtils.defaultString(s))
-				.replace(escapeChar + "", escapeChar + "" + escapeChar)
-				.replace("%", escapeChar + "%")
-				.replace("_", escapeChar + "_");
-		// @formatter:on
-	}
-
-	private String prepareLikePattern(final String text, final char escapeChar) {
-		if (escapeChar == '%' || escapeChar == '_') {
-			throw new IllegalArgumentException("Escape character cannot be '%' or '_'");
-		}
-		return replaceSpacesWithWildcard(escapeLikeTerms(toIgnoreCaseString(text).trim(), escapeChar));
-	}
-
 	/**
 	 * Creates a like pattern that can be used for {@link #like(Expression, String)} predicates for matching the <tt>text</tt>
 	 * <p>
@@ -694,7 +843,7 @@ public class CriteriaBuilderHelper {
 	 * @return like pattern
 	 */
 	public String createLikePattern(final String text, final char escapeChar) {
-		return org.apache.commons.lang3.StringUtils.isBlank(text) ? "" : "%" + prepareLikePattern(text, escapeChar) + "%";
+		return LikePatternBuilder.getDefault().build(text, Matching.LIKE, escapeChar, locale);
 	}
 
 	/**
@@ -726,7 +875,7 @@ public class CriteriaBuilderHelper {
 	 * @return like pattern
 	 */
 	public String createStartsWithPattern(final String text, final char escapeChar) {
-		return org.apache.commons.lang3.StringUtils.isBlank(text) ? "" : prepareLikePattern(text, escapeChar) + "%";
+		return LikePatternBuilder.getDefault().build(text, Matching.STARTS_WITH, escapeChar, locale);
 	}
 
 	/**
@@ -758,7 +907,7 @@ public class CriteriaBuilderHelper {
 	 * @return like pattern
 	 */
 	public String createEndsWithPattern(final String text, final char escapeChar) {
-		return org.apache.commons.lang3.StringUtils.isBlank(text) ? "" : "%" + prepareLikePattern(text, escapeChar);
+		return LikePatternBuilder.getDefault().build(text, Matching.ENDS_WITH, escapeChar, locale);
 	}
 
 	/**
@@ -769,6 +918,7 @@ public class CriteriaBuilderHelper {
 	public List<Predicate> getPredicates() {
 		for (final CriteriaBuilderHelper cpbOr : ors) {
 			or(cpbOr.getPredicatesArray());
+			maxInListSize = Math.max(maxInListSize, cpbOr.getMaxInListSize());
 		}
 		ors.clear();
 		return predicates; // NOSONAR this is supposed to be modifiable from
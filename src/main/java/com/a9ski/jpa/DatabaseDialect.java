@@ -1,5 +1,7 @@
 package com.a9ski.jpa;
 
+import java.util.List;
+
 /**
  * Interface representing a database dialect - some database specific functionality
  *
@@ -15,4 +17,62 @@ public interface DatabaseDialect {
 	 * @return the next value of the sequence
 	 */
 	public String createSequenceNextValueSql(final String sequenceName);
+
+	/**
+	 * Generates SQL returning the next <tt>count</tt> values of a sequence in a single query, e.g. <tt>SELECT nextval('seq') FROM generate_series(1, 100)</tt> for PostgreSQL or
+	 * <tt>SELECT seq.NEXTVAL FROM dual CONNECT BY LEVEL &lt;= 100</tt> for Oracle
+	 *
+	 * @param sequenceName
+	 *            the sequence name
+	 * @param count
+	 *            the number of values
+	 * @return the SQL or <tt>null</tt> if the database does not support fetching multiple values at once
+	 */
+	public default String createSequenceNextValuesSql(final String sequenceName, final int count) {
+		return null;
+	}
+
+	/**
+	 * Returns the maximum number of elements in a single IN clause. Used by {@link JpaUtils} configured with the dialect (see {@link JpaUtils#withDatabaseDialect(DatabaseDialect)})
+	 *
+	 * @return the maximum number of elements in a single IN clause
+	 */
+	public default int getMaxNumberOfInElements() {
+		return 100;
+	}
+
+	/**
+	 * Creates the strategy used for IN predicates with many values by the criteria builder helpers of {@link JpaUtils} configured with the dialect (see
+	 * {@link JpaUtils#createCriteriaBuilderHelper(javax.persistence.criteria.CriteriaBuilder, java.util.Locale, List)}). The strategy is chosen by the number of values of each predicate: the default strategy creates a single IN clause for up to
+	 * {@link #getMaxNumberOfInElements()} values and splits longer lists. Dialects supporting array parameters may return {@link ArrayParameterInStrategy} binding long lists as single array.
+	 *
+	 * @return the strategy used for IN predicates
+	 */
+	public default InStrategy createInStrategy() {
+		return new SplittingInStrategy(getMaxNumberOfInElements());
+	}
+
+	/**
+	 * Generates a single statement inserting <tt>rows</tt> rows or updating the existing rows with the same natural key, e.g. <tt>INSERT ... ON CONFLICT ... DO UPDATE</tt> for PostgreSQL or <tt>MERGE</tt> for databases supporting the SQL
+	 * standard <tt>MERGE</tt> statement. The statements of the common databases are generated by {@link UpsertSql}.
+	 * <p>
+	 * The values are bound as positional parameters <tt>?1</tt>, <tt>?2</tt>, ... row by row in the order of <tt>insertColumns</tt>. The updated rows get the values of <tt>updateColumns</tt> and the version column is incremented.
+	 *
+	 * @param tableName
+	 *            the table name
+	 * @param keyColumns
+	 *            the columns of the natural key. There must be an unique constraint on them
+	 * @param insertColumns
+	 *            the columns set when a row is inserted. Contains the key columns
+	 * @param updateColumns
+	 *            the columns set when a row is updated
+	 * @param versionColumn
+	 *            the version column incremented when a row is updated or <tt>null</tt>
+	 * @param rows
+	 *            the number of rows
+	 * @return the SQL or <tt>null</tt> if the database does not support upsert
+	 */
+	public default String createUpsertSql(final String tableName, final List<String> keyColumns, final List<String> insertColumns, final List<String> updateColumns, final String versionColumn, final int rows) {
+		return null;
+	}
 }
@@ -0,0 +1,394 @@
+package com.a9ski.jpa;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Application level read-through cache of entities used by {@link JpaUtils#loadEntity(long, Class, boolean)} and {@link JpaUtils#loadEntities(Class, java.util.Collection)}. The cache is keyed by entity class and ID and holds at most <tt>maxSize</tt>
+ * entities. The entries are spread over segments with separate locks, each of them evicting its least recently used entities, so concurrent lookups of different entities do not contend for a single lock.
+ * <p>
+ * Only the entity classes registered with {@link #setTtl(Class, long)} are cached. When the TTL of a cached {@link com.a9ski.entities.AuditableEntity} expires, only its version is read from the database. If the version is the same the entity is
+ * kept for another TTL period, otherwise it is loaded again.
+ * <p>
+ * The cached entities are <b>detached</b> and shared between all threads, so they must be treated as read-only. The cache is intended for read-mostly reference entities. The entities are loaded in a separate entity manager which is cleared
+ * before it is closed, so they are detached even if the entity manager joined a JTA transaction. Methods loading entities for modification (e.g. {@link JpaUtils#findOrCreateEntity(Class, Long, boolean)}) do not use the cache. Entities are
+ * removed from the cache by {@link JpaUtils#save(com.a9ski.id.Identifiable)} and the <tt>clearCache</tt> methods of {@link JpaUtils}. Entities saved in the current JTA transaction are not cached until the transaction ends (requires
+ * {@link TransactionContext}). Without {@link TransactionContext} the saved entities cannot be tracked, so the cache is not used at all while the entity manager has an active transaction.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+public class EntityCache {
+
+	private static final int MAX_SEGMENTS = 16;
+
+	private static final int MIN_SEGMENT_SIZE = 64;
+
+	private final Segment[] segments;
+
+	private final ConcurrentMap<Class<?>, Long> ttls = new ConcurrentHashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Creates a new cache
+	 *
+	 * @param maxSize
+	 *            the maximum number of cached entities
+	 */
+	public EntityCache(final int maxSize) {
+		super();
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("Invalid argument: maxSize must be positive");
+		}
+		// power of two, so the segment is selected by bit mask. Small caches have less segments, so the eviction stays close to LRU
+		final int count = Math.min(MAX_SEGMENTS, Integer.highestOneBit(Math.max(1, maxSize / MIN_SEGMENT_SIZE)));
+		this.segments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			// the first segments get the remainder
+			segments[i] = new Segment(maxSize / count + (i < maxSize % count ? 1 : 0));
+		}
+	}
+
+	private Segment segment(final Key key) {
+		final int h = key.hashCode();
+		return segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+	}
+
+	/**
+	 * Enables caching of given entity class
+	 *
+	 * @param entityClass
+	 *            the entity class, as passed to {@link JpaUtils#loadEntity(long, Class, boolean)}
+	 * @param ttlMillis
+	 *            the time to live of the cached entities in milliseconds. Use <tt>0</tt> to disable caching of the class
+	 * @return the cache, useful for method chaining
+	 */
+	public EntityCache setTtl(final Class<?> entityClass, final long ttlMillis) {
+		if (entityClass == null) {
+			throw new IllegalArgumentException("Invalid argument: entityClass should not be null");
+		}
+		if (ttlMillis > 0) {
+			ttls.put(entityClass, TimeUnit.MILLISECONDS.toNanos(ttlMillis));
+		} else {
+			ttls.remove(entityClass);
+			invalidate(entityClass);
+		}
+		return this;
+	}
+
+	/**
+	 * Checks if the entities of given class are cached
+	 *
+	 * @param entityClass
+	 *            the entity class
+	 * @return <tt>true</tt> if the entities of given class are cached
+	 */
+	public boolean isCached(final Class<?> entityClass) {
+		return entityClass != null && ttls.containsKey(entityClass);
+	}
+
+	/**
+	 * Returns the cache entry or <tt>null</tt> if the entity is not cached
+	 *
+	 * @param entityClass
+	 *            the entity class
+	 * @param id
+	 *            the entity id
+	 * @return the cache entry
+	 */
+	CachedEntity get(final Class<?> entityClass, final long id) {
+		final Key key = new Key(entityClass, id);
+		final Segment segment = segment(key);
+		final CachedEntity e;
+		synchronized (segment) {
+			e = segment.get(key);
+		}
+		if (e != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+		return e;
+	}
+
+	/**
+	 * Returns a stamp that must be obtained before loading an entity from the database and passed to {@link #put(Class, long, Object, long, long)}. The stamp is the number of invalidations of the segment holding the entity.
+	 *
+	 * @param entityClass
+	 *            the entity class
+	 * @param id
+	 *            the entity id
+	 * @return the current stamp
+	 */
+	long stamp(final Class<?> entityClass, final long id) {
+		return segment(new Key(entityClass, id)).invalidations;
+	}
+
+	/**
+	 * Caches the entity unless some entity of its segment was invalidated since the <tt>stamp</tt> was obtained, because the loaded entity could be stale. An existing entry is replaced, so reloaded entities are refreshed without evicting them first.
+	 *
+	 * @param entityClass
+	 *            the entity class
+	 * @param id
+	 *            the entity id
+	 * @param entity
+	 *            the detached entity
+	 * @param version
+	 *            the entity version
+	 * @param stamp
+	 *            the stamp obtained with {@link #stamp(Class, long)} before loading the entity
+	 */
+	void put(final Class<?> entityClass, final long id, final Object entity, final long version, final long stamp) {
+		final Long ttl = ttls.get(entityClass);
+		if (ttl == null || entity == null) {
+			return;
+		}
+		final Key key = new Key(entityClass, id);
+		final Segment segment = segment(key);
+		synchronized (segment) {
+			if (segment.invalidations == stamp) {
+				segment.put(key, new CachedEntity(entity, version, System.nanoTime() + ttl));
+			}
+		}
+	}
+
+	/**
+	 * Extends the life of the entry for another TTL period
+	 *
+	 * @param entityClass
+	 *            the entity class
+	 * @param entry
+	 *            the cache entry
+	 */
+	void renew(final Class<?> entityClass, final CachedEntity entry) {
+		final Long ttl = ttls.get(entityClass);
+		if (ttl != null) {
+			entry.expiresAt = System.nanoTime() + ttl;
+		}
+	}
+
+	/**
+	 * Removes the entity from the cache. The entity is removed for all cached classes that are the same as or superclasses of <tt>entityClass</tt>
+	 *
+	 * @param entityClass
+	 *            the entity class
+	 * @param id
+	 *            the entity id
+	 */
+	public void invalidate(final Class<?> entityClass, final long id) {
+		for (final Class<?> c : ttls.keySet()) {
+			if (c.isAssignableFrom(entityClass)) {
+				remove(new Key(c, id));
+			}
+		}
+		remove(new Key(entityClass, id));
+	}
+
+	private void remove(final Key key) {
+		final Segment segment = segment(key);
+		synchronized (segment) {
+			segment.invalidations++;
+			segment.remove(key);
+		}
+	}
+
+	/**
+	 * Removes the entity from the cache unless the cached entity already has the given or newer version. See {@link #invalidate(Class, long)}
+	 *
+	 * @param entityClass
+	 *            the entity class
+	 * @param id
+	 *            the entity id
+	 * @param version
+	 *            the version of the modified entity or <tt>0</tt> if unknown
+	 */
+	public void invalidate(final Class<?> entityClass, final long id, final long version) {
+		if (version <= 0) {
+			invalidate(entityClass, id);
+			return;
+		}
+		for (final Class<?> c : ttls.keySet()) {
+			if (c.isAssignableFrom(entityClass)) {
+				final Key key = new Key(c, id);
+				final Segment segment = segment(key);
+				synchronized (segment) {
+					segment.invalidations++;
+					final CachedEntity e = segment.get(key);
+					if (e != null && e.getVersion() < version) {
+						segment.remove(key);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes all entities of given class, its subclasses and superclasses from the cache
+	 *
+	 * @param entityClass
+	 *            the entity class
+	 */
+	public void invalidate(final Class<?> entityClass) {
+		for (final Segment segment : segments) {
+			synchronized (segment) {
+				segment.invalidations++;
+				final Iterator<Key> it = segment.keySet().iterator();
+				while (it.hasNext()) {
+					final Key k = it.next();
+					if (entityClass.isAssignableFrom(k.entityClass) || k.entityClass.isAssignableFrom(entityClass)) {
+						it.remove();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes all entities from the cache and resets the counters
+	 */
+	public void clear() {
+		for (final Segment segment : segments) {
+			synchronized (segment) {
+				segment.invalidations++;
+				segment.clear();
+			}
+		}
+		hits.set(0);
+		misses.set(0);
+	}
+
+	/**
+	 * Returns the number of cached entities
+	 *
+	 * @return the number of cached entities
+	 */
+	public int size() {
+		int size = 0;
+		for (final Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the number of lookups served from the cache
+	 *
+	 * @return the number of cache hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of lookups not found in the cache
+	 *
+	 * @return the number of cache misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Segment of the cache - access ordered map evicting the least recently used entry when the capacity is exceeded. Guarded by itself.
+	 */
+	private static class Segment extends LinkedHashMap<Key, CachedEntity> {
+		private static final long serialVersionUID = -6427010744963316407L;
+
+		private final int capacity;
+
+		/**
+		 * The number of invalidations of the segment, see {@link EntityCache#stamp(Class, long)}. Modified only while holding the lock of the segment
+		 */
+		private volatile long invalidations;
+
+		Segment(final int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.LinkedHashMap#removeEldestEntry(java.util.Map.Entry)
+		 */
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Key, CachedEntity> eldest) {
+			return size() > capacity;
+		}
+	}
+
+	/**
+	 * Cached entity
+	 */
+	static class CachedEntity {
+		private final Object entity;
+		private final long version;
+		private volatile long expiresAt;
+
+		CachedEntity(final Object entity, final long version, final long expiresAt) {
+			this.entity = entity;
+			this.version = version;
+			this.expiresAt = expiresAt;
+		}
+
+		Object getEntity() {
+			return entity;
+		}
+
+		long getVersion() {
+			return version;
+		}
+
+		boolean isExpired() {
+			return System.nanoTime() - expiresAt > 0;
+		}
+	}
+
+	private static class Key {
+		private final Class<?> entityClass;
+		private final long id;
+
+		Key(final Class<?> entityClass, final long id) {
+			this.entityClass = entityClass;
+			this.id = id;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return 31 * entityClass.hashCode() + Long.hashCode(id);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (obj == null || getClass() != obj.getClass()) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return id == other.id && Objects.equals(entityClass, other.entityClass);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package com.a9ski.jpa;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.util.function.Supplier;
+
+import com.a9ski.utils.NullUtils;
+
+/**
+ * Creates instances of entity classes using their no-argument constructors without reflection on every call. The first call for a class creates a {@link Supplier} calling the constructor, which is kept in a {@link ClassValue}, so it does not
+ * prevent unloading of the class.
+ * <p>
+ * For public classes with public constructor visible from the class loader of this class the supplier is generated by {@link LambdaMetafactory} and is as fast as calling <tt>new</tt>. Other classes (e.g. with protected constructor as allowed
+ * by JPA or loaded by a child class loader) use a {@link MethodHandle} of the constructor.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+public final class EntityInstantiator {
+
+	private static final ClassValue<Supplier<?>> INSTANTIATORS = new ClassValue<Supplier<?>>() {
+		@Override
+		protected Supplier<?> computeValue(final Class<?> type) {
+			return createInstantiator(type);
+		}
+	};
+
+	private EntityInstantiator() {
+		super();
+	}
+
+	/**
+	 * Creates a new instance of given class
+	 *
+	 * @param type
+	 *            the class
+	 * @return a new instance of the class
+	 * @throws IllegalArgumentException
+	 *             thrown if the class has no accessible no-argument constructor or it is abstract
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T newInstance(final Class<T> type) {
+		NullUtils.checkNotNull(type, "Invalid argument: type should not be null");
+		return (T) INSTANTIATORS.get(type).get();
+	}
+
+	private static Supplier<?> createInstantiator(final Class<?> type) {
+		if (type.isInterface() || type.isArray() || type.isPrimitive() || Modifier.isAbstract(type.getModifiers())) {
+			return failing(type, null);
+		}
+		final MethodHandles.Lookup lookup = MethodHandles.lookup();
+		final Constructor<?> constructor;
+		final MethodHandle handle;
+		final boolean isPublic;
+		try {
+			constructor = type.getDeclaredConstructor();
+			isPublic = Modifier.isPublic(type.getModifiers()) && Modifier.isPublic(constructor.getModifiers());
+			if (!isPublic) {
+				constructor.setAccessible(true);
+			}
+			handle = lookup.unreflectConstructor(constructor);
+		} catch (final NoSuchMethodException | IllegalAccessException | RuntimeException ex) {
+			return failing(type, ex);
+		}
+		if (isPublic && isVisible(type)) {
+			try {
+				final CallSite site = LambdaMetafactory.metafactory(lookup, "get", MethodType.methodType(Supplier.class), MethodType.methodType(Object.class), handle, MethodType.methodType(type));
+				return (Supplier<?>) site.getTarget().invokeExact();
+			} catch (final Throwable ex) { // NOSONAR fall back to the method handle
+				JpaUtils.LOGGER.debug("Cannot create lambda instantiator of {}", type.getName(), ex);
+			}
+		}
+		final MethodHandle generic = handle.asType(MethodType.methodType(Object.class));
+		return () -> {
+			try {
+				return generic.invokeExact();
+			} catch (final RuntimeException | Error ex) {
+				throw ex;
+			} catch (final Throwable ex) { // NOSONAR checked exception of the constructor
+				throw new IllegalArgumentException("Cannot instantiate entity class " + type.getName(), ex);
+			}
+		};
+	}
+
+	private static boolean isVisible(final Class<?> type) {
+		try {
+			return Class.forName(type.getName(), false, EntityInstantiator.class.getClassLoader()) == type;
+		} catch (final ClassNotFoundException | LinkageError ex) {
+			return false;
+		}
+	}
+
+	private static Supplier<?> failing(final Class<?> type, final Exception cause) {
+		return () -> {
+			throw new IllegalArgumentException("Cannot instantiate entity class " + type.getName(), cause);
+		};
+	}
+}
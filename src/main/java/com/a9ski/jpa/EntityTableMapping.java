@@ -0,0 +1,279 @@
+package com.a9ski.jpa;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Column;
+import javax.persistence.Convert;
+import javax.persistence.ElementCollection;
+import javax.persistence.Embedded;
+import javax.persistence.EmbeddedId;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToMany;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.OneToOne;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+import javax.persistence.Version;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.a9ski.entities.AuditableEntity;
+import com.a9ski.id.Identifiable;
+import com.a9ski.utils.NullUtils;
+
+/**
+ * Mapping of entity attributes to the columns of the entity table, used for native statements (see {@link JpaUtils#upsert(DatabaseDialect, Identifiable, String...)}) and for updating the column attributes with a single statement (see {@link SaveMode#VERSIONED_UPDATE}). The mapping is read from the JPA annotations of the fields of the class and its super classes
+ * and is cached per class.
+ * <p>
+ * Supported are basic attributes (with {@link Enumerated} and explicit {@link Convert} converters) and {@link ManyToOne} / {@link OneToOne} associations to {@link Identifiable} entities owning the join column. Collections, embedded attributes
+ * and attribute converters applied automatically are not supported. Columns without explicit name get the attribute name (the JPA default), so physical naming strategies of the JPA provider are not taken into account.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+public final class EntityTableMapping {
+
+	private static final ClassValue<EntityTableMapping> MAPPINGS = new ClassValue<EntityTableMapping>() {
+		@Override
+		protected EntityTableMapping computeValue(final Class<?> type) {
+			return new EntityTableMapping(type);
+		}
+	};
+
+	private final String tableName;
+
+	private final List<ColumnMapping> columns;
+
+	private EntityTableMapping(final Class<?> entityClass) {
+		super();
+		final Table table = entityClass.getAnnotation(Table.class);
+		if (table != null && StringUtils.isNotBlank(table.name())) {
+			this.tableName = StringUtils.isNotBlank(table.schema()) ? table.schema() + "." + table.name() : table.name();
+		} else {
+			final Entity entity = entityClass.getAnnotation(Entity.class);
+			this.tableName = entity != null && StringUtils.isNotBlank(entity.name()) ? entity.name() : entityClass.getSimpleName();
+		}
+		final List<ColumnMapping> list = new ArrayList<>();
+		for (Class<?> c = entityClass; c != null && c != Object.class; c = c.getSuperclass()) {
+			final List<ColumnMapping> declared = new ArrayList<>();
+			for (final Field f : c.getDeclaredFields()) {
+				final ColumnMapping column = createColumn(f);
+				if (column != null) {
+					declared.add(column);
+				}
+			}
+			// columns of the super classes first
+			list.addAll(0, declared);
+		}
+		this.columns = Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * Returns the mapping of given entity class
+	 *
+	 * @param entityClass
+	 *            the entity class
+	 * @return the mapping of the entity class
+	 */
+	public static EntityTableMapping of(final Class<?> entityClass) {
+		NullUtils.checkNotNull(entityClass, "Invalid argument: entityClass should not be null");
+		return MAPPINGS.get(entityClass);
+	}
+
+	private static ColumnMapping createColumn(final Field f) {
+		final int mod = f.getModifiers();
+		if (Modifier.isStatic(mod) || Modifier.isTransient(mod) || f.isSynthetic() || f.isAnnotationPresent(Transient.class)) {
+			return null;
+		}
+		if (f.isAnnotationPresent(OneToMany.class) || f.isAnnotationPresent(ManyToMany.class) || f.isAnnotationPresent(ElementCollection.class) || f.isAnnotationPresent(Embedded.class) || f.isAnnotationPresent(EmbeddedId.class)) {
+			return null;
+		}
+		final OneToOne oneToOne = f.getAnnotation(OneToOne.class);
+		if (oneToOne != null && StringUtils.isNotEmpty(oneToOne.mappedBy())) {
+			return null;
+		}
+		final boolean association = oneToOne != null || f.isAnnotationPresent(ManyToOne.class);
+		final String name;
+		if (association) {
+			final JoinColumn joinColumn = f.getAnnotation(JoinColumn.class);
+			name = joinColumn != null && StringUtils.isNotBlank(joinColumn.name()) ? joinColumn.name() : f.getName() + "_id";
+		} else {
+			final Column column = f.getAnnotation(Column.class);
+			name = column != null && StringUtils.isNotBlank(column.name()) ? column.name() : f.getName();
+		}
+		f.setAccessible(true);
+		return new ColumnMapping(f, name, association);
+	}
+
+	/**
+	 * Returns the table name, including the schema if specified
+	 *
+	 * @return the table name
+	 */
+	public String getTableName() {
+		return tableName;
+	}
+
+	/**
+	 * Returns the mapped columns. The columns of the super classes are first
+	 *
+	 * @return the mapped columns
+	 */
+	public List<ColumnMapping> getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Returns the column of given attribute
+	 *
+	 * @param attributeName
+	 *            the attribute name
+	 * @return the column of the attribute
+	 * @throws IllegalArgumentException
+	 *             thrown if the attribute is not mapped to a column
+	 */
+	public ColumnMapping getColumn(final String attributeName) {
+		for (final ColumnMapping c : columns) {
+			if (c.getAttributeName().equals(attributeName)) {
+				return c;
+			}
+		}
+		throw new IllegalArgumentException(String.format("Invalid argument: attribute %s is not mapped to a column of %s", attributeName, tableName));
+	}
+
+	/**
+	 * Mapping of an attribute to a column
+	 */
+	public static final class ColumnMapping {
+		private final Field field;
+		private final String name;
+		private final boolean association;
+		private final boolean id;
+		private final boolean version;
+		private final boolean insertOnly;
+		private final EnumType enumType;
+		private final AttributeConverter<Object, Object> converter;
+
+		@SuppressWarnings("unchecked")
+		ColumnMapping(final Field field, final String name, final boolean association) {
+			super();
+			this.field = field;
+			this.name = name;
+			this.association = association;
+			this.id = field.isAnnotationPresent(Id.class);
+			this.version = field.isAnnotationPresent(Version.class);
+			final Column column = field.getAnnotation(Column.class);
+			// the audit data of the creation is not changed by updates
+			this.insertOnly = (column != null && !column.updatable()) || (field.getDeclaringClass() == AuditableEntity.class && ("created".equals(field.getName()) || "creator".equals(field.getName())));
+			final Enumerated enumerated = field.getAnnotation(Enumerated.class);
+			this.enumType = field.getType().isEnum() ? (enumerated != null ? enumerated.value() : EnumType.ORDINAL) : null;
+			final Convert convert = field.getAnnotation(Convert.class);
+			this.converter = convert != null && !convert.disableConversion() && convert.converter() != void.class ? (AttributeConverter<Object, Object>) EntityInstantiator.newInstance(convert.converter()) : null;
+		}
+
+		/**
+		 * Returns the attribute name
+		 *
+		 * @return the attribute name
+		 */
+		public String getAttributeName() {
+			return field.getName();
+		}
+
+		/**
+		 * Returns the column name
+		 *
+		 * @return the column name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns <tt>true</tt> if the column is the ID column
+		 *
+		 * @return <tt>true</tt> if the column is the ID column
+		 */
+		public boolean isId() {
+			return id;
+		}
+
+		/**
+		 * Returns <tt>true</tt> if the column is the version column used for optimistic locking
+		 *
+		 * @return <tt>true</tt> if the column is the version column
+		 */
+		public boolean isVersion() {
+			return version;
+		}
+
+		/**
+		 * Returns <tt>true</tt> if the column is set only when a row is inserted (e.g. {@link AuditableEntity#getCreated()})
+		 *
+		 * @return <tt>true</tt> if the column is set only on insert
+		 */
+		public boolean isInsertOnly() {
+			return insertOnly;
+		}
+
+		/**
+		 * Returns the type of the attribute
+		 *
+		 * @return the type of the attribute
+		 */
+		public Class<?> getAttributeType() {
+			return field.getType();
+		}
+
+		/**
+		 * Returns the value of the attribute
+		 *
+		 * @param entity
+		 *            the entity
+		 * @return the value of the attribute
+		 */
+		public Object getAttributeValue(final Object entity) {
+			try {
+				return field.get(entity);
+			} catch (final IllegalAccessException ex) {
+				throw new IllegalStateException("Cannot read attribute " + field.getName(), ex);
+			}
+		}
+
+		/**
+		 * Returns the value of the column for given entity, i.e. the converted attribute value or the ID of the associated entity
+		 *
+		 * @param entity
+		 *            the entity
+		 * @return the value of the column
+		 */
+		public Object getValue(final Object entity) {
+			final Object value = getAttributeValue(entity);
+			if (value == null) {
+				return null;
+			} else if (association) {
+				if (!(value instanceof Identifiable)) {
+					throw new IllegalArgumentException(String.format("Invalid argument: attribute %s should reference identifiable entity", field.getName()));
+				}
+				return ((Identifiable) value).getId();
+			} else if (converter != null) {
+				return converter.convertToDatabaseColumn(value);
+			} else if (enumType == EnumType.STRING) {
+				return ((Enum<?>) value).name();
+			} else if (enumType == EnumType.ORDINAL) {
+				return ((Enum<?>) value).ordinal();
+			}
+			return value;
+		}
+	}
+}
@@ -0,0 +1,243 @@
+package com.a9ski.jpa;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Query metrics kept in memory. The latencies, row counts and IN list sizes are recorded in histograms per operation and entity class. The histograms have logarithmic buckets with 32 linear sub-buckets each (similar to HdrHistogram), so the
+ * recorded values are exact up to 32 and have relative error below 3.2% above that. Recording a value does not allocate and does not lock.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+public class InMemoryQueryMetrics implements QueryMetrics {
+
+	private final ConcurrentMap<Pair<String, Class<?>>, Histogram> latencies = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<Pair<String, Class<?>>, Histogram> rows = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<Class<?>, Histogram> inListSizes = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<Class<?>, LongAdder> cacheHits = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<Class<?>, LongAdder> cacheMisses = new ConcurrentHashMap<>();
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.a9ski.jpa.QueryMetrics#recordOperation(java.lang.String, java.lang.Class, long, int)
+	 */
+	@Override
+	public void recordOperation(final String operation, final Class<?> entityClass, final long elapsedNanos, final int rowCount) {
+		final Pair<String, Class<?>> key = Pair.of(operation, entityClass);
+		latencies.computeIfAbsent(key, k -> new Histogram()).record(elapsedNanos);
+		rows.computeIfAbsent(key, k -> new Histogram()).record(rowCount);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.a9ski.jpa.QueryMetrics#recordInListSize(java.lang.Class, int)
+	 */
+	@Override
+	public void recordInListSize(final Class<?> entityClass, final int size) {
+		inListSizes.computeIfAbsent(classKey(entityClass), k -> new Histogram()).record(size);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.a9ski.jpa.QueryMetrics#recordCacheAccess(java.lang.Class, boolean)
+	 */
+	@Override
+	public void recordCacheAccess(final Class<?> entityClass, final boolean hit) {
+		(hit ? cacheHits : cacheMisses).computeIfAbsent(classKey(entityClass), k -> new LongAdder()).increment();
+	}
+
+	private static Class<?> classKey(final Class<?> entityClass) {
+		// ConcurrentHashMap does not allow null keys
+		return entityClass != null ? entityClass : Void.class;
+	}
+
+	/**
+	 * Returns the latency histogram of the operation in nanoseconds
+	 *
+	 * @param operation
+	 *            the operation (see {@link QueryMetrics#LIST})
+	 * @param entityClass
+	 *            the entity class
+	 * @return the latency histogram or <tt>null</tt> if the operation was not recorded
+	 */
+	public Histogram getLatency(final String operation, final Class<?> entityClass) {
+		return latencies.get(Pair.of(operation, entityClass));
+	}
+
+	/**
+	 * Returns the histogram of the number of rows returned or saved by the operation
+	 *
+	 * @param operation
+	 *            the operation (see {@link QueryMetrics#LIST})
+	 * @param entityClass
+	 *            the entity class
+	 * @return the row count histogram or <tt>null</tt> if the operation was not recorded
+	 */
+	public Histogram getRows(final String operation, final Class<?> entityClass) {
+		return rows.get(Pair.of(operation, entityClass));
+	}
+
+	/**
+	 * Returns the histogram of the IN list sizes of the queries of the entity class
+	 *
+	 * @param entityClass
+	 *            the entity class
+	 * @return the IN list size histogram or <tt>null</tt> if no IN list was recorded
+	 */
+	public Histogram getInListSizes(final Class<?> entityClass) {
+		return inListSizes.get(classKey(entityClass));
+	}
+
+	/**
+	 * Returns the number of entities of given class found in the {@link EntityCache}
+	 *
+	 * @param entityClass
+	 *            the entity class
+	 * @return the number of cache hits
+	 */
+	public long getCacheHits(final Class<?> entityClass) {
+		final LongAdder a = cacheHits.get(classKey(entityClass));
+		return a != null ? a.sum() : 0;
+	}
+
+	/**
+	 * Returns the number of entities of given class not found in the {@link EntityCache}
+	 *
+	 * @param entityClass
+	 *            the entity class
+	 * @return the number of cache misses
+	 */
+	public long getCacheMisses(final Class<?> entityClass) {
+		final LongAdder a = cacheMisses.get(classKey(entityClass));
+		return a != null ? a.sum() : 0;
+	}
+
+	/**
+	 * Removes all recorded values
+	 */
+	public void reset() {
+		latencies.clear();
+		rows.clear();
+		inListSizes.clear();
+		cacheHits.clear();
+		cacheMisses.clear();
+	}
+
+	/**
+	 * Histogram of non-negative values with logarithmic buckets divided into linear sub-buckets
+	 */
+	public static class Histogram {
+		private static final int SUB_BUCKET_BITS = 5;
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+		private static final int BUCKETS = SUB_BUCKETS + (Long.SIZE - 1 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sum = new LongAdder();
+		private final AtomicLong max = new AtomicLong();
+
+		/**
+		 * Records a value. Negative values are recorded as <tt>0</tt>
+		 *
+		 * @param value
+		 *            the value
+		 */
+		public void record(final long value) {
+			final long v = Math.max(value, 0);
+			counts.incrementAndGet(index(v));
+			count.increment();
+			sum.add(v);
+			long m = max.get();
+			while (v > m && !max.compareAndSet(m, v)) {
+				m = max.get();
+			}
+		}
+
+		static int index(final long value) {
+			if (value < SUB_BUCKETS) {
+				return (int) value;
+			}
+			final int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+			return SUB_BUCKETS + shift * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+		}
+
+		static long highestValue(final int index) {
+			if (index < SUB_BUCKETS) {
+				return index;
+			}
+			final int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+			final long subBucket = SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS;
+			return ((subBucket + 1) << shift) - 1;
+		}
+
+		/**
+		 * Returns the number of recorded values
+		 *
+		 * @return the number of recorded values
+		 */
+		public long getCount() {
+			return count.sum();
+		}
+
+		/**
+		 * Returns the largest recorded value
+		 *
+		 * @return the largest recorded value
+		 */
+		public long getMax() {
+			return max.get();
+		}
+
+		/**
+		 * Returns the mean of the recorded values
+		 *
+		 * @return the mean of the recorded values or <tt>0</tt> if there are no values
+		 */
+		public double getMean() {
+			final long n = count.sum();
+			return n > 0 ? (double) sum.sum() / n : 0;
+		}
+
+		/**
+		 * Returns the value at given percentile. The result is the highest value of the bucket containing the percentile, but not more than the largest recorded value
+		 *
+		 * @param percentile
+		 *            the percentile between <tt>0</tt> and <tt>100</tt>
+		 * @return the value at given percentile or <tt>0</tt> if there are no values
+		 */
+		public long getValueAtPercentile(final double percentile) {
+			if (percentile < 0 || percentile > 100) {
+				throw new IllegalArgumentException("Invalid argument: percentile should be between 0 and 100");
+			}
+			long total = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				total += counts.get(i);
+			}
+			if (total == 0) {
+				return 0;
+			}
+			final long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += counts.get(i);
+				if (seen >= target) {
+					return Math.min(highestValue(i), getMax());
+				}
+			}
+			return getMax();
+		}
+	}
+}
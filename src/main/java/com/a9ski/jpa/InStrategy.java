@@ -0,0 +1,27 @@
+package com.a9ski.jpa;
+
+import java.util.Collection;
+
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Predicate;
+
+/**
+ * Strategy for creating <b>IN</b> predicates with many values. Different databases handle large IN lists differently, so the strategy is usually chosen by the {@link DatabaseDialect}.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+public interface InStrategy {
+	/**
+	 * Creates a predicate matching rows whose <tt>field</tt> is one of the <tt>values</tt>
+	 *
+	 * @param cbh
+	 *            the criteria builder helper, used for creating simple IN predicates and binding parameters
+	 * @param field
+	 *            the entity field
+	 * @param values
+	 *            the values. Contains at least two elements
+	 * @return the IN predicate
+	 */
+	public <T> Predicate in(final CriteriaBuilderHelper cbh, final Expression<T> field, final Collection<T> values);
+}
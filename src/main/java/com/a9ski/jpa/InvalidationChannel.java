@@ -0,0 +1,35 @@
+package com.a9ski.jpa;
+
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * Channel delivering cache invalidation events to all nodes of a cluster. See {@link CacheInvalidationBus}
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+public interface InvalidationChannel extends AutoCloseable {
+
+	/**
+	 * Sends a batch of events to the other nodes
+	 *
+	 * @param events
+	 *            the events
+	 */
+	public void publish(final Collection<CacheInvalidation> events);
+
+	/**
+	 * Registers a listener receiving the batches of events published by the other nodes
+	 *
+	 * @param listener
+	 *            the listener
+	 */
+	public void subscribe(final Consumer<Collection<CacheInvalidation>> listener);
+
+	/**
+	 * Closes the channel
+	 */
+	@Override
+	public void close();
+}
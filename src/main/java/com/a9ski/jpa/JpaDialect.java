@@ -1,5 +1,8 @@
 package com.a9ski.jpa;
 
+import java.util.Collections;
+import java.util.Map;
+
 import javax.persistence.TypedQuery;
 
 /**
@@ -9,6 +12,16 @@ import javax.persistence.TypedQuery;
  *
  */
 public interface JpaDialect {
+	/**
+	 * Read-only query hints of EclipseLink. The returned entities are shared cache instances, which must not be modified
+	 */
+	public static final Map<String, Object> ECLIPSELINK_READ_ONLY_HINTS = Collections.singletonMap("eclipselink.read-only", "true");
+
+	/**
+	 * Read-only query hints of Hibernate. The returned entities are managed without snapshots for dirty checking
+	 */
+	public static final Map<String, Object> HIBERNATE_READ_ONLY_HINTS = Collections.singletonMap("org.hibernate.readOnly", Boolean.TRUE);
+
 	/**
 	 * Gets query SQL string
 	 *
@@ -17,4 +30,13 @@ public interface JpaDialect {
 	 * @return the query SQL string
 	 */
 	public String getSql(final TypedQuery<?> q);
+
+	/**
+	 * Gets the query hints turning off the tracking of the returned entities by the persistence context (see {@link QueryConfig#isReadOnly()})
+	 *
+	 * @return the read-only query hints or empty map if the provider does not support read-only queries
+	 */
+	public default Map<String, Object> getReadOnlyHints() {
+		return Collections.emptyMap();
+	}
 }
@@ -1,24 +1,59 @@
 package com.a9ski.jpa;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.ejb.ObjectNotFoundException;
-import javax.naming.InitialContext;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.FlushModeType;
 import javax.persistence.OptimisticLockException;
+import javax.persistence.Parameter;
 import javax.persistence.PersistenceException;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CommonAbstractCriteria;
 import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaDelete;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.CriteriaUpdate;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Order;
 import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
-import javax.transaction.TransactionSynchronizationRegistry;
+import javax.persistence.criteria.Selection;
+import javax.persistence.metamodel.Bindable;
+import javax.persistence.metamodel.SingularAttribute;
 
+import org.apache.commons.collections4.ListUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,6 +63,7 @@ import com.a9ski.entities.IdentifiableEntity;
 import com.a9ski.entities.IdentifiableEntity_;
 import com.a9ski.entities.filters.AuditableEntityFilter;
 import com.a9ski.entities.filters.Filter;
+import com.a9ski.entities.filters.KeysetPageableFilter;
 import com.a9ski.entities.filters.PageableFilter;
 import com.a9ski.exceptions.ObjectAlreadyModifiedException;
 import com.a9ski.id.Identifiable;
@@ -46,6 +82,31 @@ public class JpaUtils {
 
 	private final Supplier<EntityManager> entityManagerSupplier;
 
+	private final QueryPlanCache queryPlanCache;
+
+	private final EntityCache entityCache;
+
+	private final CacheInvalidationBus invalidationBus;
+
+	private final JpaDialect jpaDialect;
+
+	private final QueryMetrics metrics;
+
+	private final long slowQueryThresholdNanos;
+
+	private final SlowQueryListener slowQueryListener;
+
+	private final SqlLogger sqlLogger;
+
+	private final DatabaseDialect databaseDialect;
+
+	/**
+	 * The maximum number of entities fetched by single query in {@link #loadEntities(Class, Collection)}
+	 */
+	public static final int LOAD_ENTITIES_BATCH_SIZE = 1000;
+
+	private static final String MODIFIED_ENTITIES_ATTACHMENT = JpaUtils.class.getName() + ".modifiedEntities";
+
 	/**
 	 * Creates a new Utility class that uses entity manager supplied by <tt>entityManagerSupplier</tt>
 	 *
@@ -63,9 +124,258 @@ public class JpaUtils {
 	 *            the entity manager supplier
 	 */
 	public JpaUtils(final Supplier<EntityManager> entityManagerSupplier) {
+		this(entityManagerSupplier, null, null, null, null, QueryMetrics.NO_OP, 0, null, null, null);
+	}
+
+	private JpaUtils(final Supplier<EntityManager> entityManagerSupplier, final QueryPlanCache queryPlanCache, final EntityCache entityCache, final CacheInvalidationBus invalidationBus, final JpaDialect jpaDialect, final QueryMetrics metrics,
+			final long slowQueryThresholdNanos, final SlowQueryListener slowQueryListener, final SqlLogger sqlLogger, final DatabaseDialect databaseDialect) {
 		super();
 		NullUtils.checkNotNull(entityManagerSupplier, "Invalid entity manager supplier");
 		this.entityManagerSupplier = entityManagerSupplier;
+		this.queryPlanCache = queryPlanCache;
+		this.entityCache = entityCache;
+		this.invalidationBus = invalidationBus;
+		this.jpaDialect = jpaDialect;
+		this.metrics = metrics != null ? metrics : QueryMetrics.NO_OP;
+		this.slowQueryThresholdNanos = slowQueryThresholdNanos;
+		this.slowQueryListener = slowQueryListener;
+		this.sqlLogger = sqlLogger;
+		this.databaseDialect = databaseDialect;
+	}
+
+	/**
+	 * Returns the query plan cache or <tt>null</tt> if the query plans are not cached
+	 *
+	 * @return the query plan cache
+	 */
+	public QueryPlanCache getQueryPlanCache() {
+		return queryPlanCache;
+	}
+
+	/**
+	 * Returns the entity cache or <tt>null</tt> if the entities are not cached
+	 *
+	 * @return the entity cache
+	 */
+	public EntityCache getEntityCache() {
+		return entityCache;
+	}
+
+	/**
+	 * Returns the cache invalidation bus or <tt>null</tt> if the invalidations are not propagated to the other cluster nodes
+	 *
+	 * @return the cache invalidation bus
+	 */
+	public CacheInvalidationBus getInvalidationBus() {
+		return invalidationBus;
+	}
+
+	/**
+	 * Creates a copy of this object using another entity manager supplier. The copy shares the caches, the invalidation bus and the dialect of this object.
+	 *
+	 * @param entityManagerSupplier
+	 *            the entity manager supplier
+	 * @return the copy using the entity manager supplier
+	 */
+	public JpaUtils withEntityManager(final Supplier<EntityManager> entityManagerSupplier) {
+		return new JpaUtils(entityManagerSupplier, queryPlanCache, entityCache, invalidationBus, jpaDialect, metrics, slowQueryThresholdNanos, slowQueryListener, sqlLogger, databaseDialect);
+	}
+
+	/**
+	 * Creates a copy of this object caching the query plans of the filter based queries in <tt>queryPlanCache</tt>
+	 *
+	 * @param queryPlanCache
+	 *            the query plan cache. Can be <tt>null</tt>, then the query plans are not cached
+	 * @return the copy using the query plan cache
+	 */
+	public JpaUtils withQueryPlanCache(final QueryPlanCache queryPlanCache) {
+		return new JpaUtils(entityManagerSupplier, queryPlanCache, entityCache, invalidationBus, jpaDialect, metrics, slowQueryThresholdNanos, slowQueryListener, sqlLogger, databaseDialect);
+	}
+
+	/**
+	 * Creates a copy of this object caching the entities loaded by ID in <tt>entityCache</tt>
+	 *
+	 * @param entityCache
+	 *            the entity cache. Can be <tt>null</tt>, then the entities are always loaded through the entity manager
+	 * @return the copy using the entity cache
+	 */
+	public JpaUtils withEntityCache(final EntityCache entityCache) {
+		return new JpaUtils(entityManagerSupplier, queryPlanCache, entityCache, invalidationBus, jpaDialect, metrics, slowQueryThresholdNanos, slowQueryListener, sqlLogger, databaseDialect);
+	}
+
+	/**
+	 * Creates a copy of this object propagating the cache invalidations to the other cluster nodes through <tt>invalidationBus</tt>. The invalidations of the saved entities are published after the commit of the JTA transaction, so with a bus the
+	 * entities must be saved in a JTA transaction (see {@link TransactionContext}), otherwise the save fails with {@link IllegalStateException} (see {@link CacheInvalidationBus#publishAfterCommit(CacheInvalidation)}).
+	 *
+	 * @param invalidationBus
+	 *            the cache invalidation bus. Can be <tt>null</tt>, then only the local caches are invalidated
+	 * @return the copy using the invalidation bus
+	 */
+	public JpaUtils withInvalidationBus(final CacheInvalidationBus invalidationBus) {
+		return new JpaUtils(entityManagerSupplier, queryPlanCache, entityCache, invalidationBus, jpaDialect, metrics, slowQueryThresholdNanos, slowQueryListener, sqlLogger, databaseDialect);
+	}
+
+	/**
+	 * Creates a copy of this object using the provider specific functionality of <tt>jpaDialect</tt>, e.g. the read-only query hints and the rendering of the query SQL
+	 *
+	 * @param jpaDialect
+	 *            the JPA dialect. Can be <tt>null</tt>, then the results of read-only queries are detached
+	 * @return the copy using the JPA dialect
+	 */
+	public JpaUtils withJpaDialect(final JpaDialect jpaDialect) {
+		return new JpaUtils(entityManagerSupplier, queryPlanCache, entityCache, invalidationBus, jpaDialect, metrics, slowQueryThresholdNanos, slowQueryListener, sqlLogger, databaseDialect);
+	}
+
+	/**
+	 * Creates a copy of this object recording the latency and the number of rows of the queries, loads, saves and ID generation, the IN list sizes and the entity cache hits in <tt>metrics</tt>
+	 *
+	 * @param metrics
+	 *            the metrics. Can be <tt>null</tt>, then nothing is recorded
+	 * @return the copy recording the metrics
+	 */
+	public JpaUtils withMetrics(final QueryMetrics metrics) {
+		return new JpaUtils(entityManagerSupplier, queryPlanCache, entityCache, invalidationBus, jpaDialect, metrics, slowQueryThresholdNanos, slowQueryListener, sqlLogger, databaseDialect);
+	}
+
+	/**
+	 * Creates a copy of this object notifying <tt>listener</tt> about operations lasting at least <tt>thresholdMillis</tt>. The SQL of a slow query is rendered with the JPA dialect only after the threshold is exceeded.
+	 *
+	 * @param thresholdMillis
+	 *            the threshold in milliseconds
+	 * @param listener
+	 *            the listener. Can be <tt>null</tt>, then slow operations are not reported
+	 * @return the copy reporting the slow operations
+	 */
+	public JpaUtils withSlowQueryListener(final long thresholdMillis, final SlowQueryListener listener) {
+		if (thresholdMillis < 0) {
+			throw new IllegalArgumentException("Invalid argument: thresholdMillis should not be negative");
+		}
+		return new JpaUtils(entityManagerSupplier, queryPlanCache, entityCache, invalidationBus, jpaDialect, metrics, TimeUnit.MILLISECONDS.toNanos(thresholdMillis), listener, sqlLogger, databaseDialect);
+	}
+
+	/**
+	 * Creates a copy of this object logging the SQL of the list, count and keyset queries with <tt>sqlLogger</tt>. The SQL of the queries with cached query plan is cached by the plan key.
+	 *
+	 * @param sqlLogger
+	 *            the SQL logger. Can be <tt>null</tt>, then the SQL is not logged
+	 * @return the copy logging the SQL
+	 */
+	public JpaUtils withSqlLogger(final SqlLogger sqlLogger) {
+		return new JpaUtils(entityManagerSupplier, queryPlanCache, entityCache, invalidationBus, jpaDialect, metrics, slowQueryThresholdNanos, slowQueryListener, sqlLogger, databaseDialect);
+	}
+
+	/**
+	 * Creates a copy of this object creating the IN predicates of the filter based queries and of {@link #loadEntities(Class, Collection)} with the limit and the strategy of <tt>databaseDialect</tt> (see
+	 * {@link #createCriteriaBuilderHelper(CriteriaBuilder, Locale, List)})
+	 *
+	 * @param databaseDialect
+	 *            the database dialect. Can be <tt>null</tt>, then IN clauses with more than 100 values are split
+	 * @return the copy using the database dialect
+	 */
+	public JpaUtils withDatabaseDialect(final DatabaseDialect databaseDialect) {
+		return new JpaUtils(entityManagerSupplier, queryPlanCache, entityCache, invalidationBus, jpaDialect, metrics, slowQueryThresholdNanos, slowQueryListener, sqlLogger, databaseDialect);
+	}
+
+	/**
+	 * Returns the query metrics
+	 *
+	 * @return the query metrics
+	 */
+	public QueryMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Returns true if the operations are recorded in the metrics or reported to a slow query listener
+	 *
+	 * @return true if the operations are instrumented
+	 */
+	protected boolean isInstrumented() {
+		return metrics != QueryMetrics.NO_OP || slowQueryListener != null;
+	}
+
+	/**
+	 * Records an operation in the metrics and notifies the slow query listener if the operation lasted longer than the threshold
+	 *
+	 * @param operation
+	 *            the operation (see {@link QueryMetrics#LIST})
+	 * @param entityClass
+	 *            the entity class or <tt>null</tt> if unknown
+	 * @param startNanos
+	 *            the start of the operation (see {@link System#nanoTime()})
+	 * @param rows
+	 *            the number of returned or saved rows
+	 * @param sql
+	 *            supplier of the SQL of the operation, called only for slow operations. Can be <tt>null</tt>
+	 */
+	protected void recordOperation(final String operation, final Class<?> entityClass, final long startNanos, final int rows, final Supplier<String> sql) {
+		final long elapsed = System.nanoTime() - startNanos;
+		metrics.recordOperation(operation, entityClass, elapsed, rows);
+		if (slowQueryListener != null && elapsed >= slowQueryThresholdNanos) {
+			String text = null;
+			if (sql != null) {
+				try {
+					text = sql.get();
+				} catch (final RuntimeException ex) {
+					LOGGER.debug("Cannot get SQL of slow {} operation", operation, ex);
+				}
+			}
+			slowQueryListener.onSlowQuery(operation, entityClass, elapsed, text);
+		}
+	}
+
+	private Supplier<String> sqlOf(final TypedQuery<?> q) {
+		return jpaDialect != null ? () -> jpaDialect.getSql(q) : null;
+	}
+
+	private void recordInListSize(final Class<?> entityClass, final QueryConfig qc) {
+		if (qc.getMaxInListSize() > 0) {
+			metrics.recordInListSize(entityClass, qc.getMaxInListSize());
+		}
+	}
+
+	private static Class<?> rootClass(final CriteriaQuery<?> cq) {
+		for (final Root<?> r : cq.getRoots()) {
+			return r.getJavaType();
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the JPA dialect or <tt>null</tt> if there is no dialect
+	 *
+	 * @return the JPA dialect
+	 */
+	public JpaDialect getJpaDialect() {
+		return jpaDialect;
+	}
+
+	/**
+	 * Returns the database dialect or <tt>null</tt> if there is no dialect
+	 *
+	 * @return the database dialect
+	 */
+	public DatabaseDialect getDatabaseDialect() {
+		return databaseDialect;
+	}
+
+	/**
+	 * Creates a criteria builder helper using the maximum number of IN elements and the IN strategy of the database dialect (see {@link DatabaseDialect#createInStrategy()}). The strategy is chosen for each IN predicate by the number of values,
+	 * e.g. lists longer than {@link DatabaseDialect#getMaxNumberOfInElements()} are split by the default strategy.
+	 *
+	 * @param cb
+	 *            the criteria builder
+	 * @param locale
+	 *            the locale used for string comparison
+	 * @param parameters
+	 *            the list collecting the query parameters or <tt>null</tt> for values passed as literals. See {@link CriteriaBuilderHelper#CriteriaBuilderHelper(CriteriaBuilder, Locale, List, int, List)}
+	 * @return the criteria builder helper
+	 */
+	public CriteriaBuilderHelper createCriteriaBuilderHelper(final CriteriaBuilder cb, final Locale locale, final List<Pair<Parameter<Object>, Object>> parameters) {
+		if (databaseDialect == null) {
+			return new CriteriaBuilderHelper(cb, locale, new ArrayList<Predicate>(), 100, parameters);
+		}
+		return new CriteriaBuilderHelper(cb, locale, new ArrayList<Predicate>(), databaseDialect.getMaxNumberOfInElements(), parameters, databaseDialect.createInStrategy());
 	}
 
 	private EntityManager em() {
@@ -107,7 +417,22 @@ public class JpaUtils {
 	 * @return a criteria builder helper
 	 */
 	public CriteriaBuilderHelper addAuditableEntityPredicates(final CriteriaBuilder cb, final Path<? extends AuditableEntity> path, final AuditableEntityFilter filter) {
-		final CriteriaBuilderHelper cbh = new CriteriaBuilderHelper(cb, filter.getLocale());
+		return addAuditableEntityPredicates(createCriteriaBuilderHelper(cb, filter.getLocale(), null), path, filter);
+	}
+
+	/**
+	 * Adds standard predicates for {@link AuditableEntity} based on provided <tt>filter</tt> to existing criteria builder helper. Useful for helpers working in parameter binding mode.
+	 *
+	 * @param cbh
+	 *            the criteria builder helper
+	 * @param path
+	 *            the JPA entity path
+	 * @param filter
+	 *            auditable entity filter
+	 *
+	 * @return the criteria builder helper
+	 */
+	public CriteriaBuilderHelper addAuditableEntityPredicates(final CriteriaBuilderHelper cbh, final Path<? extends AuditableEntity> path, final AuditableEntityFilter filter) {
 		if (filter.getDeleted() != null) {
 			cbh.equalBool(path.get(AuditableEntity_.deleted), filter.getDeleted());
 		}
@@ -128,18 +453,14 @@ public class JpaUtils {
 	}
 
 	/**
-	 * Creates a new entity of given class
+	 * Creates a new entity of given class. See {@link EntityInstantiator}
 	 *
 	 * @param entityClass
 	 *            the entity class
 	 * @return a new entity of given class
 	 */
 	public <T extends Identifiable> T createEntity(final Class<T> entityClass) {
-		try {
-			return entityClass.newInstance();
-		} catch (final InstantiationException | IllegalAccessException ex) {
-			throw new IllegalArgumentException("Cannot instantiate entity class " + entityClass.getName(), ex);
-		}
+		return EntityInstantiator.newInstance(entityClass);
 	}
 
 	/**
@@ -163,7 +484,8 @@ public class JpaUtils {
 			entity = createEntity(entityClass);
 		} else if (clearCache) {
 			final EntityManager em = em();
-			clearCache(em, entityClass, entity.getId());
+			// a read does not change the entity, so the other cluster nodes are not notified
+			em.getEntityManagerFactory().getCache().evict(entityClass, entity.getId());
 			em.refresh(entity);
 		}
 		return entity;
@@ -178,7 +500,7 @@ public class JpaUtils {
 	 *            the id to search for. Can be <tt>0</tt> or <tt>null</tt> then a new entity will be created
 	 * @param clearCache
 	 *            clears the JPA cache so the fetched entity contains last modification from the database.
-	 * @return the entity with given <tt>id</tt> or a new entity if there is no such <tt>id</tt> in the database
+	 * @return the entity with given <tt>id</tt> or a new entity if there is no such <tt>id</tt> in the database. The entity is managed by the entity manager, the {@link EntityCache} is not used because the entity is usually modified
 	 */
 	public <T> T findOrCreateEntity(final Class<T> entityClass, final Long id, final boolean clearCache) {
 		NullUtils.checkNotNull(entityClass, "Invalid argument: entityClass should not be null");
@@ -186,16 +508,12 @@ public class JpaUtils {
 		T entity = null;
 		if (id != null && id != 0) {
 			if (clearCache) {
-				clearCache(em, entityClass, id);
+				em.getEntityManagerFactory().getCache().evict(entityClass, id);
 			}
 			entity = em.find(entityClass, id);
 		}
 		if (entity == null) {
-			try {
-				entity = entityClass.newInstance();
-			} catch (final InstantiationException | IllegalAccessException ex) {
-				throw new IllegalArgumentException("Cannot instantiate entity class " + entityClass.getName(), ex);
-			}
+			entity = EntityInstantiator.newInstance(entityClass);
 		}
 		return entity;
 	}
@@ -229,16 +547,24 @@ public class JpaUtils {
 	public <E extends Identifiable> E save(E entity, final boolean flush) throws ObjectAlreadyModifiedException {
 		final EntityManager em = em();
 		if (entity != null) {
+			final long start = System.nanoTime();
 			final long id = entity.getId();
 			try {
 				if (id != 0) {
-					entity = em.merge(entity);
+					if (!em.contains(entity)) {
+						// merging a managed entity does nothing
+						entity = em.merge(entity);
+					}
 				} else {
 					em.persist(entity);
 				}
 				if (flush) {
 					em.flush();
 				}
+				invalidateSavedEntity(entity, flush);
+				if (isInstrumented()) {
+					recordOperation(QueryMetrics.SAVE, entity.getClass(), start, 1, null);
+				}
 				return entity;
 			} catch (final OptimisticLockException ex) {
 				throw new ObjectAlreadyModifiedException(ex);
@@ -248,160 +574,1545 @@ public class JpaUtils {
 	}
 
 	/**
-	 * Checks if the entity is not null and returns it. If the entity is null checked ObjectNotFound exception is thrown
-	 * <p>
-	 * Normally this method should be used in conjunction with other methods like {@link #loadEntity(long, Class, boolean)}
+	 * Saves an auditable entity into database using given mode for detached entities (see {@link SaveMode}). New entities and entities managed by the entity manager are saved as by {@link #save(Identifiable, boolean)}.
 	 *
-	 * <pre>
-	 * <code>
-	 * try {
-	 *   jpaUtils.notNull(jpaUtils.loadEntity(42L, MyEntity.class, true));
-	 * } catch (ObjectNotFound ex) {
-	 *   // error handling
-	 * }
-	 * </code>
-	 * </pre>
-	 *
-	 * @param e
-	 *            the entity
-	 * @return the entity if it is not null
-	 * @throws ObjectNotFoundException
-	 *             thrown if the entity is null
+	 * @param entity
+	 *            the entity to be saved
+	 * @param flush
+	 *            flushes the entity manager (synchronizing the persistence context to the underlying database). The <b>UPDATE</b> of {@link SaveMode#VERSIONED_UPDATE} is always executed immediately
+	 * @param mode
+	 *            the mode used for detached entities
+	 * @return the saved entity. The detached entity itself for {@link SaveMode#VERSIONED_UPDATE}, with incremented version
+	 * @throws ObjectAlreadyModifiedException
+	 *             throw if the object is already modified by different transaction
 	 */
-	public <E> E notNull(final E e) throws ObjectNotFoundException {
-		if (e == null) {
-			throw new ObjectNotFoundException("Object is null");
+	@SuppressWarnings("unchecked")
+	public <E extends AuditableEntity> E save(final E entity, final boolean flush, final SaveMode mode) throws ObjectAlreadyModifiedException {
+		NullUtils.checkNotNull(mode, "Invalid argument: mode should not be null");
+		if (entity == null || entity.getId() == 0 || mode == SaveMode.MERGE) {
+			return save(entity, flush);
 		}
-		return e;
-	}
-
-	/**
-	 * Loads entity from database.
-	 *
-	 * @param id
-	 *            the entity id
-	 * @param entityClass
-	 *            the entity class
-	 * @param clearCache
-	 *            clears the JPA cache so the fetched entity contains last modification from the database.
-	 * @return the entity with given <tt>id</tt> or null if no such entity exists
-	 */
-	public <E> E loadEntity(final long id, final Class<E> entityClass, final boolean clearCache) {
-		NullUtils.checkNotNull(entityClass, "Invalid argument: entityClass should not be null");
 		final EntityManager em = em();
-		if (clearCache) {
-			clearCache(em, entityClass, id);
+		if (em.contains(entity)) {
+			return save(entity, flush);
 		}
-		final E e = em.find(entityClass, id);
-		return e;
+		final long start = System.nanoTime();
+		final Class<E> entityClass = (Class<E>) entity.getClass();
+		final E saved = updateVersioned(em, entity);
+		// the versioned UPDATE is executed immediately
+		invalidateSavedEntity(saved, true);
+		if (isInstrumented()) {
+			recordOperation(QueryMetrics.SAVE, entityClass, start, 1, null);
+		}
+		return saved;
 	}
 
 	/**
-	 * Loads entity from database.
+	 * Updates the column attributes of the detached entity with single <b>UPDATE</b> statement checking the version. See {@link SaveMode#VERSIONED_UPDATE}
 	 *
-	 * @param q
-	 *            the query that returns the entity
-	 * @param entityClass
-	 *            the entity class
-	 * @param clearCache
-	 *            clears the JPA cache so the fetched entity contains last modification from the database.
-	 * @return the entity returned by given query or null if the query returns no results
+	 * @param em
+	 *            the entity manager
+	 * @param entity
+	 *            the detached entity
+	 * @return the detached entity with incremented version
+	 * @throws ObjectAlreadyModifiedException
+	 *             throw if there is no row with the ID and the version of the entity
 	 */
-	public <E extends Identifiable> E loadEntity(final TypedQuery<E> q, final Class<E> entityClass, final boolean clearCache) {
-		final E entity = ExtCollectionUtils.get0(q.getResultList());
-		if (entity != null && clearCache) {
-			final EntityManager em = em();
-			clearCache(em, entityClass, entity.getId());
-			em.refresh(entity);
+	@SuppressWarnings("unchecked")
+	protected <E extends AuditableEntity> E updateVersioned(final EntityManager em, final E entity) throws ObjectAlreadyModifiedException {
+		final Class<E> entityClass = (Class<E>) entity.getClass();
+		final CriteriaBuilder cb = em.getCriteriaBuilder();
+		final CriteriaUpdate<E> cu = cb.createCriteriaUpdate(entityClass);
+		final Root<E> root = cu.from(entityClass);
+		for (final EntityTableMapping.ColumnMapping column : EntityTableMapping.of(entityClass).getColumns()) {
+			if (!column.isId() && !column.isVersion() && !column.isInsertOnly()) {
+				final Object value = column.getAttributeValue(entity);
+				if (value != null) {
+					cu.set(column.getAttributeName(), value);
+				} else {
+					final Path<Object> path = root.get(column.getAttributeName());
+					final Expression<Object> nullValue = cb.nullLiteral((Class<Object>) column.getAttributeType());
+					cu.<Object> set(path, nullValue);
+				}
+			}
+		}
+		final Path<Long> version = root.get(AuditableEntity_.version);
+		cu.set(version, cb.sum(version, 1L));
+		cu.where(cb.equal(root.get(IdentifiableEntity_.id), entity.getId()), cb.equal(version, entity.getVersion()));
+		final int rows = em.createQuery(cu).executeUpdate();
+		if (rows == 0) {
+			throw new ObjectAlreadyModifiedException(String.format("Entity %s with id %d and version %d not found", entityClass.getName(), entity.getId(), entity.getVersion()));
 		}
+		// the statement bypasses the shared cache
+		em.getEntityManagerFactory().getCache().evict(entityClass, entity.getId());
+		entity.setVersion(entity.getVersion() + 1);
 		return entity;
 	}
 
 	/**
-	 * Counts entities that matches given query configuration
+	 * Saves entities into database in batches. The entity manager is flushed and cleared after every <tt>batchSize</tt> entities, so the persistence context does not grow with the number of saved entities and the JPA provider can group the statements in
+	 * JDBC batches (if JDBC batching is enabled in the persistence unit).
+	 * <p>
+	 * Clearing the entity manager detaches <b>all</b> managed entities, including the ones not passed to this method.
 	 *
-	 * @param queryConfigFactory
-	 *            the query configuration factory
-	 * @param entityClass
-	 *            the entity class
-	 * @return the number of entities matching the query configuration
+	 * @param entities
+	 *            the entities to be saved
+	 * @param batchSize
+	 *            the number of entities saved between two flushes
+	 * @return the IDs of the saved entities in the order of <tt>entities</tt>. The ID is <tt>null</tt> for <tt>null</tt> entities
+	 * @throws ObjectAlreadyModifiedException
+	 *             throw if an object is already modified by different transaction. The cause is the {@link OptimisticLockException} reporting the failed entity
 	 */
-	public <E> long countEntities(final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final Class<E> entityClass) {
+	public <E extends Identifiable> List<Long> saveAll(final Iterable<E> entities, final int batchSize) throws ObjectAlreadyModifiedException {
+		NullUtils.checkNotNull(entities, "Invalid argument: entities should not be null");
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("Invalid argument: batchSize must be positive");
+		}
 		final EntityManager em = em();
-		final CriteriaBuilder cb = em.getCriteriaBuilder();
-		final CriteriaQuery<Long> cq = cb.createQuery(Long.class);
-
-		final Root<E> root = cq.from(entityClass);
-
-		final QueryConfig qc = createQueryConfig(queryConfigFactory, cb, cq, root);
-		if (qc.isDistinct()) {
-			cq.select(cb.countDistinct(root));
-		} else {
-			cq.select(cb.count(root));
+		final List<Long> ids = new ArrayList<>();
+		final List<E> batch = new ArrayList<>(batchSize);
+		try {
+			for (final E entity : entities) {
+				if (entity == null) {
+					batch.add(null);
+				} else if (entity.getId() != 0) {
+					batch.add(em.merge(entity));
+				} else {
+					em.persist(entity);
+					batch.add(entity);
+				}
+				if (batch.size() >= batchSize) {
+					flushBatch(em, batch, ids);
+				}
+			}
+			flushBatch(em, batch, ids);
+		} catch (final OptimisticLockException ex) {
+			throw new ObjectAlreadyModifiedException(ex);
 		}
-
-		cq.where(qc.getPredicatesArray());
-
-		final TypedQuery<Long> q = em.createQuery(cq);
-		applyParams(q, qc);
-
-		final long count = q.getSingleResult();
-		return count;
+		return ids;
 	}
 
 	/**
-	 * Counts entities that matches given filter
+	 * Flushes and clears the entity manager and collects the IDs of the entities saved in the batch
 	 *
-	 * @param filter
-	 *            the query filter
-	 * @param entityClass
-	 *            the entity class
-	 * @return the number of entities matching the query filter
+	 * @param em
+	 *            the entity manager
+	 * @param batch
+	 *            the entities saved since the last flush
+	 * @param ids
+	 *            the list collecting the entity IDs
 	 */
-	public <E extends IdentifiableEntity, F extends Filter> long countEntities(final F filter, final BiFunction<CriteriaApiObjects<E>, F, QueryConfig> queryConfigFactory, final Class<E> entityClass) {
-		return countEntities(cao -> queryConfigFactory.apply(cao, filter), entityClass);
+	protected <E extends Identifiable> void flushBatch(final EntityManager em, final List<E> batch, final List<Long> ids) {
+		if (!batch.isEmpty()) {
+			em.flush();
+			batch.forEach(e -> ids.add(e != null ? e.getId() : null));
+			batch.forEach(e -> invalidateSavedEntity(e, true));
+			em.clear();
+			batch.clear();
+		}
 	}
 
 	/**
-	 * Applies parameters to typed query
+	 * Inserts the entity or updates the existing row with the same natural key with single native statement (see {@link DatabaseDialect#createUpsertSql(String, List, List, List, String, int)}), instead of finding the entity and then saving it
+	 * (see {@link #findOrCreateEntity(TypedQuery, Class, boolean)}). See {@link #upsertAll(DatabaseDialect, Collection, int, String...)}
 	 *
-	 * @param q
-	 *            the typed query
-	 * @param qc
+	 * @param dialect
+	 *            the database dialect
+	 * @param entity
+	 *            the entity
+	 * @param naturalKeyAttributes
+	 *            the names of the attributes forming the natural key. There must be an unique constraint on their columns
+	 * @return the number of inserted or updated rows
+	 */
+	public <E extends Identifiable> int upsert(final DatabaseDialect dialect, final E entity, final String... naturalKeyAttributes) {
+		NullUtils.checkNotNull(entity, "Invalid argument: entity should not be null");
+		return upsertAll(dialect, Collections.singletonList(entity), 1, naturalKeyAttributes);
+	}
+
+	/**
+	 * Inserts the entities or updates the existing rows with the same natural key with native statements, each of them upserting up to <tt>batchSize</tt> entities (see {@link DatabaseDialect#createUpsertSql(String, List, List, List, String, int)}).
+	 * The columns are resolved by {@link EntityTableMapping}.
+	 * <ul>
+	 * <li>The ID column is not written, so it must be generated by the database (e.g. identity column). The IDs of the entities are not changed.</li>
+	 * <li>{@link AuditableEntity} gets edited date set to the current time and created date set to the current time if it is <tt>null</tt>. The created date and the creator are not changed when an existing row is updated.</li>
+	 * <li>The version column of an updated row is incremented, an inserted row gets the version of the entity.</li>
+	 * <li>If several entities have the same natural key only the last one is written.</li>
+	 * </ul>
+	 * The statements bypass the persistence context, so the entities already managed by the entity manager are not updated. The cache of the entity classes is cleared after the statements.
+	 *
+	 * @param dialect
+	 *            the database dialect
+	 * @param entities
+	 *            the entities
+	 * @param batchSize
+	 *            the maximum number of entities written by a single statement
+	 * @param naturalKeyAttributes
+	 *            the names of the attributes forming the natural key. There must be an unique constraint on their columns
+	 * @return the number of inserted or updated rows
+	 * @throws UnsupportedOperationException
+	 *             thrown if the dialect does not support upsert
+	 */
+	public <E extends Identifiable> int upsertAll(final DatabaseDialect dialect, final Collection<E> entities, final int batchSize, final String... naturalKeyAttributes) {
+		NullUtils.checkNotNull(dialect, "Invalid argument: dialect should not be null");
+		NullUtils.checkNotNull(entities, "Invalid argument: entities should not be null");
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("Invalid argument: batchSize must be positive");
+		}
+		if (naturalKeyAttributes == null || naturalKeyAttributes.length == 0) {
+			throw new IllegalArgumentException("Invalid argument: naturalKeyAttributes should not be empty");
+		}
+		// entities grouped by class and natural key, the last entity with given key wins
+		final Map<Class<?>, Map<List<Object>, E>> groups = new LinkedHashMap<>();
+		for (final E entity : entities) {
+			if (entity != null) {
+				final EntityTableMapping mapping = EntityTableMapping.of(entity.getClass());
+				final List<Object> key = new ArrayList<>(naturalKeyAttributes.length);
+				for (final String attribute : naturalKeyAttributes) {
+					key.add(mapping.getColumn(attribute).getValue(entity));
+				}
+				groups.computeIfAbsent(entity.getClass(), c -> new LinkedHashMap<>()).put(key, entity);
+			}
+		}
+		final Date now = new Date();
+		int count = 0;
+		for (final Map.Entry<Class<?>, Map<List<Object>, E>> group : groups.entrySet()) {
+			final Class<?> entityClass = group.getKey();
+			try {
+				for (final List<E> batch : ListUtils.partition(new ArrayList<>(group.getValue().values()), batchSize)) {
+					count += executeUpsert(dialect, entityClass, batch, now, naturalKeyAttributes);
+				}
+			} finally {
+				clearCache(entityClass);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Executes single upsert statement for entities of the same class
+	 *
+	 * @param dialect
+	 *            the database dialect
+	 * @param entityClass
+	 *            the entity class
+	 * @param batch
+	 *            the entities with distinct natural keys
+	 * @param now
+	 *            the current time used for the audit data
+	 * @param naturalKeyAttributes
+	 *            the names of the attributes forming the natural key
+	 * @return the number of inserted or updated rows
+	 */
+	protected <E extends Identifiable> int executeUpsert(final DatabaseDialect dialect, final Class<?> entityClass, final List<E> batch, final Date now, final String... naturalKeyAttributes) {
+		final EntityTableMapping mapping = EntityTableMapping.of(entityClass);
+		final List<String> keyColumns = Arrays.stream(naturalKeyAttributes).map(a -> mapping.getColumn(a).getName()).collect(Collectors.toList());
+		final List<EntityTableMapping.ColumnMapping> columns = mapping.getColumns().stream().filter(c -> !c.isId()).collect(Collectors.toList());
+		final List<String> insertColumns = columns.stream().map(EntityTableMapping.ColumnMapping::getName).collect(Collectors.toList());
+		final List<String> updateColumns = columns.stream().filter(c -> !c.isVersion() && !c.isInsertOnly() && !keyColumns.contains(c.getName())).map(EntityTableMapping.ColumnMapping::getName).collect(Collectors.toList());
+		final String versionColumn = columns.stream().filter(EntityTableMapping.ColumnMapping::isVersion).map(EntityTableMapping.ColumnMapping::getName).findFirst().orElse(null);
+		final String sql = dialect.createUpsertSql(mapping.getTableName(), keyColumns, insertColumns, updateColumns, versionColumn, batch.size());
+		if (sql == null) {
+			throw new UnsupportedOperationException("The database dialect does not support upsert");
+		}
+		final long start = System.nanoTime();
+		final Query q = em().createNativeQuery(sql);
+		int position = 1;
+		for (final E entity : batch) {
+			if (entity instanceof AuditableEntity) {
+				final AuditableEntity auditable = (AuditableEntity) entity;
+				if (auditable.getCreated() == null) {
+					auditable.setCreated(now);
+				}
+				auditable.setEdited(now);
+			}
+			for (final EntityTableMapping.ColumnMapping column : columns) {
+				q.setParameter(position++, column.getValue(entity));
+			}
+		}
+		final int rows = q.executeUpdate();
+		if (isInstrumented()) {
+			recordOperation(QueryMetrics.SAVE, entityClass, start, rows, () -> sql);
+		}
+		return rows;
+	}
+
+	/**
+	 * Updates all entities matching given query configuration with bulk <b>UPDATE</b> statements. The statements are executed in chunks by ID range, each chunk covering the next <tt>chunkSize</tt> matching entities in the order of the ID, so
+	 * gaps in the IDs do not produce empty or oversized chunks. Each chunk is executed in its own transaction (see {@link #executeInNewTransaction(Supplier)}). The cache of the entity class is cleared after the update.
+	 * <p>
+	 * The bulk update bypasses the persistence context, so the entities already managed by the entity manager are not updated.
+	 *
+	 * @param queryConfigFactory
+	 *            the query configuration factory. Only the predicates and the parameters are used
+	 * @param updater
+	 *            sets the new values (see {@link CriteriaUpdate#set(Path, Expression)}). The expressions should be created with the criteria builder and the root of the given {@link CriteriaApiObjects}
+	 * @param entityClass
+	 *            the entity class
+	 * @param chunkSize
+	 *            the number of entities covered by a single statement
+	 * @return the number of updated entities
+	 */
+	public <E extends IdentifiableEntity> int bulkUpdate(final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final BiConsumer<CriteriaUpdate<E>, CriteriaApiObjects<E>> updater, final Class<E> entityClass, final int chunkSize) {
+		return bulkUpdate(queryConfigFactory, updater, entityClass, chunkSize, this::executeInNewTransaction);
+	}
+
+	/**
+	 * Updates all entities matching given query configuration with bulk <b>UPDATE</b> statements. See {@link #bulkUpdate(Function, BiConsumer, Class, int)}
+	 *
+	 * @param queryConfigFactory
+	 *            the query configuration factory. Only the predicates and the parameters are used
+	 * @param updater
+	 *            sets the new values (see {@link CriteriaUpdate#set(Path, Expression)}). The expressions should be created with the criteria builder and the root of the given {@link CriteriaApiObjects}
+	 * @param entityClass
+	 *            the entity class
+	 * @param chunkSize
+	 *            the number of entities covered by a single statement
+	 * @param chunkExecutor
+	 *            executes the statement of each chunk and returns the number of updated entities. Can run each chunk in a separate transaction so the row locks are released after every chunk
+	 * @return the number of updated entities
+	 */
+	public <E extends IdentifiableEntity> int bulkUpdate(final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final BiConsumer<CriteriaUpdate<E>, CriteriaApiObjects<E>> updater, final Class<E> entityClass, final int chunkSize,
+			final Function<Supplier<Integer>, Integer> chunkExecutor) {
+		NullUtils.checkNotNull(updater, "Invalid argument: updater should not be null");
+		return executeInIdChunks(queryConfigFactory, entityClass, chunkSize, chunkExecutor, (em, idRange) -> {
+			final CriteriaBuilder cb = em.getCriteriaBuilder();
+			final CriteriaUpdate<E> cu = cb.createCriteriaUpdate(entityClass);
+			final Root<E> root = cu.from(entityClass);
+			final CriteriaApiObjects<E> cao = new CriteriaApiObjects<>(cb, cu, root);
+			final QueryConfig qc = createQueryConfig(queryConfigFactory, cao);
+			updater.accept(cu, cao);
+			cu.where(addIdRange(cb, root, qc, idRange));
+			final Query q = em.createQuery(cu);
+			applyParams(q, qc);
+			return q.executeUpdate();
+		});
+	}
+
+	/**
+	 * Updates all entities matching given filter with bulk <b>UPDATE</b> statements. See {@link #bulkUpdate(Function, BiConsumer, Class, int)}
+	 *
+	 * @param filter
+	 *            the filter
+	 * @param queryConfigFactory
+	 *            the query configuration factory, the same as used for {@link #listEntities(PageableFilter, BiFunction, Class)}
+	 * @param updater
+	 *            sets the new values (see {@link CriteriaUpdate#set(Path, Expression)}). The expressions should be created with the criteria builder and the root of the given {@link CriteriaApiObjects}
+	 * @param entityClass
+	 *            the entity class
+	 * @param chunkSize
+	 *            the number of entities covered by a single statement
+	 * @return the number of updated entities
+	 */
+	public <E extends IdentifiableEntity, F extends Filter> int bulkUpdate(final F filter, final BiFunction<CriteriaApiObjects<E>, F, QueryConfig> queryConfigFactory, final BiConsumer<CriteriaUpdate<E>, CriteriaApiObjects<E>> updater, final Class<E> entityClass,
+			final int chunkSize) {
+		return bulkUpdate(bindFilter(filter, queryConfigFactory), updater, entityClass, chunkSize);
+	}
+
+	/**
+	 * Deletes all entities matching given query configuration with bulk <b>DELETE</b> statements executed in chunks by ID range. See {@link #bulkUpdate(Function, BiConsumer, Class, int, Function)}
+	 *
+	 * @param queryConfigFactory
+	 *            the query configuration factory. Only the predicates and the parameters are used
+	 * @param entityClass
+	 *            the entity class
+	 * @param chunkSize
+	 *            the number of entities covered by a single statement
+	 * @param chunkExecutor
+	 *            executes the statement of each chunk and returns the number of deleted entities
+	 * @return the number of deleted entities
+	 */
+	public <E extends IdentifiableEntity> int bulkDelete(final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final Class<E> entityClass, final int chunkSize, final Function<Supplier<Integer>, Integer> chunkExecutor) {
+		return executeInIdChunks(queryConfigFactory, entityClass, chunkSize, chunkExecutor, (em, idRange) -> {
+			final CriteriaBuilder cb = em.getCriteriaBuilder();
+			final CriteriaDelete<E> cd = cb.createCriteriaDelete(entityClass);
+			final Root<E> root = cd.from(entityClass);
+			final QueryConfig qc = createQueryConfig(queryConfigFactory, cb, cd, root);
+			cd.where(addIdRange(cb, root, qc, idRange));
+			final Query q = em.createQuery(cd);
+			applyParams(q, qc);
+			return q.executeUpdate();
+		});
+	}
+
+	/**
+	 * Deletes all entities matching given filter with bulk <b>DELETE</b> statements executed in chunks by ID range, each chunk in its own transaction. See {@link #bulkUpdate(Function, BiConsumer, Class, int)}
+	 *
+	 * @param filter
+	 *            the filter
+	 * @param queryConfigFactory
+	 *            the query configuration factory, the same as used for {@link #listEntities(PageableFilter, BiFunction, Class)}
+	 * @param entityClass
+	 *            the entity class
+	 * @param chunkSize
+	 *            the number of entities covered by a single statement
+	 * @return the number of deleted entities
+	 */
+	public <E extends IdentifiableEntity, F extends Filter> int bulkDelete(final F filter, final BiFunction<CriteriaApiObjects<E>, F, QueryConfig> queryConfigFactory, final Class<E> entityClass, final int chunkSize) {
+		return bulkDelete(bindFilter(filter, queryConfigFactory), entityClass, chunkSize, this::executeInNewTransaction);
+	}
+
+	/**
+	 * Marks all not deleted entities matching given query configuration as deleted with bulk <b>UPDATE</b> statements. Each statement sets {@link AuditableEntity#isDeleted()}, the editor, the edit time and increments the version, so the concurrent
+	 * modifications of the entities fail with {@link ObjectAlreadyModifiedException}. See {@link #bulkUpdate(Function, BiConsumer, Class, int, Function)}
+	 *
+	 * @param queryConfigFactory
+	 *            the query configuration factory. Only the predicates and the parameters are used
+	 * @param entityClass
+	 *            the entity class
+	 * @param editor
+	 *            the ID of the user deleting the entities
+	 * @param chunkSize
+	 *            the number of entities covered by a single statement
+	 * @param chunkExecutor
+	 *            executes the statement of each chunk and returns the number of deleted entities
+	 * @return the number of deleted entities
+	 */
+	public <E extends AuditableEntity> int bulkSoftDelete(final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final Class<E> entityClass, final Long editor, final int chunkSize,
+			final Function<Supplier<Integer>, Integer> chunkExecutor) {
+		final Function<CriteriaApiObjects<E>, QueryConfig> notDeleted = cao -> {
+			final QueryConfig qc = createQueryConfig(queryConfigFactory, cao);
+			final List<Predicate> predicates = new ArrayList<>(qc.getPredicates());
+			predicates.add(cao.getCriteriaBuilder().isFalse(cao.getPath().get(AuditableEntity_.deleted)));
+			return new QueryConfig(predicates, qc.getParameters(), null, false);
+		};
+		final Date now = new Date();
+		return bulkUpdate(notDeleted, (cu, cao) -> {
+			final CriteriaBuilder cb = cao.getCriteriaBuilder();
+			final Path<E> root = cao.getPath();
+			cu.set(root.get(AuditableEntity_.deleted), true);
+			cu.set(root.get(AuditableEntity_.editor), editor);
+			cu.set(root.get(AuditableEntity_.edited), now);
+			cu.set(root.get(AuditableEntity_.version), cb.sum(root.get(AuditableEntity_.version), 1L));
+		}, entityClass, chunkSize, chunkExecutor);
+	}
+
+	/**
+	 * Marks all not deleted entities matching given filter as deleted with bulk <b>UPDATE</b> statements, each chunk executed in its own transaction. See {@link #bulkSoftDelete(Function, Class, Long, int, Function)}
+	 *
+	 * @param filter
+	 *            the filter
+	 * @param queryConfigFactory
+	 *            the query configuration factory, the same as used for {@link #listEntities(PageableFilter, BiFunction, Class)}
+	 * @param entityClass
+	 *            the entity class
+	 * @param editor
+	 *            the ID of the user deleting the entities
+	 * @param chunkSize
+	 *            the number of entities covered by a single statement
+	 * @return the number of deleted entities
+	 */
+	public <E extends AuditableEntity, F extends AuditableEntityFilter> int bulkSoftDelete(final F filter, final BiFunction<CriteriaApiObjects<E>, F, QueryConfig> queryConfigFactory, final Class<E> entityClass, final Long editor,
+			final int chunkSize) {
+		return bulkSoftDelete(bindFilter(filter, queryConfigFactory), entityClass, editor, chunkSize, this::executeInNewTransaction);
+	}
+
+	/**
+	 * Executes a bulk statement for each chunk of the entities matching given query configuration and clears the cache of the entity class. The chunks are found by keyset pagination: each chunk covers the IDs after the last ID of the previous
+	 * chunk up to the ID of the <tt>chunkSize</tt>-th matching entity (see {@link #findChunkUpperBound(Function, Class, long, int)}).
+	 *
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param entityClass
+	 *            the entity class
+	 * @param chunkSize
+	 *            the number of entities covered by a single statement
+	 * @param chunkExecutor
+	 *            executes the statement of each chunk
+	 * @param statement
+	 *            creates and executes the statement for given entity manager and ID range. The range is an array with the exclusive lower and the inclusive upper bound of the IDs
+	 * @return the number of affected entities
+	 */
+	protected <E extends IdentifiableEntity> int executeInIdChunks(final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final Class<E> entityClass, final int chunkSize, final Function<Supplier<Integer>, Integer> chunkExecutor,
+			final BiFunction<EntityManager, long[], Integer> statement) {
+		NullUtils.checkNotNull(entityClass, "Invalid argument: entityClass should not be null");
+		NullUtils.checkNotNull(chunkExecutor, "Invalid argument: chunkExecutor should not be null");
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("Invalid argument: chunkSize must be positive");
+		}
+		int count = 0;
+		try {
+			long after = Long.MIN_VALUE;
+			while (after != Long.MAX_VALUE) {
+				// the bound is found before the statement, so entities no longer matching after the statement do not shift the chunks
+				final long upper = findChunkUpperBound(queryConfigFactory, entityClass, after, chunkSize);
+				final long[] idRange = { after, upper };
+				final Integer affected = chunkExecutor.apply(() -> statement.apply(em(), idRange));
+				count += affected != null ? affected : 0;
+				after = upper;
+			}
+		} finally {
+			clearCache(entityClass);
+		}
+		return count;
+	}
+
+	/**
+	 * Finds the upper bound of the next chunk of entities matching given query configuration, i.e. the ID of the <tt>chunkSize</tt>-th matching entity with ID greater than <tt>after</tt>
+	 *
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param entityClass
+	 *            the entity class
+	 * @param after
+	 *            the upper bound of the previous chunk or {@link Long#MIN_VALUE} for the first chunk
+	 * @param chunkSize
+	 *            the number of entities in a chunk
+	 * @return the ID of the last entity of the chunk or {@link Long#MAX_VALUE} if less than <tt>chunkSize</tt> entities remain
+	 */
+	protected <E extends IdentifiableEntity> long findChunkUpperBound(final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final Class<E> entityClass, final long after, final int chunkSize) {
+		final EntityManager em = em();
+		final CriteriaBuilder cb = em.getCriteriaBuilder();
+		final CriteriaQuery<Long> cq = cb.createQuery(Long.class);
+		final Root<E> root = cq.from(entityClass);
+		final QueryConfig qc = createQueryConfig(queryConfigFactory, cb, cq, root);
+		final Path<Long> id = root.get(IdentifiableEntity_.id);
+		final List<Predicate> predicates = new ArrayList<>(qc.getPredicates());
+		predicates.add(cb.greaterThan(id, after));
+		cq.select(id).where(predicates.toArray(new Predicate[predicates.size()])).orderBy(cb.asc(id));
+		final TypedQuery<Long> q = em.createQuery(cq);
+		applyParams(q, qc);
+		q.setFirstResult(chunkSize - 1);
+		q.setMaxResults(1);
+		final Long upper = ExtCollectionUtils.get0(q.getResultList());
+		return upper != null ? upper : Long.MAX_VALUE;
+	}
+
+	private <E extends IdentifiableEntity> Predicate[] addIdRange(final CriteriaBuilder cb, final Root<E> root, final QueryConfig qc, final long[] idRange) {
+		final List<Predicate> predicates = new ArrayList<>(qc.getPredicates());
+		final Path<Long> id = root.get(IdentifiableEntity_.id);
+		predicates.add(cb.greaterThan(id, idRange[0]));
+		predicates.add(cb.lessThanOrEqualTo(id, idRange[1]));
+		return predicates.toArray(new Predicate[predicates.size()]);
+	}
+
+	/**
+	 * Executes given work in a new resource-local transaction of the entity manager, which is committed when the work completes and rolled back if it fails. Used as chunk executor of the bulk operations, so the row locks are released after
+	 * every chunk.
+	 * <p>
+	 * The work is executed in the current transaction if the entity manager is managed by JTA (resource-local transactions are not available) or its transaction is already active, because the transaction cannot be suspended. Pass a chunk
+	 * executor starting a new JTA transaction (e.g. an EJB method with <tt>REQUIRES_NEW</tt>) to the bulk operations in such environments.
+	 *
+	 * @param work
+	 *            the work
+	 * @return the result of the work
+	 */
+	protected <T> T executeInNewTransaction(final Supplier<T> work) {
+		final EntityManager em = em();
+		final EntityTransaction tx;
+		try {
+			tx = em.getTransaction();
+		} catch (final IllegalStateException ex) {
+			// JTA entity manager
+			return work.get();
+		}
+		if (tx.isActive()) {
+			return work.get();
+		}
+		tx.begin();
+		try {
+			final T result = work.get();
+			tx.commit();
+			return result;
+		} catch (final RuntimeException ex) {
+			if (tx.isActive()) {
+				tx.rollback();
+			}
+			throw ex;
+		}
+	}
+
+	/**
+	 * Checks if the entity is not null and returns it. If the entity is null checked ObjectNotFound exception is thrown
+	 * <p>
+	 * Normally this method should be used in conjunction with other methods like {@link #loadEntity(long, Class, boolean)}
+	 *
+	 * <pre>
+	 * <code>
+	 * try {
+	 *   jpaUtils.notNull(jpaUtils.loadEntity(42L, MyEntity.class, true));
+	 * } catch (ObjectNotFound ex) {
+	 *   // error handling
+	 * }
+	 * </code>
+	 * </pre>
+	 *
+	 * @param e
+	 *            the entity
+	 * @return the entity if it is not null
+	 * @throws ObjectNotFoundException
+	 *             thrown if the entity is null
+	 */
+	public <E> E notNull(final E e) throws ObjectNotFoundException {
+		if (e == null) {
+			throw new ObjectNotFoundException("Object is null");
+		}
+		return e;
+	}
+
+	/**
+	 * Loads entity from database.
+	 *
+	 * @param id
+	 *            the entity id
+	 * @param entityClass
+	 *            the entity class
+	 * @param clearCache
+	 *            clears the JPA cache so the fetched entity contains last modification from the database. If the entity class is cached by the {@link EntityCache} the cache entry is replaced with the fetched entity
+	 * @return the entity with given <tt>id</tt> or null if no such entity exists. If the entity class is cached by the {@link EntityCache} the entity is detached and must not be modified
+	 */
+	public <E> E loadEntity(final long id, final Class<E> entityClass, final boolean clearCache) {
+		NullUtils.checkNotNull(entityClass, "Invalid argument: entityClass should not be null");
+		final EntityManager em = em();
+		if (clearCache) {
+			em.getEntityManagerFactory().getCache().evict(entityClass, id);
+		}
+		final long start = System.nanoTime();
+		final E entity = findEntity(em, entityClass, id, clearCache);
+		if (isInstrumented()) {
+			recordOperation(QueryMetrics.LOAD, entityClass, start, entity != null ? 1 : 0, null);
+		}
+		return entity;
+	}
+
+	/**
+	 * Finds entity by ID using the entity cache if the entity class is cached
+	 *
+	 * @param em
+	 *            the entity manager
+	 * @param entityClass
+	 *            the entity class
+	 * @param id
+	 *            the entity id
+	 * @param refresh
+	 *            if <tt>true</tt> the cached entity is not used, but the entity is loaded from the database and replaces the cache entry
+	 * @return the entity with given <tt>id</tt> or null if no such entity exists
+	 */
+	protected <E> E findEntity(final EntityManager em, final Class<E> entityClass, final long id, final boolean refresh) {
+		if (entityCache == null || !entityCache.isCached(entityClass) || isModifiedInTransaction(em, entityClass, id)) {
+			return em.find(entityClass, id);
+		}
+		final EntityCache.CachedEntity entry = refresh ? null : entityCache.get(entityClass, id);
+		if (entry != null) {
+			if (!entry.isExpired()) {
+				metrics.recordCacheAccess(entityClass, true);
+				return entityClass.cast(entry.getEntity());
+			}
+			if (entry.getEntity() instanceof AuditableEntity) {
+				final Long version = loadVersion(em, entityClass, id);
+				if (version != null && version == entry.getVersion()) {
+					entityCache.renew(entityClass, entry);
+					metrics.recordCacheAccess(entityClass, true);
+					return entityClass.cast(entry.getEntity());
+				}
+			}
+		}
+		metrics.recordCacheAccess(entityClass, false);
+		final long stamp = entityCache.stamp(entityClass, id);
+		// load the entity in separate entity manager. The entity manager may join the JTA transaction and stay open until the transaction ends, so it is cleared to detach the entity before sharing it
+		final EntityManager loader = em.getEntityManagerFactory().createEntityManager();
+		final E e;
+		try {
+			e = loader.find(entityClass, id);
+			loader.clear();
+		} finally {
+			loader.close();
+		}
+		if (e != null) {
+			entityCache.put(entityClass, id, e, e instanceof AuditableEntity ? ((AuditableEntity) e).getVersion() : 0, stamp);
+		}
+		return e;
+	}
+
+	/**
+	 * Loads the version of an {@link AuditableEntity}
+	 *
+	 * @param em
+	 *            the entity manager
+	 * @param entityClass
+	 *            the entity class
+	 * @param id
+	 *            the entity id
+	 * @return the version of the entity or <tt>null</tt> if the entity does not exist
+	 */
+	@SuppressWarnings("unchecked")
+	protected Long loadVersion(final EntityManager em, final Class<?> entityClass, final long id) {
+		final CriteriaBuilder cb = em.getCriteriaBuilder();
+		final CriteriaQuery<Long> cq = cb.createQuery(Long.class);
+		final Root<AuditableEntity> root = cq.from((Class<AuditableEntity>) entityClass);
+		cq.select(root.get(AuditableEntity_.version)).where(cb.equal(root.get(IdentifiableEntity_.id), id));
+		return ExtCollectionUtils.get0(em.createQuery(cq).getResultList());
+	}
+
+	private Set<List<Object>> getModifiedEntities() {
+		return TransactionContext.getDefault().computeAttachmentIfAbsent(MODIFIED_ENTITIES_ATTACHMENT, HashSet::new);
+	}
+
+	/**
+	 * Checks if the entity may be modified by the transaction of the entity manager, so it must be read through the entity manager instead of the {@link EntityCache}. The entities saved in a JTA transaction are tracked with
+	 * {@link TransactionContext}. Without it the saved entities cannot be tracked, so every entity is considered modified while the entity manager has an active transaction (e.g. a resource-local one), otherwise the separate entity manager
+	 * loading the cached entities would return the committed row instead of the changes of the transaction.
+	 *
+	 * @param em
+	 *            the entity manager
+	 * @param entityClass
+	 *            the entity class
+	 * @param id
+	 *            the entity id
+	 * @return <tt>true</tt> if the entity may be modified by the current transaction
+	 */
+	protected boolean isModifiedInTransaction(final EntityManager em, final Class<?> entityClass, final long id) {
+		if (TransactionContext.getDefault().getTransactionKey() != null) {
+			return getModifiedEntities().contains(Arrays.asList(entityClass, id));
+		}
+		if (em.isJoinedToTransaction()) {
+			return true;
+		}
+		try {
+			return em.getTransaction().isActive();
+		} catch (final IllegalStateException ex) {
+			// JTA entity manager without transaction
+			return false;
+		}
+	}
+
+	/**
+	 * Removes the saved entity from the entity cache. Until the end of the current transaction the entity is not cached, so uncommitted changes do not leak to other transactions. After the transaction is committed the invalidation is published to
+	 * the other cluster nodes. The invalidation carries the version of the entity only if the entity is flushed, otherwise the version is not yet incremented and the invalidation is unconditional (version <tt>0</tt>).
+	 *
+	 * @param entity
+	 *            the saved entity
+	 * @param flushed
+	 *            <tt>true</tt> if the entity is flushed to the database
+	 */
+	protected void invalidateSavedEntity(final Identifiable entity, final boolean flushed) {
+		if (entity == null || entity.getId() == 0) {
+			return;
+		}
+		if (entityCache != null) {
+			entityCache.invalidate(entity.getClass(), entity.getId());
+			getModifiedEntities().add(Arrays.asList(entity.getClass(), entity.getId()));
+		}
+		if (invalidationBus != null) {
+			final long version = flushed && entity instanceof AuditableEntity ? ((AuditableEntity) entity).getVersion() : 0;
+			invalidationBus.publishAfterCommit(CacheInvalidation.of(entity.getClass(), entity.getId(), version));
+		}
+	}
+
+	/**
+	 * Loads entity from database.
+	 *
+	 * @param q
+	 *            the query that returns the entity
+	 * @param entityClass
+	 *            the entity class
+	 * @param clearCache
+	 *            clears the JPA cache so the fetched entity contains last modification from the database.
+	 * @return the entity returned by given query or null if the query returns no results
+	 */
+	public <E extends Identifiable> E loadEntity(final TypedQuery<E> q, final Class<E> entityClass, final boolean clearCache) {
+		final E entity = ExtCollectionUtils.get0(q.getResultList());
+		if (entity != null && clearCache) {
+			final EntityManager em = em();
+			// a read does not change the entity, so the other cluster nodes are not notified
+			em.getEntityManagerFactory().getCache().evict(entityClass, entity.getId());
+			if (entityCache != null) {
+				entityCache.invalidate(entityClass, entity.getId());
+			}
+			em.refresh(entity);
+		}
+		return entity;
+	}
+
+	/**
+	 * Loads entities with given IDs. The entities found in the {@link EntityCache} or in the shared cache of the entity manager factory are taken from there, the rest are fetched with <b>IN</b> queries loading up to
+	 * {@value #LOAD_ENTITIES_BATCH_SIZE} entities each. The entities already managed by the entity manager are returned as the same instances, but can be fetched again by the queries, because JPA cannot check the persistence context without
+	 * loading the entity.
+	 *
+	 * @param entityClass
+	 *            the entity class
+	 * @param ids
+	 *            the entity IDs
+	 * @return the entities in the order of <tt>ids</tt>. The list contains <tt>null</tt> for <tt>null</tt> IDs and IDs of not existing entities
+	 */
+	public <E extends IdentifiableEntity> List<E> loadEntities(final Class<E> entityClass, final Collection<Long> ids) {
+		NullUtils.checkNotNull(entityClass, "Invalid argument: entityClass should not be null");
+		NullUtils.checkNotNull(ids, "Invalid argument: ids should not be null");
+		final EntityManager em = em();
+		final long start = System.nanoTime();
+		final Map<Long, E> entities = new HashMap<>();
+		final List<Long> misses = new ArrayList<>();
+		for (final Long id : new LinkedHashSet<>(ids)) {
+			if (id == null) {
+				continue;
+			}
+			final E cached = getCachedEntity(em, entityClass, id);
+			if (cached != null) {
+				entities.put(id, cached);
+			} else {
+				misses.add(id);
+			}
+		}
+		for (final List<Long> batch : ListUtils.partition(misses, LOAD_ENTITIES_BATCH_SIZE)) {
+			final CriteriaBuilder cb = em.getCriteriaBuilder();
+			final CriteriaQuery<E> cq = cb.createQuery(entityClass);
+			final Root<E> root = cq.from(entityClass);
+			final CriteriaBuilderHelper cbh = createCriteriaBuilderHelper(cb, null, null).in(root.get(IdentifiableEntity_.id), batch);
+			cq.select(root).where(cbh.getPredicatesArray());
+			metrics.recordInListSize(entityClass, batch.size());
+			em.createQuery(cq).getResultList().forEach(e -> entities.put(e.getId(), e));
+		}
+		if (isInstrumented()) {
+			recordOperation(QueryMetrics.LOAD, entityClass, start, entities.size(), null);
+		}
+		return ids.stream().map(id -> id != null ? entities.get(id) : null).collect(Collectors.toList());
+	}
+
+	/**
+	 * Loads entities with given IDs. See {@link #loadEntities(Class, Collection)}
+	 *
+	 * @param entityClass
+	 *            the entity class
+	 * @param ids
+	 *            the entity IDs
+	 * @return the entities in the order of <tt>ids</tt>. The list contains <tt>null</tt> for IDs of not existing entities
+	 */
+	public <E extends IdentifiableEntity> List<E> loadEntities(final Class<E> entityClass, final long... ids) {
+		NullUtils.checkNotNull(ids, "Invalid argument: ids should not be null");
+		return loadEntities(entityClass, Arrays.stream(ids).boxed().collect(Collectors.toList()));
+	}
+
+	/**
+	 * Returns the entity if it can be obtained without a database query - from the {@link EntityCache} or from the shared cache of the entity manager factory
+	 *
+	 * @param em
+	 *            the entity manager
+	 * @param entityClass
+	 *            the entity class
+	 * @param id
+	 *            the entity id
+	 * @return the entity or <tt>null</tt> if it is not cached
+	 */
+	protected <E> E getCachedEntity(final EntityManager em, final Class<E> entityClass, final long id) {
+		if (entityCache != null && entityCache.isCached(entityClass) && !isModifiedInTransaction(em, entityClass, id)) {
+			final EntityCache.CachedEntity entry = entityCache.get(entityClass, id);
+			final boolean hit = entry != null && !entry.isExpired();
+			metrics.recordCacheAccess(entityClass, hit);
+			if (hit) {
+				return entityClass.cast(entry.getEntity());
+			}
+		}
+		if (em.getEntityManagerFactory().getCache().contains(entityClass, id)) {
+			return em.find(entityClass, id);
+		}
+		return null;
+	}
+
+	/**
+	 * Counts entities that matches given query configuration
+	 *
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param entityClass
+	 *            the entity class
+	 * @return the number of entities matching the query configuration
+	 */
+	public <E> long countEntities(final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final Class<E> entityClass) {
+		return countEntities(queryConfigFactory, entityClass, createPlanKey("count", entityClass));
+	}
+
+	/**
+	 * Counts entities that matches given query configuration
+	 *
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param entityClass
+	 *            the entity class
+	 * @param planKey
+	 *            the key of the query plan in the query plan cache or <tt>null</tt> if the query plan must not be cached
+	 * @return the number of entities matching the query configuration
+	 */
+	protected <E> long countEntities(final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final Class<E> entityClass, final List<Object> planKey) {
+		final EntityManager em = em();
+		final CriteriaBuilder cb = em.getCriteriaBuilder();
+		final CriteriaQuery<Long> cq = cb.createQuery(Long.class);
+
+		final Root<E> root = cq.from(entityClass);
+
+		final QueryConfig qc = createQueryConfig(queryConfigFactory, cb, cq, root);
+		if (qc.isDistinct()) {
+			cq.select(cb.countDistinct(root));
+		} else {
+			cq.select(cb.count(root));
+		}
+
+		cq.where(qc.getPredicatesArray());
+
+		return executeCount(em, cq, qc, entityClass, planKey);
+	}
+
+	/**
+	 * Executes a count query with the hints of the query configuration, logging the SQL and recording the metrics
+	 *
+	 * @param em
+	 *            the entity manager
+	 * @param cq
+	 *            the count query
+	 * @param qc
+	 *            the query configuration
+	 * @param entityClass
+	 *            the entity class
+	 * @param planKey
+	 *            the key of the query plan or <tt>null</tt> if the plan must not be cached
+	 * @return the number of entities
+	 */
+	protected <R> long executeCount(final EntityManager em, final CriteriaQuery<R> cq, final QueryConfig qc, final Class<?> entityClass, final List<Object> planKey) {
+		final TypedQuery<R> q = createQuery(em, cq, qc, planKey);
+
+		if (sqlLogger != null) {
+			sqlLogger.log(q, completePlanKey(planKey, qc));
+		}
+		final long start = System.nanoTime();
+		final long count = ((Number) q.getSingleResult()).longValue();
+		if (isInstrumented()) {
+			recordInListSize(entityClass, qc);
+			recordOperation(QueryMetrics.COUNT, entityClass, start, 1, sqlOf(q));
+		}
+		return count;
+	}
+
+	/**
+	 * Counts entities that matches given filter
+	 *
+	 * @param filter
+	 *            the query filter
+	 * @param entityClass
+	 *            the entity class
+	 * @return the number of entities matching the query filter
+	 */
+	public <E extends IdentifiableEntity, F extends Filter> long countEntities(final F filter, final BiFunction<CriteriaApiObjects<E>, F, QueryConfig> queryConfigFactory, final Class<E> entityClass) {
+		return countEntities(bindFilter(filter, queryConfigFactory), entityClass, createPlanKey("count", entityClass));
+	}
+
+	/**
+	 * Applies parameters to typed query
+	 *
+	 * @param q
+	 *            the typed query
+	 * @param qc
 	 *            query config containing the parameters
 	 */
-	protected void applyParams(final TypedQuery<?> q, final QueryConfig qc) {
-		if (qc != null && ExtCollectionUtils.isNotEmpty(qc.getParameters())) {
-			qc.getParameters().forEach(pair -> q.setParameter(pair.getKey(), pair.getValue()));
+	protected void applyParams(final TypedQuery<?> q, final QueryConfig qc) {
+		applyParams((Query) q, qc);
+	}
+
+	/**
+	 * Binds the parameters of the query configuration to a query, bulk update or bulk delete
+	 *
+	 * @param q
+	 *            the query
+	 * @param qc
+	 *            the query configuration
+	 */
+	protected void applyParams(final Query q, final QueryConfig qc) {
+		if (qc != null && ExtCollectionUtils.isNotEmpty(qc.getParameters())) {
+			qc.getParameters().forEach(pair -> q.setParameter(pair.getKey(), pair.getValue()));
+		}
+	}
+
+	/**
+	 * List entities matching given query configuration
+	 *
+	 * @param firstResult
+	 *            the position of the first result to retrieve.
+	 * @param maxResults
+	 *            the maximum number of results to retrieve.
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param entityClass
+	 *            the entity class
+	 * @return a list of entities matching given query configuration
+	 */
+	public <E> List<E> listEntities(final int firstResult, final int maxResults, final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final Class<E> entityClass) {
+		return listEntities(firstResult, maxResults, queryConfigFactory, entityClass, createPlanKey("list", entityClass));
+	}
+
+	/**
+	 * List entities matching given query configuration
+	 *
+	 * @param firstResult
+	 *            the position of the first result to retrieve.
+	 * @param maxResults
+	 *            the maximum number of results to retrieve.
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param entityClass
+	 *            the entity class
+	 * @param planKey
+	 *            the key of the query plan in the query plan cache or <tt>null</tt> if the query plan must not be cached
+	 * @return a list of entities matching given query configuration
+	 */
+	protected <E> List<E> listEntities(final int firstResult, final int maxResults, final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final Class<E> entityClass, final List<Object> planKey) {
+		final EntityManager em = em();
+		final CriteriaBuilder cb = em.getCriteriaBuilder();
+		final CriteriaQuery<E> cq = cb.createQuery(entityClass);
+		final Root<E> root = cq.from(entityClass);
+
+		cq.select(root);
+
+		final QueryConfig qc = createQueryConfig(queryConfigFactory, cb, cq, root);
+		return executeQuery(em, firstResult, maxResults, qc, cq, planKey);
+	}
+
+	/**
+	 * List entities matching given filter
+	 *
+	 * @param filter
+	 *            the filter
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param entityClass
+	 *            the entity class
+	 * @return List entities matching given filter
+	 */
+	public <E, F extends PageableFilter> List<E> listEntities(final F filter, final BiFunction<CriteriaApiObjects<E>, F, QueryConfig> queryConfigFactory, final Class<E> entityClass) {
+		return listEntities(filter.getFirstResult(), filter.getMaxResults(), bindFilter(filter, queryConfigFactory), entityClass, createPlanKey("list", entityClass));
+	}
+
+	/**
+	 * List entity IDs matching given query configuration
+	 *
+	 * @param firstResult
+	 *            the position of the first result to retrieve.
+	 * @param maxResults
+	 *            the maximum number of results to retrieve.
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param entityClass
+	 *            the entity class
+	 * @return a list of entities matching given query configuration
+	 */
+	public <E extends IdentifiableEntity> List<Long> listEntityIds(final int firstResult, final int maxResults, final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final Class<E> entityClass) {
+		return listEntityIds(firstResult, maxResults, queryConfigFactory, entityClass, createPlanKey("ids", entityClass));
+	}
+
+	/**
+	 * List entity IDs matching given query configuration
+	 *
+	 * @param firstResult
+	 *            the position of the first result to retrieve.
+	 * @param maxResults
+	 *            the maximum number of results to retrieve.
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param entityClass
+	 *            the entity class
+	 * @param planKey
+	 *            the key of the query plan in the query plan cache or <tt>null</tt> if the query plan must not be cached
+	 * @return a list of entities matching given query configuration
+	 */
+	protected <E extends IdentifiableEntity> List<Long> listEntityIds(final int firstResult, final int maxResults, final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final Class<E> entityClass, final List<Object> planKey) {
+		final EntityManager em = em();
+		final CriteriaBuilder cb = em.getCriteriaBuilder();
+		final CriteriaQuery<Long> cq = cb.createQuery(Long.class);
+		final Root<E> root = cq.from(entityClass);
+
+		cq.select(root.get(IdentifiableEntity_.id));
+
+		final QueryConfig qc = createQueryConfig(queryConfigFactory, cb, cq, root);
+		return executeQuery(em, firstResult, maxResults, qc, cq, planKey);
+	}
+
+	/**
+	 * List entities matching given filter
+	 *
+	 * @param filter
+	 *            the filter
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param entityClass
+	 *            the entity class
+	 * @return List entities matching given filter
+	 */
+	public <E extends IdentifiableEntity, F extends PageableFilter> List<Long> listEntityIds(final F filter, final BiFunction<CriteriaApiObjects<E>, F, QueryConfig> queryConfigFactory, final Class<E> entityClass) {
+		return listEntityIds(filter.getFirstResult(), filter.getMaxResults(), bindFilter(filter, queryConfigFactory), entityClass, createPlanKey("ids", entityClass));
+	}
+
+	/**
+	 * List projections of the entities matching given query configuration. Only the selected columns are read and the results are not managed by the entity manager, which reduces the heap usage and the persistence context overhead compared to
+	 * {@link #listEntities(int, int, Function, Class)}. Paging, predicates, sort orders and parameters of the query configuration are applied the same way.
+	 *
+	 * @param firstResult
+	 *            the position of the first result to retrieve.
+	 * @param maxResults
+	 *            the maximum number of results to retrieve.
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param entityClass
+	 *            the entity class
+	 * @param projection
+	 *            the projection
+	 * @return a list of projections of the entities matching given query configuration
+	 */
+	public <E, R> List<R> listProjections(final int firstResult, final int maxResults, final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final Class<E> entityClass, final Projection<E, R> projection) {
+		return listProjections(firstResult, maxResults, queryConfigFactory, entityClass, projection, createPlanKey(entityClass, projection));
+	}
+
+	/**
+	 * List projections of the entities matching given query configuration
+	 *
+	 * @param firstResult
+	 *            the position of the first result to retrieve.
+	 * @param maxResults
+	 *            the maximum number of results to retrieve.
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param entityClass
+	 *            the entity class
+	 * @param projection
+	 *            the projection
+	 * @param planKey
+	 *            the key of the query plan in the query plan cache or <tt>null</tt> if the query plan must not be cached
+	 * @return a list of projections of the entities matching given query configuration
+	 */
+	protected <E, R> List<R> listProjections(final int firstResult, final int maxResults, final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final Class<E> entityClass, final Projection<E, R> projection,
+			final List<Object> planKey) {
+		NullUtils.checkNotNull(projection, "Invalid argument: projection should not be null");
+		final EntityManager em = em();
+		final CriteriaBuilder cb = em.getCriteriaBuilder();
+		final CriteriaQuery<R> cq = cb.createQuery(projection.getResultClass());
+		final Root<E> root = cq.from(entityClass);
+
+		cq.select(projection.createSelection(new CriteriaApiObjects<>(cb, cq, root)));
+
+		final QueryConfig qc = createQueryConfig(queryConfigFactory, cb, cq, root);
+		return executeQuery(em, firstResult, maxResults, qc, cq, planKey);
+	}
+
+	/**
+	 * List projections of the entities matching given filter. See {@link #listProjections(int, int, Function, Class, Projection)}
+	 *
+	 * @param filter
+	 *            the filter
+	 * @param queryConfigFactory
+	 *            the query configuration factory, the same as used for {@link #listEntities(PageableFilter, BiFunction, Class)}
+	 * @param entityClass
+	 *            the entity class
+	 * @param projection
+	 *            the projection
+	 * @return a list of projections of the entities matching given filter
+	 */
+	public <E, R, F extends PageableFilter> List<R> listProjections(final F filter, final BiFunction<CriteriaApiObjects<E>, F, QueryConfig> queryConfigFactory, final Class<E> entityClass, final Projection<E, R> projection) {
+		return listProjections(filter.getFirstResult(), filter.getMaxResults(), bindFilter(filter, queryConfigFactory), entityClass, projection, createPlanKey(entityClass, projection));
+	}
+
+	private List<Object> createPlanKey(final Class<?> entityClass, final Projection<?, ?> projection) {
+		NullUtils.checkNotNull(projection, "Invalid argument: projection should not be null");
+		final List<Object> planKey = createPlanKey("projection", entityClass);
+		if (planKey == null || projection.getKey() == null) {
+			// the selected columns cannot be identified without the ID of the projection
+			return null;
 		}
+		final List<Object> key = new ArrayList<>(planKey);
+		key.addAll(projection.getKey());
+		return key;
 	}
 
 	/**
-	 * List entities matching given query configuration
+	 * List entity IDs matching given query configuration as primitive array. The IDs are fetched in chunks of {@link #LOAD_ENTITIES_BATCH_SIZE} using keyset pagination (see {@link #listEntityIds(String, int, Function, Class)}) and copied to
+	 * a growing array, so only the boxed values of a single chunk are on the heap at a time. The ID is appended to the sort orders of the query configuration as a tie-breaker. The first <tt>firstResult</tt> IDs are read and skipped.
+	 *
+	 * @param firstResult
+	 *            the position of the first result to retrieve.
+	 * @param maxResults
+	 *            the maximum number of results to retrieve.
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param entityClass
+	 *            the entity class
+	 * @return an array of entity IDs matching given query configuration
+	 */
+	public <E extends IdentifiableEntity> long[] listEntityIdsAsLongArray(final int firstResult, final int maxResults, final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final Class<E> entityClass) {
+		return listEntityIdsAsLongArray(firstResult, maxResults, queryConfigFactory, entityClass, LOAD_ENTITIES_BATCH_SIZE);
+	}
+
+	/**
+	 * List entity IDs matching given query configuration as primitive array. See {@link #listEntityIdsAsLongArray(int, int, Function, Class)}
+	 *
+	 * @param firstResult
+	 *            the position of the first result to retrieve.
+	 * @param maxResults
+	 *            the maximum number of results to retrieve.
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param entityClass
+	 *            the entity class
+	 * @param chunkSize
+	 *            the number of IDs fetched with a single query
+	 * @return an array of entity IDs matching given query configuration
+	 */
+	protected <E extends IdentifiableEntity> long[] listEntityIdsAsLongArray(final int firstResult, final int maxResults, final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final Class<E> entityClass, final int chunkSize) {
+		NullUtils.checkNotNull(entityClass, "Invalid argument: entityClass should not be null");
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("Invalid argument: chunkSize must be positive");
+		}
+		final EntityManager em = em();
+		long[] ids = new long[maxResults > 0 ? Math.min(maxResults, chunkSize) : chunkSize];
+		int size = 0;
+		int skip = Math.max(firstResult, 0);
+		String continuationToken = null;
+		do {
+			final long remaining = maxResults > 0 ? (long) skip + maxResults - size : Long.MAX_VALUE;
+			final CriteriaBuilder cb = em.getCriteriaBuilder();
+			final CriteriaQuery<Object[]> cq = cb.createQuery(Object[].class);
+			final Root<E> root = cq.from(entityClass);
+			final KeysetPage<Long> page = executeKeysetQuery(em, continuationToken, (int) Math.min(chunkSize, remaining), queryConfigFactory, cb, cq, root, root.get(IdentifiableEntity_.id));
+			for (final Long id : page.getItems()) {
+				if (skip > 0) {
+					skip--;
+				} else {
+					if (size == ids.length) {
+						ids = Arrays.copyOf(ids, ids.length * 2);
+					}
+					ids[size++] = id;
+				}
+			}
+			continuationToken = page.getContinuationToken();
+		} while (continuationToken != null && (maxResults <= 0 || size < maxResults));
+		return size == ids.length ? ids : Arrays.copyOf(ids, size);
+	}
+
+	/**
+	 * List entity IDs matching given filter as primitive array. See {@link #listEntityIdsAsLongArray(int, int, Function, Class)}
+	 *
+	 * @param filter
+	 *            the filter
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param entityClass
+	 *            the entity class
+	 * @return an array of entity IDs matching given filter
+	 */
+	public <E extends IdentifiableEntity, F extends PageableFilter> long[] listEntityIdsAsLongArray(final F filter, final BiFunction<CriteriaApiObjects<E>, F, QueryConfig> queryConfigFactory, final Class<E> entityClass) {
+		return listEntityIdsAsLongArray(filter.getFirstResult(), filter.getMaxResults(), bindFilter(filter, queryConfigFactory), entityClass);
+	}
+
+	/**
+	 * Lists a page of entities matching given query configuration together with the total number of matching entities. The query configuration is created once and the same criteria query is used for both the page and the count query. The count query is
+	 * skipped when the total can be deduced from the page (i.e. the page is not full).
+	 *
+	 * @param firstResult
+	 *            the position of the first result to retrieve.
+	 * @param maxResults
+	 *            the maximum number of results to retrieve.
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param entityClass
+	 *            the entity class
+	 * @return a page of entities matching given query configuration
+	 */
+	public <E> Page<E> listPage(final int firstResult, final int maxResults, final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final Class<E> entityClass) {
+		return listPage(firstResult, maxResults, queryConfigFactory, entityClass, createPlanKey("page", entityClass));
+	}
+
+	/**
+	 * Lists a page of entities matching given query configuration together with the total number of matching entities. See {@link #listPage(int, int, Function, Class)}
+	 *
+	 * @param firstResult
+	 *            the position of the first result to retrieve.
+	 * @param maxResults
+	 *            the maximum number of results to retrieve.
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param entityClass
+	 *            the entity class
+	 * @param planKey
+	 *            the key of the query plan (see {@link QueryPlanCache}) or <tt>null</tt> if the plan must not be cached. The count query is cached with the key extended with <tt>"count"</tt>
+	 * @return a page of entities matching given query configuration
+	 */
+	@SuppressWarnings("unchecked")
+	protected <E> Page<E> listPage(final int firstResult, final int maxResults, final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final Class<E> entityClass, final List<Object> planKey) {
+		final EntityManager em = em();
+		final CriteriaBuilder cb = em.getCriteriaBuilder();
+		final CriteriaQuery<Object> cq = cb.createQuery();
+		final Root<E> root = cq.from(entityClass);
+
+		final QueryConfig qc = createQueryConfig(queryConfigFactory, cb, cq, root);
+
+		cq.select(root);
+		final List<E> items = (List<E>) executeQuery(em, firstResult, maxResults, qc, cq, planKey);
+
+		final long total;
+		if (isTotalKnown(firstResult, maxResults, items)) {
+			total = Math.max(firstResult, 0) + items.size();
+		} else {
+			cq.select(qc.isDistinct() ? cb.countDistinct(root) : cb.count(root));
+			cq.distinct(false);
+			cq.orderBy(new ArrayList<Order>());
+
+			total = executeCount(em, cq, qc, entityClass, planKey != null ? ListUtils.union(planKey, Collections.singletonList("count")) : null);
+		}
+		return new Page<>(items, total, Math.max(firstResult, 0) + items.size() < total);
+	}
+
+	/**
+	 * Lists a page of entities matching given filter together with the total number of matching entities. See {@link #listPage(int, int, Function, Class)}
+	 *
+	 * @param filter
+	 *            the filter
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param entityClass
+	 *            the entity class
+	 * @return a page of entities matching given filter
+	 */
+	public <E, F extends PageableFilter> Page<E> listPage(final F filter, final BiFunction<CriteriaApiObjects<E>, F, QueryConfig> queryConfigFactory, final Class<E> entityClass) {
+		return listPage(filter.getFirstResult(), filter.getMaxResults(), bindFilter(filter, queryConfigFactory), entityClass, createPlanKey("page", entityClass));
+	}
+
+	/**
+	 * Lists a page of entities matching given filter together with the total number of matching entities. The count query is executed in parallel with the page query using a separate entity manager. For the first page the count query is executed
+	 * only after the page query and only if the page is full, because otherwise the total is the size of the page.
+	 * <p>
+	 * The entity manager returned by <tt>countEntityManagerSupplier</tt> must be a new application managed entity manager (e.g. <tt>emf::createEntityManager</tt>) usable from the threads of <tt>executor</tt>. It is closed after the count query.
+	 *
+	 * @param filter
+	 *            the filter
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param entityClass
+	 *            the entity class
+	 * @param countEntityManagerSupplier
+	 *            supplier of the entity manager used for the count query
+	 * @param executor
+	 *            the executor running the count query
+	 * @return a page of entities matching given filter
+	 */
+	public <E, F extends PageableFilter> Page<E> listPage(final F filter, final BiFunction<CriteriaApiObjects<E>, F, QueryConfig> queryConfigFactory, final Class<E> entityClass, final Supplier<EntityManager> countEntityManagerSupplier,
+			final Executor executor) {
+		NullUtils.checkNotNull(countEntityManagerSupplier, "Invalid argument: countEntityManagerSupplier should not be null");
+		NullUtils.checkNotNull(executor, "Invalid argument: executor should not be null");
+		final int firstResult = filter.getFirstResult();
+		final Function<CriteriaApiObjects<E>, QueryConfig> factory = bindFilter(filter, queryConfigFactory);
+		final List<Object> countPlanKey = createPlanKey("count", entityClass);
+		final Supplier<Long> countQuery = () -> {
+			final EntityManager countEm = countEntityManagerSupplier.get();
+			try {
+				return withEntityManager(() -> countEm).countEntities(factory, entityClass, countPlanKey);
+			} finally {
+				countEm.close();
+			}
+		};
+		// the total of the first page is known without count query if the page is not full
+		final CompletableFuture<Long> count = firstResult > 0 ? CompletableFuture.supplyAsync(countQuery, executor) : null;
+
+		final List<E> items = listEntities(firstResult, filter.getMaxResults(), factory, entityClass, createPlanKey("list", entityClass));
+
+		final long total;
+		if (count == null && isTotalKnown(firstResult, filter.getMaxResults(), items)) {
+			total = items.size();
+		} else {
+			try {
+				total = (count != null ? count : CompletableFuture.supplyAsync(countQuery, executor)).join();
+			} catch (final CompletionException ex) {
+				if (ex.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) ex.getCause();
+				}
+				throw ex;
+			}
+		}
+		return new Page<>(items, total, Math.max(firstResult, 0) + items.size() < total);
+	}
+
+	/**
+	 * Lists entities matching given filter asynchronously with a separate entity manager of the <tt>executor</tt>. The returned entities are detached when the entity manager is closed. See {@link AsyncQueryExecutor}
+	 *
+	 * @param filter
+	 *            the filter
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param entityClass
+	 *            the entity class
+	 * @param executor
+	 *            the executor running the query
+	 * @return future completed with the entities matching given filter
+	 */
+	public <E, F extends PageableFilter> CompletableFuture<List<E>> listEntitiesAsync(final F filter, final BiFunction<CriteriaApiObjects<E>, F, QueryConfig> queryConfigFactory, final Class<E> entityClass, final AsyncQueryExecutor executor) {
+		NullUtils.checkNotNull(executor, "Invalid argument: executor should not be null");
+		return executor.submit(em -> {
+			final JpaUtils jpaUtils = withEntityManager(() -> em);
+			return jpaUtils.listEntities(filter.getFirstResult(), filter.getMaxResults(), executor.withQueryTimeout(bindFilter(filter, queryConfigFactory)), entityClass,
+					jpaUtils.createPlanKey("list", entityClass));
+		});
+	}
+
+	/**
+	 * Lists entity IDs matching given filter asynchronously with a separate entity manager of the <tt>executor</tt>. See {@link AsyncQueryExecutor}
+	 *
+	 * @param filter
+	 *            the filter
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param entityClass
+	 *            the entity class
+	 * @param executor
+	 *            the executor running the query
+	 * @return future completed with the IDs of the entities matching given filter
+	 */
+	public <E extends IdentifiableEntity, F extends PageableFilter> CompletableFuture<List<Long>> listEntityIdsAsync(final F filter, final BiFunction<CriteriaApiObjects<E>, F, QueryConfig> queryConfigFactory, final Class<E> entityClass,
+			final AsyncQueryExecutor executor) {
+		NullUtils.checkNotNull(executor, "Invalid argument: executor should not be null");
+		return executor.submit(em -> {
+			final JpaUtils jpaUtils = withEntityManager(() -> em);
+			return jpaUtils.listEntityIds(filter.getFirstResult(), filter.getMaxResults(), executor.withQueryTimeout(bindFilter(filter, queryConfigFactory)), entityClass,
+					jpaUtils.createPlanKey("ids", entityClass));
+		});
+	}
+
+	/**
+	 * Counts entities matching given filter asynchronously with a separate entity manager of the <tt>executor</tt>. See {@link AsyncQueryExecutor}
+	 *
+	 * @param filter
+	 *            the filter
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param entityClass
+	 *            the entity class
+	 * @param executor
+	 *            the executor running the query
+	 * @return future completed with the number of entities matching given filter
+	 */
+	public <E extends IdentifiableEntity, F extends Filter> CompletableFuture<Long> countEntitiesAsync(final F filter, final BiFunction<CriteriaApiObjects<E>, F, QueryConfig> queryConfigFactory, final Class<E> entityClass,
+			final AsyncQueryExecutor executor) {
+		NullUtils.checkNotNull(executor, "Invalid argument: executor should not be null");
+		return executor.submit(em -> {
+			final JpaUtils jpaUtils = withEntityManager(() -> em);
+			return jpaUtils.countEntities(executor.withQueryTimeout(bindFilter(filter, queryConfigFactory)), entityClass, jpaUtils.createPlanKey("count", entityClass));
+		});
+	}
+
+	private boolean isTotalKnown(final int firstResult, final int maxResults, final List<?> items) {
+		final boolean lastPage = maxResults <= 0 || items.size() < maxResults;
+		return lastPage && (firstResult <= 0 || !items.isEmpty());
+	}
+
+	/**
+	 * List entities matching given query configuration using keyset (seek) pagination. The sort orders of the query configuration are extended with the entity id and the sort key values of the last row of the previous page are turned into seek predicates, so
+	 * deep pages cost the same as the first one.
+	 * <p>
+	 * <tt>null</tt> sort key values are sorted after all other values in both directions, because the nullable sort expressions (see {@link #isNullable(Expression)}) are preceded by an <tt>IS NULL</tt> indicator in the sort orders. The order does
+	 * not depend on the <tt>NULL</tt> ordering of the database.
+	 *
+	 * @param continuationToken
+	 *            the continuation token returned with the previous page. <tt>null</tt> means the first page
+	 * @param maxResults
+	 *            the maximum number of results to retrieve.
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param entityClass
+	 *            the entity class
+	 * @return a page of entities matching given query configuration
+	 */
+	public <E extends IdentifiableEntity> KeysetPage<E> listEntities(final String continuationToken, final int maxResults, final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final Class<E> entityClass) {
+		final EntityManager em = em();
+		final CriteriaBuilder cb = em.getCriteriaBuilder();
+		final CriteriaQuery<Object[]> cq = cb.createQuery(Object[].class);
+		final Root<E> root = cq.from(entityClass);
+
+		return executeKeysetQuery(em, continuationToken, maxResults, queryConfigFactory, cb, cq, root, root);
+	}
+
+	/**
+	 * List entities matching given filter using keyset (seek) pagination
+	 *
+	 * @param filter
+	 *            the filter
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param entityClass
+	 *            the entity class
+	 * @return a page of entities matching given filter
+	 */
+	public <E extends IdentifiableEntity, F extends KeysetPageableFilter> KeysetPage<E> listEntities(final F filter, final BiFunction<CriteriaApiObjects<E>, F, QueryConfig> queryConfigFactory, final Class<E> entityClass) {
+		return listEntities(filter.getContinuationToken(), filter.getMaxResults(), bindFilter(filter, queryConfigFactory), entityClass);
+	}
+
+	/**
+	 * List entity IDs matching given query configuration using keyset (seek) pagination. See {@link #listEntities(String, int, Function, Class)}
+	 *
+	 * @param continuationToken
+	 *            the continuation token returned with the previous page. <tt>null</tt> means the first page
+	 * @param maxResults
+	 *            the maximum number of results to retrieve.
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param entityClass
+	 *            the entity class
+	 * @return a page of entity IDs matching given query configuration
+	 */
+	public <E extends IdentifiableEntity> KeysetPage<Long> listEntityIds(final String continuationToken, final int maxResults, final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final Class<E> entityClass) {
+		final EntityManager em = em();
+		final CriteriaBuilder cb = em.getCriteriaBuilder();
+		final CriteriaQuery<Object[]> cq = cb.createQuery(Object[].class);
+		final Root<E> root = cq.from(entityClass);
+
+		return executeKeysetQuery(em, continuationToken, maxResults, queryConfigFactory, cb, cq, root, root.get(IdentifiableEntity_.id));
+	}
+
+	/**
+	 * List entity IDs matching given filter using keyset (seek) pagination
+	 *
+	 * @param filter
+	 *            the filter
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param entityClass
+	 *            the entity class
+	 * @return a page of entity IDs matching given filter
+	 */
+	public <E extends IdentifiableEntity, F extends KeysetPageableFilter> KeysetPage<Long> listEntityIds(final F filter, final BiFunction<CriteriaApiObjects<E>, F, QueryConfig> queryConfigFactory, final Class<E> entityClass) {
+		return listEntityIds(filter.getContinuationToken(), filter.getMaxResults(), bindFilter(filter, queryConfigFactory), entityClass);
+	}
+
+	/**
+	 * Streams entities matching given query configuration. The entities are lazily fetched in chunks using keyset pagination (see {@link #listEntities(String, int, Function, Class)}) and the entities of a chunk are detached from the persistence context before the
+	 * next chunk is fetched, so the memory usage does not depend on the number of returned entities. The entity manager is flushed before detaching (see {@link #detach(EntityManager, Collection)}), so the changes of the streamed entities
+	 * are not lost.
+	 * <p>
+	 * The stream must be used within the lifetime of the entity manager and should be closed when not fully consumed:
+	 *
+	 * <pre>
+	 * <code>
+	 * try (Stream&lt;MyEntity&gt; s = jpaUtils.streamEntities(cao -&gt; createQueryConfig(cao), MyEntity.class, 1000)) {
+	 *   s.forEach(e -&gt; export(e));
+	 * }
+	 * </code>
+	 * </pre>
 	 *
-	 * @param firstResult
-	 *            the position of the first result to retrieve.
-	 * @param maxResults
-	 *            the maximum number of results to retrieve.
 	 * @param queryConfigFactory
 	 *            the query configuration factory
 	 * @param entityClass
 	 *            the entity class
-	 * @return a list of entities matching given query configuration
+	 * @param chunkSize
+	 *            the number of entities fetched with a single query
+	 * @return a lazily fetched stream of entities matching given query configuration
 	 */
-	public <E> List<E> listEntities(final int firstResult, final int maxResults, final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final Class<E> entityClass) {
+	public <E extends IdentifiableEntity> Stream<E> streamEntities(final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final Class<E> entityClass, final int chunkSize) {
+		NullUtils.checkNotNull(entityClass, "Invalid argument: entityClass should not be null");
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("Invalid argument: chunkSize must be positive");
+		}
 		final EntityManager em = em();
-		final CriteriaBuilder cb = em.getCriteriaBuilder();
-		final CriteriaQuery<E> cq = cb.createQuery(entityClass);
-		final Root<E> root = cq.from(entityClass);
-
-		cq.select(root);
-
-		return executeQuery(em, firstResult, maxResults, queryConfigFactory, cb, cq, root);
+		final KeysetIterator<E> it = new KeysetIterator<>(continuationToken -> {
+			final CriteriaBuilder cb = em.getCriteriaBuilder();
+			final CriteriaQuery<Object[]> cq = cb.createQuery(Object[].class);
+			final Root<E> root = cq.from(entityClass);
+			return executeKeysetQuery(em, continuationToken, chunkSize, queryConfigFactory, cb, cq, root, root);
+		}, chunk -> detach(em, chunk));
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(it::close);
 	}
 
 	/**
-	 * List entities matching given filter
+	 * Streams entities matching given filter. The paging properties of the filter are ignored. See {@link #streamEntities(Function, Class, int)}
 	 *
 	 * @param filter
 	 *            the filter
@@ -409,49 +2120,161 @@ public class JpaUtils {
 	 *            the query configuration factory
 	 * @param entityClass
 	 *            the entity class
-	 * @return List entities matching given filter
+	 * @param chunkSize
+	 *            the number of entities fetched with a single query
+	 * @return a lazily fetched stream of entities matching given filter
 	 */
-	public <E, F extends PageableFilter> List<E> listEntities(final F filter, final BiFunction<CriteriaApiObjects<E>, F, QueryConfig> queryConfigFactory, final Class<E> entityClass) {
-		return listEntities(filter.getFirstResult(), filter.getMaxResults(), cao -> queryConfigFactory.apply(cao, filter), entityClass);
+	public <E extends IdentifiableEntity, F extends Filter> Stream<E> streamEntities(final F filter, final BiFunction<CriteriaApiObjects<E>, F, QueryConfig> queryConfigFactory, final Class<E> entityClass, final int chunkSize) {
+		return streamEntities(bindFilter(filter, queryConfigFactory), entityClass, chunkSize);
 	}
 
 	/**
-	 * List entity IDs matching given query configuration
+	 * Executes a keyset (seek) query and returns a page of results
 	 *
-	 * @param firstResult
-	 *            the position of the first result to retrieve.
+	 * @param em
+	 *            the entity manager
+	 * @param continuationToken
+	 *            the continuation token returned with the previous page. <tt>null</tt> means the first page
 	 * @param maxResults
 	 *            the maximum number of results to retrieve.
 	 * @param queryConfigFactory
 	 *            the query configuration factory
-	 * @param entityClass
-	 *            the entity class
-	 * @return a list of entities matching given query configuration
+	 * @param cb
+	 *            criteria builder
+	 * @param cq
+	 *            criteria query
+	 * @param root
+	 *            the entity root
+	 * @param selection
+	 *            the selection returned as page items
+	 * @return a page of results
 	 */
-	public <E extends IdentifiableEntity> List<Long> listEntityIds(final int firstResult, final int maxResults, final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final Class<E> entityClass) {
-		final EntityManager em = em();
-		final CriteriaBuilder cb = em.getCriteriaBuilder();
-		final CriteriaQuery<Long> cq = cb.createQuery(Long.class);
-		final Root<E> root = cq.from(entityClass);
+	@SuppressWarnings("unchecked")
+	protected <E extends IdentifiableEntity, R> KeysetPage<R> executeKeysetQuery(final EntityManager em, final String continuationToken, final int maxResults, final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final CriteriaBuilder cb,
+			final CriteriaQuery<Object[]> cq, final Root<E> root, final Selection<? extends R> selection) {
+		final QueryConfig qc = createQueryConfig(queryConfigFactory, cb, cq, root);
 
-		cq.select(root.get(IdentifiableEntity_.id));
+		final List<Order> sortOrders = new ArrayList<>();
+		if (ExtCollectionUtils.isNotEmpty(qc.getSortOrders())) {
+			for (final Order order : qc.getSortOrders()) {
+				if (isNullable(order.getExpression())) {
+					// explicit NULL ordering, so the seek predicate matches the order of every database
+					sortOrders.add(cb.asc(cb.<Integer> selectCase().when(cb.isNull(order.getExpression()), 1).otherwise(0)));
+				}
+				sortOrders.add(order);
+			}
+		}
+		sortOrders.add(cb.asc(root.get(IdentifiableEntity_.id)));
+
+		final List<Selection<?>> selections = new ArrayList<>();
+		selections.add(selection);
+		sortOrders.forEach(o -> selections.add(o.getExpression()));
+		cq.multiselect(selections);
+
+		cq.distinct(qc.isDistinct());
+
+		final List<Predicate> predicates = new ArrayList<>(qc.getPredicates());
+		if (StringUtils.isNotBlank(continuationToken)) {
+			predicates.add(createSeekPredicate(cb, sortOrders, KeysetToken.decode(continuationToken, sortOrders.size())));
+		}
+		cq.where(predicates.toArray(new Predicate[predicates.size()]));
+
+		cq.orderBy(sortOrders);
+
+		final TypedQuery<Object[]> q = em.createQuery(cq);
+		applyParams(q, qc);
+		// the graphs apply to the entities of the root, the sort key values are selected together with them
+		applyHints(em, q, qc, selection == root ? root.getJavaType() : null);
+
+		if (maxResults > 0) {
+			q.setMaxResults(maxResults + 1);
+		}
+		final boolean tracked = !applyReadOnly(q, qc);
+
+		if (sqlLogger != null) {
+			sqlLogger.log(q, null);
+		}
+		final long start = System.nanoTime();
+		final List<Object[]> rows = ExtCollectionUtils.defaultList(q.getResultList());
+		if (isInstrumented()) {
+			recordInListSize(root.getJavaType(), qc);
+			recordOperation(QueryMetrics.KEYSET, root.getJavaType(), start, rows.size(), sqlOf(q));
+		}
+		final boolean hasNext = maxResults > 0 && rows.size() > maxResults;
+		final List<Object[]> pageRows = hasNext ? rows.subList(0, maxResults) : rows;
+		final List<R> items = pageRows.stream().map(row -> (R) row[0]).collect(Collectors.toList());
+		if (qc.isReadOnly() && tracked) {
+			detach(em, items);
+		}
 
-		return executeQuery(em, firstResult, maxResults, queryConfigFactory, cb, cq, root);
+		String nextToken = null;
+		if (hasNext) {
+			final Object[] lastRow = pageRows.get(pageRows.size() - 1);
+			nextToken = KeysetToken.encode(Arrays.asList(lastRow).subList(1, lastRow.length));
+		}
+		return new KeysetPage<>(items, nextToken);
 	}
 
 	/**
-	 * List entities matching given filter
+	 * Creates the seek predicate selecting rows located after the row with given sort key values. For sort orders <tt>(k1, k2, ... kn)</tt> the predicate is <tt>(k1 &gt; v1) OR (k1 = v1 AND k2 &gt; v2) OR ... </tt>, where <tt>&gt;</tt> is replaced with <tt>&lt;</tt>
+	 * for descending orders. For <tt>null</tt> value <tt>vi</tt> the term with <tt>ki &gt; vi</tt> is left out (the rows with <tt>null</tt> key are ordered by the <tt>IS NULL</tt> indicator preceding the key) and <tt>ki = vi</tt> is replaced
+	 * with <tt>ki IS NULL</tt>. The names of enum values are converted to the enum type of the sort expression.
 	 *
-	 * @param filter
-	 *            the filter
-	 * @param queryConfigFactory
-	 *            the query configuration factory
-	 * @param entityClass
-	 *            the entity class
-	 * @return List entities matching given filter
+	 * @param cb
+	 *            criteria builder
+	 * @param sortOrders
+	 *            the sort orders
+	 * @param values
+	 *            the sort key values of the last seen row
+	 * @return the seek predicate
 	 */
-	public <E extends IdentifiableEntity, F extends PageableFilter> List<Long> listEntityIds(final F filter, final BiFunction<CriteriaApiObjects<E>, F, QueryConfig> queryConfigFactory, final Class<E> entityClass) {
-		return listEntityIds(filter.getFirstResult(), filter.getMaxResults(), cao -> queryConfigFactory.apply(cao, filter), entityClass);
+	@SuppressWarnings("unchecked")
+	protected Predicate createSeekPredicate(final CriteriaBuilder cb, final List<Order> sortOrders, final List<Object> values) {
+		final List<Predicate> disjunction = new ArrayList<>();
+		final List<Predicate> equalities = new ArrayList<>();
+		for (int i = 0; i < sortOrders.size(); i++) {
+			final Order order = sortOrders.get(i);
+			final Expression<Comparable<Object>> key = (Expression<Comparable<Object>>) order.getExpression();
+			final Comparable<Object> value = (Comparable<Object>) toSortKeyValue(key, values.get(i));
+			if (value == null) {
+				equalities.add(cb.isNull(key));
+				continue;
+			}
+
+			final List<Predicate> conjunction = new ArrayList<>(equalities);
+			conjunction.add(order.isAscending() ? cb.greaterThan(key, value) : cb.lessThan(key, value));
+			disjunction.add(cb.and(conjunction.toArray(new Predicate[conjunction.size()])));
+
+			equalities.add(cb.equal(key, value));
+		}
+		return cb.or(disjunction.toArray(new Predicate[disjunction.size()]));
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Object toSortKeyValue(final Expression<?> key, final Object value) {
+		final Class<?> type = key.getJavaType();
+		if (value instanceof String && type != null && type.isEnum()) {
+			return Enum.valueOf((Class<? extends Enum>) type, (String) value);
+		}
+		return value;
+	}
+
+	/**
+	 * Checks if the sort expression of a keyset query can evaluate to <tt>null</tt>. Only the paths of attributes that are not optional and the primitive attributes are considered not nullable.
+	 *
+	 * @param expression
+	 *            the sort expression
+	 * @return <tt>true</tt> if the expression can evaluate to <tt>null</tt>
+	 */
+	protected boolean isNullable(final Expression<?> expression) {
+		if (expression instanceof Path) {
+			final Bindable<?> model = ((Path<?>) expression).getModel();
+			if (model instanceof SingularAttribute) {
+				final SingularAttribute<?, ?> attribute = (SingularAttribute<?, ?>) model;
+				return attribute.isOptional() && !attribute.isId() && !attribute.getJavaType().isPrimitive();
+			}
+		}
+		return true;
 	}
 
 	/**
@@ -475,7 +2298,46 @@ public class JpaUtils {
 	 */
 	protected <E, R> List<R> executeQuery(final EntityManager em, final int firstResult, final int maxResults, final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final CriteriaBuilder cb, final CriteriaQuery<R> cq, final Root<E> root) {
 		final QueryConfig qc = createQueryConfig(queryConfigFactory, cb, cq, root);
+		return executeQuery(em, firstResult, maxResults, qc, cq);
+	}
+
+	/**
+	 * Executes a query using already created query configuration and returns a list of entities
+	 *
+	 * @param em
+	 *            the entity manager
+	 * @param firstResult
+	 *            the position of the first result to retrieve.
+	 * @param maxResults
+	 *            the maximum number of results to retrieve.
+	 * @param qc
+	 *            the query configuration
+	 * @param cq
+	 *            criteria query
+	 * @return list of entities
+	 */
+	protected <R> List<R> executeQuery(final EntityManager em, final int firstResult, final int maxResults, final QueryConfig qc, final CriteriaQuery<R> cq) {
+		return executeQuery(em, firstResult, maxResults, qc, cq, null);
+	}
 
+	/**
+	 * Executes a query using already created query configuration and returns a list of entities
+	 *
+	 * @param em
+	 *            the entity manager
+	 * @param firstResult
+	 *            the position of the first result to retrieve.
+	 * @param maxResults
+	 *            the maximum number of results to retrieve.
+	 * @param qc
+	 *            the query configuration
+	 * @param cq
+	 *            criteria query
+	 * @param planKey
+	 *            the key of the query plan in the query plan cache or <tt>null</tt> if the query plan must not be cached
+	 * @return list of entities
+	 */
+	protected <R> List<R> executeQuery(final EntityManager em, final int firstResult, final int maxResults, final QueryConfig qc, final CriteriaQuery<R> cq, final List<Object> planKey) {
 		cq.distinct(qc.isDistinct());
 
 		cq.where(qc.getPredicatesArray());
@@ -484,8 +2346,7 @@ public class JpaUtils {
 			cq.orderBy(qc.getSortOrders());
 		}
 
-		final TypedQuery<R> q = em.createQuery(cq);
-		applyParams(q, qc);
+		final TypedQuery<R> q = createQuery(em, cq, qc, planKey);
 
 		if (firstResult > 0) {
 			q.setFirstResult(firstResult);
@@ -493,11 +2354,209 @@ public class JpaUtils {
 		if (maxResults > 0) {
 			q.setMaxResults(maxResults);
 		}
+		final boolean tracked = !applyReadOnly(q, qc);
 
+		if (sqlLogger != null) {
+			sqlLogger.log(q, completePlanKey(planKey, qc));
+		}
+		final long start = System.nanoTime();
 		final List<R> ids = ExtCollectionUtils.defaultList(q.getResultList());
+		if (isInstrumented()) {
+			final Class<?> entityClass = rootClass(cq);
+			recordInListSize(entityClass, qc);
+			recordOperation(QueryMetrics.LIST, entityClass, start, ids.size(), sqlOf(q));
+		}
+		if (qc.isReadOnly() && tracked) {
+			detach(em, ids);
+		}
 		return ids;
 	}
 
+	/**
+	 * Prepares the query for reading entities that will not be modified, if the query configuration is read-only. The flush mode is set to {@link FlushModeType#COMMIT}, so the pending changes are not flushed before the query, and the read-only
+	 * hints of the JPA dialect are applied.
+	 *
+	 * @param q
+	 *            the query
+	 * @param qc
+	 *            the query configuration
+	 * @return <tt>true</tt> if the read-only hints are applied and the JPA provider will not track the results
+	 */
+	protected boolean applyReadOnly(final TypedQuery<?> q, final QueryConfig qc) {
+		if (!qc.isReadOnly()) {
+			return false;
+		}
+		q.setFlushMode(FlushModeType.COMMIT);
+		final Map<String, Object> hints = jpaDialect != null ? jpaDialect.getReadOnlyHints() : null;
+		if (hints == null || hints.isEmpty()) {
+			return false;
+		}
+		hints.forEach(q::setHint);
+		return true;
+	}
+
+	/**
+	 * Detaches the entities returned by a read-only query, when the JPA provider has no read-only hints. The results that are not entities (e.g. IDs or projections) are ignored.
+	 * <p>
+	 * An entity which was already managed before the query is returned as the same instance and is detached too, so the entity manager is flushed first if it is joined to a transaction, otherwise the pending changes of such entity would be
+	 * lost.
+	 *
+	 * @param em
+	 *            the entity manager
+	 * @param results
+	 *            the results of the query
+	 */
+	protected void detach(final EntityManager em, final Collection<?> results) {
+		final Object first = results.stream().filter(Objects::nonNull).findFirst().orElse(null);
+		if (first == null || !isEntity(em, first.getClass())) {
+			return;
+		}
+		if (em.isJoinedToTransaction()) {
+			em.flush();
+		}
+		results.forEach(r -> {
+			if (r != null) {
+				em.detach(r);
+			}
+		});
+	}
+
+	private boolean isEntity(final EntityManager em, final Class<?> type) {
+		try {
+			return em.getMetamodel().entity(type) != null;
+		} catch (final IllegalArgumentException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * Binds the filter to the query configuration factory. The query configuration is read-only if the filter is read-only (see {@link PageableFilter#isReadOnly()})
+	 *
+	 * @param filter
+	 *            the filter
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @return the query configuration factory bound to the filter
+	 */
+	protected <E, F extends Filter> Function<CriteriaApiObjects<E>, QueryConfig> bindFilter(final F filter, final BiFunction<CriteriaApiObjects<E>, F, QueryConfig> queryConfigFactory) {
+		if (!(filter instanceof PageableFilter) || !((PageableFilter) filter).isReadOnly()) {
+			return cao -> queryConfigFactory.apply(cao, filter);
+		}
+		return cao -> {
+			final QueryConfig qc = queryConfigFactory.apply(cao, filter);
+			return qc != null ? qc.asReadOnly() : new QueryConfig(null, null, null, true, true);
+		};
+	}
+
+	/**
+	 * Creates a typed query and binds the parameters of the query configuration. If <tt>planKey</tt> is not <tt>null</tt> and the query configuration has a plan key and parameterized predicates (see {@link QueryPlanCache#isCacheable(QueryConfig)}),
+	 * the query is created from the cached query plan or the query plan is cached for subsequent calls.
+	 *
+	 * @param em
+	 *            the entity manager
+	 * @param cq
+	 *            criteria query
+	 * @param qc
+	 *            the query configuration
+	 * @param planKey
+	 *            the base of the query plan key (see {@link #createPlanKey(String, Class)}) or <tt>null</tt> if the query plan must not be cached
+	 * @return the typed query
+	 */
+	protected <R> TypedQuery<R> createQuery(final EntityManager em, final CriteriaQuery<R> cq, final QueryConfig qc, final List<Object> planKey) {
+		final List<Object> key = completePlanKey(planKey, qc);
+		if (queryPlanCache == null || key == null) {
+			final TypedQuery<R> q = em.createQuery(cq);
+			applyParams(q, qc);
+			applyHints(em, q, qc, getSelectedEntityType(cq));
+			return q;
+		}
+		final QueryPlanCache.QueryPlan plan = queryPlanCache.lookup(key, qc);
+		if (plan != null) {
+			final TypedQuery<R> q = em.createNamedQuery(plan.getName(), cq.getResultType());
+			plan.bind(q, qc);
+			applyHints(em, q, qc, getSelectedEntityType(cq));
+			return q;
+		}
+		final TypedQuery<R> q = em.createQuery(cq);
+		queryPlanCache.register(key, em.getEntityManagerFactory(), q, qc);
+		applyParams(q, qc);
+		applyHints(em, q, qc, getSelectedEntityType(cq));
+		return q;
+	}
+
+	/**
+	 * Returns the type returned by the query: the type of the root if the root is selected (e.g. by the untyped query of {@link #listPage(int, int, Function, Class)}), otherwise the result type of the query
+	 *
+	 * @param cq
+	 *            the criteria query
+	 * @return the type returned by the query
+	 */
+	private static Class<?> getSelectedEntityType(final CriteriaQuery<?> cq) {
+		final Selection<?> selection = cq.getSelection();
+		return selection instanceof Root ? selection.getJavaType() : cq.getResultType();
+	}
+
+	/**
+	 * Applies the hints, the fetch graph and the load graph of the query configuration to the query. The graphs are applied only if the query returns entities.
+	 *
+	 * @param em
+	 *            the entity manager
+	 * @param q
+	 *            the query
+	 * @param qc
+	 *            the query configuration
+	 * @param resultType
+	 *            the type of the entities returned by the query or <tt>null</tt> if the query does not return entities
+	 */
+	protected void applyHints(final EntityManager em, final TypedQuery<?> q, final QueryConfig qc, final Class<?> resultType) {
+		if (qc == null) {
+			return;
+		}
+		if (!qc.getHints().isEmpty()) {
+			qc.getHints().forEach(q::setHint);
+		}
+		if ((qc.getFetchGraph() != null || qc.getLoadGraph() != null) && resultType != null && isEntity(em, resultType)) {
+			if (qc.getFetchGraph() != null) {
+				q.setHint(QueryConfig.FETCH_GRAPH_HINT, qc.getFetchGraph());
+			}
+			if (qc.getLoadGraph() != null) {
+				q.setHint(QueryConfig.LOAD_GRAPH_HINT, qc.getLoadGraph());
+			}
+		}
+	}
+
+	/**
+	 * Creates the base of the query plan key - the entity manager factory, the entity class and the kind of the query. The key is completed with the plan key of the query configuration (see {@link #completePlanKey(List, QueryConfig)}).
+	 *
+	 * @param queryKind
+	 *            the kind of the query (e.g. list or count)
+	 * @param entityClass
+	 *            the entity class
+	 * @return the base of the query plan key or <tt>null</tt> if there is neither query plan cache nor SQL logger
+	 */
+	protected List<Object> createPlanKey(final String queryKind, final Class<?> entityClass) {
+		if (queryPlanCache == null && sqlLogger == null) {
+			return null;
+		}
+		return Arrays.asList(em().getEntityManagerFactory(), entityClass, queryKind);
+	}
+
+	/**
+	 * Completes the base of the query plan key with the plan key of the query configuration (see {@link QueryConfig#withPlanKey(Object)})
+	 *
+	 * @param planKey
+	 *            the base of the query plan key
+	 * @param qc
+	 *            the query configuration
+	 * @return the query plan key or <tt>null</tt> if the query is not cacheable (see {@link QueryPlanCache#isCacheable(QueryConfig)})
+	 */
+	protected List<Object> completePlanKey(final List<Object> planKey, final QueryConfig qc) {
+		if (planKey == null || !QueryPlanCache.isCacheable(qc)) {
+			return null;
+		}
+		return ListUtils.union(planKey, Collections.singletonList(qc.getPlanKey()));
+	}
+
 	/**
 	 * Constructs a query configuraion object using provided factory
 	 *
@@ -512,10 +2571,39 @@ public class JpaUtils {
 	 * @return query configuration object
 	 */
 	protected <E> QueryConfig createQueryConfig(final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final CriteriaBuilder cb, final CriteriaQuery<?> cq, final Root<E> root) {
+		return createQueryConfig(queryConfigFactory, cb, (CommonAbstractCriteria) cq, root);
+	}
+
+	/**
+	 * Constructs a query configuraion object for a query, bulk update or bulk delete using provided factory
+	 *
+	 * @param queryConfigFactory
+	 *            the factory
+	 * @param cb
+	 *            the criteria builder
+	 * @param criteria
+	 *            the criteria query, update or delete
+	 * @param root
+	 *            the root of the entity
+	 * @return query configuration object
+	 */
+	protected <E> QueryConfig createQueryConfig(final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final CriteriaBuilder cb, final CommonAbstractCriteria criteria, final Root<E> root) {
+		return createQueryConfig(queryConfigFactory, new CriteriaApiObjects<>(cb, criteria, root));
+	}
+
+	/**
+	 * Creates query configuration from the given query configuration factory
+	 *
+	 * @param queryConfigFactory
+	 *            the query configuration factory
+	 * @param cao
+	 *            the criteria API objects passed to the factory
+	 * @return the query configuration. Never <tt>null</tt>
+	 */
+	protected <E> QueryConfig createQueryConfig(final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final CriteriaApiObjects<E> cao) {
 		QueryConfig c = null;
 		if (queryConfigFactory != null) {
-			final CriteriaApiObjects<E> param = new CriteriaApiObjects<>(cb, cq, root);
-			c = queryConfigFactory.apply(param);
+			c = queryConfigFactory.apply(cao);
 		}
 		if (c == null) {
 			c = new QueryConfig(null, null, null, true);
@@ -524,7 +2612,7 @@ public class JpaUtils {
 	}
 
 	/**
-	 * Logs query SQL to logger using debug level
+	 * Logs query SQL to logger using debug level. The SQL is rendered on every call, use {@link SqlLogger} for caching, sampling and asynchronous logging
 	 *
 	 * @param logger
 	 *            the logger
@@ -578,29 +2666,67 @@ public class JpaUtils {
 		if (StringUtils.isBlank(sequenceName)) {
 			throw new IllegalArgumentException("Invalid argument: sequenceName cannot be blank");
 		}
-		final Query q = em().createNativeQuery(dialect.createSequenceNextValueSql(sequenceName));
-		return ((Number) q.getSingleResult()).longValue();
+		final String sql = dialect.createSequenceNextValueSql(sequenceName);
+		final long start = System.nanoTime();
+		final Query q = em().createNativeQuery(sql);
+		final long id = ((Number) q.getSingleResult()).longValue();
+		if (isInstrumented()) {
+			recordOperation(QueryMetrics.GENERATE_ID, null, start, 1, () -> sql);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns next <tt>count</tt> IDs from the sequence. If the dialect supports it (see {@link DatabaseDialect#createSequenceNextValuesSql(String, int)}) the IDs are fetched with single query, otherwise a query is executed for each ID.
+	 *
+	 * @param dialect
+	 *            the database dialect
+	 * @param sequenceName
+	 *            the sequence name
+	 * @param count
+	 *            the number of IDs
+	 * @return the next IDs from the sequence
+	 */
+	public long[] generateIds(final DatabaseDialect dialect, final String sequenceName, final int count) {
+		NullUtils.checkNotNull(dialect, "Invalid argumant: dialect cannot be null");
+		if (StringUtils.isBlank(sequenceName)) {
+			throw new IllegalArgumentException("Invalid argument: sequenceName cannot be blank");
+		}
+		if (count < 1) {
+			throw new IllegalArgumentException("Invalid argument: count should be positive");
+		}
+		final String sql = count > 1 ? dialect.createSequenceNextValuesSql(sequenceName, count) : null;
+		if (sql == null) {
+			final long[] ids = new long[count];
+			for (int i = 0; i < count; i++) {
+				ids[i] = generateId(dialect, sequenceName);
+			}
+			return ids;
+		}
+		final long start = System.nanoTime();
+		final List<?> rows = em().createNativeQuery(sql).getResultList();
+		if (isInstrumented()) {
+			recordOperation(QueryMetrics.GENERATE_ID, null, start, rows.size(), () -> sql);
+		}
+		final long[] ids = new long[rows.size()];
+		int i = 0;
+		for (final Object row : rows) {
+			ids[i++] = ((Number) row).longValue();
+		}
+		return ids;
 	}
 
 	/**
-	 * Returns the ID of the transaction bound to the current thread at the time this method is called
+	 * Returns the ID of the transaction bound to the current thread at the time this method is called. See {@link TransactionContext#getDefault()}
 	 *
 	 * @return the ID of the transaction bound to the current thread at the time this method is called
 	 */
 	public static String getTransactionId() {
-		String id = "";
 		try {
-			final TransactionSynchronizationRegistry reg = (TransactionSynchronizationRegistry) new InitialContext().lookup("java:comp/TransactionSynchronizationRegistry");
-			if (reg != null) {
-				final Object key = reg.getTransactionKey();
-				if (key != null) {
-					id = key.toString();
-				}
-			}
-		} catch (final Exception ex) {
-			// ignore
+			return TransactionContext.getDefault().getTransactionId();
+		} catch (final RuntimeException ex) {
+			return "";
 		}
-		return id;
 	}
 
 	/**
@@ -608,6 +2734,12 @@ public class JpaUtils {
 	 */
 	public void clearCache() {
 		em().getEntityManagerFactory().getCache().evictAll();
+		if (entityCache != null) {
+			entityCache.clear();
+		}
+		if (invalidationBus != null) {
+			invalidationBus.publish(CacheInvalidation.all());
+		}
 	}
 
 	/**
@@ -618,6 +2750,12 @@ public class JpaUtils {
 	 */
 	public void clearCache(final Class<?> clazz) {
 		em().getEntityManagerFactory().getCache().evict(clazz);
+		if (entityCache != null && clazz != null) {
+			entityCache.invalidate(clazz);
+		}
+		if (invalidationBus != null && clazz != null) {
+			invalidationBus.publish(CacheInvalidation.of(clazz));
+		}
 	}
 
 	/**
@@ -658,6 +2796,12 @@ public class JpaUtils {
 	protected void clearCache(final EntityManager em, final Class<?> entityClass, final Long entityId) {
 		if (entityClass != null && entityId != null) {
 			em.getEntityManagerFactory().getCache().evict(entityClass, entityId);
+			if (entityCache != null) {
+				entityCache.invalidate(entityClass, entityId);
+			}
+			if (invalidationBus != null) {
+				invalidationBus.publish(CacheInvalidation.of(entityClass, entityId, 0));
+			}
 		}
 	}
 }
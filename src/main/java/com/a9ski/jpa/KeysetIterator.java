@@ -0,0 +1,87 @@
+package com.a9ski.jpa;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Iterator that lazily fetches results in chunks using keyset pagination. Only a single chunk is held in memory, the previous chunk is released before the next one is fetched.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ * @param <R>
+ *            the type of the items
+ */
+final class KeysetIterator<R> implements Iterator<R>, AutoCloseable {
+
+	private final Function<String, KeysetPage<R>> pageLoader;
+	private final Consumer<List<R>> chunkReleaser;
+
+	private List<R> chunk = Collections.emptyList();
+	private int position;
+	private String continuationToken;
+	private boolean lastChunk;
+	private boolean closed;
+
+	/**
+	 * Creates a new iterator
+	 *
+	 * @param pageLoader
+	 *            function loading the page for given continuation token (<tt>null</tt> for the first page)
+	 * @param chunkReleaser
+	 *            callback invoked with every chunk that is no longer needed (e.g. for detaching the entities from the persistence context)
+	 */
+	KeysetIterator(final Function<String, KeysetPage<R>> pageLoader, final Consumer<List<R>> chunkReleaser) {
+		super();
+		this.pageLoader = pageLoader;
+		this.chunkReleaser = chunkReleaser;
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (!closed && position >= chunk.size()) {
+			if (lastChunk) {
+				close();
+			} else {
+				fetchNextChunk();
+			}
+		}
+		return !closed;
+	}
+
+	@Override
+	public R next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return chunk.get(position++);
+	}
+
+	private void fetchNextChunk() {
+		releaseChunk();
+		final KeysetPage<R> page = pageLoader.apply(continuationToken);
+		chunk = page.getItems() != null ? page.getItems() : Collections.emptyList();
+		position = 0;
+		continuationToken = page.getContinuationToken();
+		lastChunk = !page.hasNext();
+	}
+
+	private void releaseChunk() {
+		if (!chunk.isEmpty()) {
+			chunkReleaser.accept(chunk);
+		}
+		chunk = Collections.emptyList();
+		position = 0;
+	}
+
+	@Override
+	public void close() {
+		if (!closed) {
+			releaseChunk();
+			closed = true;
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package com.a9ski.jpa;
+
+import java.util.List;
+
+/**
+ * A page of results fetched using keyset (seek) pagination.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ * @param <R>
+ *            the type of the items
+ */
+public class KeysetPage<R> {
+	private final List<R> items;
+	private final String continuationToken;
+
+	/**
+	 * Creates a new page
+	 *
+	 * @param items
+	 *            the items of the page
+	 * @param continuationToken
+	 *            the token used for fetching the next page or <tt>null</tt> if this is the last page
+	 */
+	public KeysetPage(final List<R> items, final String continuationToken) {
+		super();
+		this.items = items;
+		this.continuationToken = continuationToken;
+	}
+
+	/**
+	 * Returns the items of the page
+	 *
+	 * @return the items of the page
+	 */
+	public List<R> getItems() {
+		return items;
+	}
+
+	/**
+	 * Returns the opaque token used for fetching the next page or <tt>null</tt> if this is the last page
+	 *
+	 * @return the token used for fetching the next page
+	 */
+	public String getContinuationToken() {
+		return continuationToken;
+	}
+
+	/**
+	 * Returns true if there are more results after this page
+	 *
+	 * @return true if there are more results after this page
+	 */
+	public boolean hasNext() {
+		return continuationToken != null;
+	}
+}
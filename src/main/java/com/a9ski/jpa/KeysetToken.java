@@ -0,0 +1,174 @@
+package com.a9ski.jpa;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Encodes and decodes the sort key values of the last row of a page into an opaque continuation token used by keyset pagination.
+ * <p>
+ * Only plain value types are supported (numbers, strings, booleans, dates, enums and <tt>null</tt>), so decoding a token never instantiates arbitrary classes. Enums are encoded by name and decoded as strings, the name is converted to the
+ * enum type of the sort expression by the seek predicate.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+final class KeysetToken {
+
+	private static final String VALUE_SEPARATOR = ".";
+
+	private static final char NULL_TAG = '0';
+
+	private KeysetToken() {
+		super();
+	}
+
+	/**
+	 * Encodes sort key values into continuation token
+	 *
+	 * @param values
+	 *            the sort key values
+	 * @return the continuation token
+	 */
+	static String encode(final List<?> values) {
+		final StringBuilder sb = new StringBuilder();
+		for (final Object value : values) {
+			if (sb.length() > 0) {
+				sb.append(VALUE_SEPARATOR);
+			}
+			sb.append(typeTag(value));
+			if (value != null) {
+				sb.append(encodeString(valueToString(value)));
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Decodes continuation token into sort key values
+	 *
+	 * @param token
+	 *            the continuation token
+	 * @param expectedSize
+	 *            the expected number of sort key values
+	 * @return the sort key values
+	 */
+	static List<Object> decode(final String token, final int expectedSize) {
+		final String[] items = token.split("\\" + VALUE_SEPARATOR, -1);
+		if (items.length != expectedSize) {
+			throw new IllegalArgumentException("Invalid continuation token: expected " + expectedSize + " sort keys, but found " + items.length);
+		}
+		final List<Object> values = new ArrayList<>(items.length);
+		try {
+			for (final String item : items) {
+				if (item.isEmpty()) {
+					throw new IllegalArgumentException("Invalid continuation token: empty sort key");
+				}
+				values.add(item.charAt(0) == NULL_TAG ? null : stringToValue(item.charAt(0), decodeString(item.substring(1))));
+			}
+		} catch (final IllegalArgumentException ex) {
+			throw new IllegalArgumentException("Invalid continuation token", ex);
+		}
+		return values;
+	}
+
+	private static char typeTag(final Object value) { // NOSONAR
+		if (value == null) {
+			return NULL_TAG;
+		} else if (value instanceof Long) {
+			return 'L';
+		} else if (value instanceof Integer) {
+			return 'I';
+		} else if (value instanceof Short) {
+			return 'S';
+		} else if (value instanceof Byte) {
+			return 'B';
+		} else if (value instanceof Double) {
+			return 'D';
+		} else if (value instanceof Float) {
+			return 'F';
+		} else if (value instanceof BigDecimal) {
+			return 'N';
+		} else if (value instanceof BigInteger) {
+			return 'G';
+		} else if (value instanceof Boolean) {
+			return 'Z';
+		} else if (value instanceof String) {
+			return 'T';
+		} else if (value instanceof Timestamp) {
+			return 'P';
+		} else if (value instanceof java.sql.Date) {
+			return 'Q';
+		} else if (value instanceof Date) {
+			return 'U';
+		} else if (value instanceof Enum) {
+			return 'E';
+		}
+		throw new IllegalArgumentException("Keyset pagination does not support sort keys of type " + value.getClass().getName());
+	}
+
+	private static String valueToString(final Object value) {
+		if (value instanceof Timestamp) {
+			final Timestamp ts = (Timestamp) value;
+			return ts.getTime() + "," + ts.getNanos();
+		} else if (value instanceof Date) {
+			return Long.toString(((Date) value).getTime());
+		} else if (value instanceof Enum) {
+			return ((Enum<?>) value).name();
+		}
+		return value.toString();
+	}
+
+	private static Object stringToValue(final char tag, final String s) { // NOSONAR
+		switch (tag) {
+			case 'L':
+				return Long.valueOf(s);
+			case 'I':
+				return Integer.valueOf(s);
+			case 'S':
+				return Short.valueOf(s);
+			case 'B':
+				return Byte.valueOf(s);
+			case 'D':
+				return Double.valueOf(s);
+			case 'F':
+				return Float.valueOf(s);
+			case 'N':
+				return new BigDecimal(s);
+			case 'G':
+				return new BigInteger(s);
+			case 'Z':
+				return Boolean.valueOf(s);
+			case 'T':
+			case 'E':
+				return s;
+			case 'P':
+				final String[] parts = s.split(",");
+				if (parts.length != 2) {
+					throw new IllegalArgumentException("Invalid timestamp " + s);
+				}
+				final Timestamp ts = new Timestamp(Long.parseLong(parts[0]));
+				ts.setNanos(Integer.parseInt(parts[1]));
+				return ts;
+			case 'Q':
+				return new java.sql.Date(Long.parseLong(s));
+			case 'U':
+				return new Date(Long.parseLong(s));
+			default:
+				throw new IllegalArgumentException("Unknown sort key type " + tag);
+		}
+	}
+
+	private static String encodeString(final String s) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(s.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String decodeString(final String s) {
+		return new String(Base64.getUrlDecoder().decode(s), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,288 @@
+package com.a9ski.jpa;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+import com.a9ski.entities.filters.Matching;
+
+/**
+ * Builds LIKE patterns in a single pass over the text. Used by {@link CriteriaBuilderHelper#createLikePattern(String, char)}, {@link CriteriaBuilderHelper#createStartsWithPattern(String, char)} and
+ * {@link CriteriaBuilderHelper#createEndsWithPattern(String, char)}.
+ * <p>
+ * The result is the same as applying the following steps one after another:
+ * <ol>
+ * <li>Convert the text to lower case (see {@link CriteriaBuilderHelper#toIgnoreCaseString(String)}) and trim it</li>
+ * <li>Reduce all whitespaces to a single space</li>
+ * <li>Escape the escape character, '%' and '_'</li>
+ * <li>Reduce all whitespaces to a single space and replace all spaces with '%'</li>
+ * <li>Add '%' at the beginning and/or the end depending on the matching</li>
+ * </ol>
+ * Optionally the builder can reuse a per-thread buffer and cache the most recently built patterns.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+public class LikePatternBuilder {
+
+	private static final int MAX_CACHED_TEXT_LENGTH = 256;
+
+	private static final int MAX_BUFFER_CAPACITY = 1024;
+
+	private static volatile LikePatternBuilder defaultBuilder = new LikePatternBuilder(false, 0);
+
+	private final ThreadLocal<StringBuilder> buffer;
+
+	private final Map<CacheKey, String> cache;
+
+	/**
+	 * Creates a new builder
+	 *
+	 * @param reuseBuffer
+	 *            if <tt>true</tt> each thread reuses its own buffer for building the patterns
+	 * @param cacheSize
+	 *            the maximum number of cached patterns. Use <tt>0</tt> to disable the cache
+	 */
+	public LikePatternBuilder(final boolean reuseBuffer, final int cacheSize) {
+		super();
+		if (cacheSize < 0) {
+			throw new IllegalArgumentException("Invalid argument: cacheSize should not be negative");
+		}
+		this.buffer = reuseBuffer ? ThreadLocal.withInitial(StringBuilder::new) : null;
+		this.cache = cacheSize > 0 ? new LruMap<>(cacheSize) : null;
+	}
+
+	/**
+	 * Returns the builder used by {@link CriteriaBuilderHelper}. By default the builder does not reuse buffers and does not cache the patterns.
+	 *
+	 * @return the default builder
+	 */
+	public static LikePatternBuilder getDefault() {
+		return defaultBuilder;
+	}
+
+	/**
+	 * Sets the builder used by {@link CriteriaBuilderHelper}
+	 *
+	 * @param builder
+	 *            the new default builder
+	 */
+	public static void setDefault(final LikePatternBuilder builder) {
+		if (builder == null) {
+			throw new IllegalArgumentException("Invalid argument: builder should not be null");
+		}
+		defaultBuilder = builder;
+	}
+
+	/**
+	 * Builds a like pattern
+	 *
+	 * @param text
+	 *            text to converted to pattern
+	 * @param matching
+	 *            {@link Matching#LIKE}, {@link Matching#STARTS_WITH} or {@link Matching#ENDS_WITH}
+	 * @param escapeChar
+	 *            the escape character
+	 * @param locale
+	 *            the locale used for converting the text to lower case
+	 * @return like pattern or empty string if the text is blank
+	 */
+	public String build(final String text, final Matching matching, final char escapeChar, final Locale locale) {
+		if (org.apache.commons.lang3.StringUtils.isBlank(text)) {
+			return "";
+		}
+		if (escapeChar == '%' || escapeChar == '_') {
+			throw new IllegalArgumentException("Escape character cannot be '%' or '_'");
+		}
+		if (matching != Matching.LIKE && matching != Matching.STARTS_WITH && matching != Matching.ENDS_WITH) {
+			throw new IllegalArgumentException("Invalid argument: unsupported matching " + matching);
+		}
+		if (cache == null || text.length() > MAX_CACHED_TEXT_LENGTH) {
+			return doBuild(text, matching, escapeChar, locale);
+		}
+		final CacheKey key = new CacheKey(text, matching, escapeChar, locale);
+		synchronized (cache) {
+			final String pattern = cache.get(key);
+			if (pattern != null) {
+				return pattern;
+			}
+		}
+		final String pattern = doBuild(text, matching, escapeChar, locale);
+		synchronized (cache) {
+			cache.put(key, pattern);
+		}
+		return pattern;
+	}
+
+	private String doBuild(final String text, final Matching matching, final char escapeChar, final Locale locale) {
+		final boolean asciiLowerCase = isAsciiLowerCaseSafe(text, locale);
+		final String s = asciiLowerCase ? text : text.toLowerCase(locale);
+
+		// String.trim()
+		int start = 0;
+		int end = s.length();
+		while (start < end && s.charAt(start) <= ' ') {
+			start++;
+		}
+		while (start < end && s.charAt(end - 1) <= ' ') {
+			end--;
+		}
+
+		final StringBuilder sb = acquireBuffer(end - start);
+		// whitespaces produced by the escaping are reduced to single '%' too
+		boolean pendingSpace = false;
+		if (matching != Matching.STARTS_WITH) {
+			sb.append('%');
+		}
+		boolean inWhitespace = false;
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (isWhitespace(c)) {
+				if (inWhitespace) {
+					continue;
+				}
+				inWhitespace = true;
+				c = ' ';
+			} else {
+				inWhitespace = false;
+				if (asciiLowerCase && c >= 'A' && c <= 'Z') {
+					c = (char) (c + ('a' - 'A'));
+				}
+			}
+			if (c == escapeChar) {
+				pendingSpace = emit(sb, pendingSpace, escapeChar);
+				pendingSpace = emit(sb, pendingSpace, escapeChar);
+			} else if (c == '%' || c == '_') {
+				pendingSpace = emit(sb, pendingSpace, escapeChar);
+				pendingSpace = emit(sb, pendingSpace, c);
+			} else {
+				pendingSpace = emit(sb, pendingSpace, c);
+			}
+		}
+		if (pendingSpace) {
+			sb.append('%');
+		}
+		if (matching != Matching.ENDS_WITH) {
+			sb.append('%');
+		}
+		final String pattern = sb.toString();
+		releaseBuffer(sb);
+		return pattern;
+	}
+
+	private StringBuilder acquireBuffer(final int length) {
+		if (buffer == null) {
+			return new StringBuilder(length + length / 4 + 2);
+		}
+		final StringBuilder sb = buffer.get();
+		sb.setLength(0);
+		return sb;
+	}
+
+	private void releaseBuffer(final StringBuilder sb) {
+		if (buffer != null && sb.capacity() > MAX_BUFFER_CAPACITY) {
+			buffer.remove();
+		}
+	}
+
+	/**
+	 * Checks if the text can be converted to lower case character by character. This is true for ASCII only text in all locales except the ones with special casing rules for 'I'
+	 */
+	private static boolean isAsciiLowerCaseSafe(final String text, final Locale locale) {
+		final String language = locale.getLanguage();
+		if ("tr".equals(language) || "az".equals(language) || "lt".equals(language)) {
+			return false;
+		}
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) >= 0x80) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Whitespace as matched by regular expression <tt>\s</tt>, which is reduced to single space by {@link com.a9ski.utils.StringUtils#replaceWithSingleSpace(String)}
+	 */
+	static boolean isWhitespace(final char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	/**
+	 * Appends the character to the buffer. A run of whitespaces is appended as single '%' before the next non whitespace character.
+	 *
+	 * @return <tt>true</tt> if there is a pending whitespace
+	 */
+	private static boolean emit(final StringBuilder sb, final boolean pendingSpace, final char c) {
+		if (isWhitespace(c)) {
+			return true;
+		}
+		if (pendingSpace) {
+			sb.append('%');
+		}
+		sb.append(c);
+		return false;
+	}
+
+	private static class LruMap<K, V> extends LinkedHashMap<K, V> {
+		private static final long serialVersionUID = 4393651262393618463L;
+
+		private final int maxSize;
+
+		LruMap(final int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+			return size() > maxSize;
+		}
+	}
+
+	private static class CacheKey {
+		private final String text;
+		private final Matching matching;
+		private final char escapeChar;
+		private final Locale locale;
+
+		CacheKey(final String text, final Matching matching, final char escapeChar, final Locale locale) {
+			this.text = text;
+			this.matching = matching;
+			this.escapeChar = escapeChar;
+			this.locale = locale;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			int result = text.hashCode();
+			result = 31 * result + matching.hashCode();
+			result = 31 * result + escapeChar;
+			result = 31 * result + (locale == null ? 0 : locale.hashCode());
+			return result;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (obj == null || getClass() != obj.getClass()) {
+				return false;
+			}
+			final CacheKey other = (CacheKey) obj;
+			return escapeChar == other.escapeChar && matching == other.matching && text.equals(other.text) && Objects.equals(locale, other.locale);
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package com.a9ski.jpa;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * In-JVM invalidation channel. The events are delivered synchronously to all subscribers, so a single channel shared by several {@link CacheInvalidationBus} instances simulates a cluster. Useful for tests.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+public class LoopbackInvalidationChannel implements InvalidationChannel {
+
+	private final List<Consumer<Collection<CacheInvalidation>>> listeners = new CopyOnWriteArrayList<>();
+
+	private final List<Collection<CacheInvalidation>> published = new CopyOnWriteArrayList<>();
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.a9ski.jpa.InvalidationChannel#publish(java.util.Collection)
+	 */
+	@Override
+	public void publish(final Collection<CacheInvalidation> events) {
+		final List<CacheInvalidation> batch = new ArrayList<>(events);
+		published.add(batch);
+		listeners.forEach(l -> l.accept(batch));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.a9ski.jpa.InvalidationChannel#subscribe(java.util.function.Consumer)
+	 */
+	@Override
+	public void subscribe(final Consumer<Collection<CacheInvalidation>> listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Returns all batches published through the channel
+	 *
+	 * @return the published batches
+	 */
+	public List<Collection<CacheInvalidation>> getPublished() {
+		return published;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.a9ski.jpa.InvalidationChannel#close()
+	 */
+	@Override
+	public void close() {
+		listeners.clear();
+	}
+}
@@ -0,0 +1,161 @@
+package com.a9ski.jpa;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.a9ski.utils.NullUtils;
+
+/**
+ * Invalidation channel sending the events as UDP multicast datagrams. Every node of the cluster must use the same group address and port. The events are not acknowledged, so a lost datagram leaves the entity in the caches of some nodes until it
+ * expires.
+ * <p>
+ * A datagram contains the ID of the sending node on the first line (datagrams of the current node are ignored) and one event per line: <tt>className|id|version</tt> with empty class name and ID for invalidating the whole cache or all entities of
+ * a class.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+public class MulticastInvalidationChannel implements InvalidationChannel {
+
+	private static final int MAX_PACKET_SIZE = 1400;
+
+	private final String nodeId = UUID.randomUUID().toString();
+
+	private final InetAddress group;
+
+	private final int port;
+
+	private final MulticastSocket socket;
+
+	private final List<Consumer<Collection<CacheInvalidation>>> listeners = new CopyOnWriteArrayList<>();
+
+	private final Thread receiver;
+
+	private volatile boolean closed;
+
+	/**
+	 * Creates a new channel and joins the multicast group
+	 *
+	 * @param group
+	 *            the multicast group address
+	 * @param port
+	 *            the port
+	 * @throws IOException
+	 *             thrown if the socket cannot be created or the group cannot be joined
+	 */
+	public MulticastInvalidationChannel(final InetAddress group, final int port) throws IOException {
+		super();
+		NullUtils.checkNotNull(group, "Invalid argument: group should not be null");
+		this.group = group;
+		this.port = port;
+		this.socket = new MulticastSocket(port);
+		this.socket.joinGroup(group);
+		this.receiver = new Thread(this::receive, "cache-invalidation-receiver");
+		this.receiver.setDaemon(true);
+		this.receiver.start();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.a9ski.jpa.InvalidationChannel#publish(java.util.Collection)
+	 */
+	@Override
+	public void publish(final Collection<CacheInvalidation> events) {
+		final String header = nodeId + "\n";
+		final StringBuilder sb = new StringBuilder(header);
+		for (final CacheInvalidation e : events) {
+			final String line = encode(e) + "\n";
+			if (sb.length() + line.length() > MAX_PACKET_SIZE && sb.length() > header.length()) {
+				send(sb.toString());
+				sb.setLength(0);
+				sb.append(header);
+			}
+			sb.append(line);
+		}
+		if (sb.length() > header.length()) {
+			send(sb.toString());
+		}
+	}
+
+	private void send(final String message) {
+		final byte[] data = message.getBytes(StandardCharsets.UTF_8);
+		try {
+			socket.send(new DatagramPacket(data, data.length, group, port));
+		} catch (final IOException ex) {
+			JpaUtils.LOGGER.warn("Cannot send cache invalidation events", ex);
+		}
+	}
+
+	private void receive() {
+		final byte[] buffer = new byte[65536];
+		while (!closed) {
+			try {
+				final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+				socket.receive(packet);
+				final String[] lines = new String(packet.getData(), packet.getOffset(), packet.getLength(), StandardCharsets.UTF_8).split("\n");
+				if (lines.length > 1 && !nodeId.equals(lines[0])) {
+					final List<CacheInvalidation> events = new ArrayList<>(lines.length - 1);
+					for (int i = 1; i < lines.length; i++) {
+						events.add(decode(lines[i]));
+					}
+					listeners.forEach(l -> l.accept(events));
+				}
+			} catch (final IOException | RuntimeException ex) {
+				if (!closed) {
+					JpaUtils.LOGGER.warn("Cannot receive cache invalidation events", ex);
+				}
+			}
+		}
+	}
+
+	static String encode(final CacheInvalidation e) {
+		return StringUtils.defaultString(e.getEntityClassName()) + "|" + (e.getId() != null ? e.getId() : "") + "|" + e.getVersion();
+	}
+
+	static CacheInvalidation decode(final String line) {
+		final String[] parts = line.split("\\|", -1);
+		if (parts.length != 3) {
+			throw new IllegalArgumentException("Invalid cache invalidation event: " + line);
+		}
+		return new CacheInvalidation(StringUtils.trimToNull(parts[0]), parts[1].isEmpty() ? null : Long.valueOf(parts[1]), Long.parseLong(parts[2]));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.a9ski.jpa.InvalidationChannel#subscribe(java.util.function.Consumer)
+	 */
+	@Override
+	public void subscribe(final Consumer<Collection<CacheInvalidation>> listener) {
+		listeners.add(listener);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.a9ski.jpa.InvalidationChannel#close()
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		try {
+			socket.leaveGroup(group);
+		} catch (final IOException ex) {
+			JpaUtils.LOGGER.debug("Cannot leave multicast group", ex);
+		}
+		socket.close();
+		listeners.clear();
+	}
+}
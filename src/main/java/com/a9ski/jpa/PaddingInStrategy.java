@@ -0,0 +1,56 @@
+package com.a9ski.jpa;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Predicate;
+
+/**
+ * IN strategy padding the number of values to the next power of two by repeating the last value. The JPA provider and the database see only a few distinct IN list lengths, so the prepared statements and the execution plans are reused. Lists longer
+ * than <tt>maxNumberOfInElements</tt> are split into several IN clauses joined with OR predicate and the last one is padded.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+public class PaddingInStrategy extends SplittingInStrategy {
+
+	/**
+	 * Creates a new strategy
+	 *
+	 * @param maxNumberOfInElements
+	 *            the maximum number of elements in a single IN clause
+	 */
+	public PaddingInStrategy(final int maxNumberOfInElements) {
+		super(maxNumberOfInElements);
+	}
+
+	@Override
+	public <T> Predicate in(final CriteriaBuilderHelper cbh, final Expression<T> field, final Collection<T> values) {
+		return super.in(cbh, field, pad(values, getMaxNumberOfInElements()));
+	}
+
+	/**
+	 * Pads the values to the next power of two (or to the next multiple of <tt>maxNumberOfInElements</tt> for long lists) by repeating the last value
+	 *
+	 * @param values
+	 *            the values
+	 * @param maxNumberOfInElements
+	 *            the maximum number of elements in a single IN clause
+	 * @return the padded values
+	 */
+	static <T> List<T> pad(final Collection<T> values, final int maxNumberOfInElements) {
+		final int size = values.size();
+		final int lastChunkSize = size % maxNumberOfInElements;
+		final List<T> padded = new ArrayList<>(values);
+		if (lastChunkSize > 1) {
+			final int paddedChunkSize = Math.min(Integer.highestOneBit(lastChunkSize - 1) << 1, maxNumberOfInElements);
+			final T last = padded.get(size - 1);
+			for (int i = lastChunkSize; i < paddedChunkSize; i++) {
+				padded.add(last);
+			}
+		}
+		return padded;
+	}
+}
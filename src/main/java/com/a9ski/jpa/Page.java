@@ -0,0 +1,61 @@
+package com.a9ski.jpa;
+
+import java.util.List;
+
+/**
+ * A page of results together with the total number of results matching the query.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ * @param <R>
+ *            the type of the items
+ */
+public class Page<R> {
+	private final List<R> items;
+	private final long total;
+	private final boolean hasNext;
+
+	/**
+	 * Creates a new page
+	 *
+	 * @param items
+	 *            the items of the page
+	 * @param total
+	 *            the total number of results matching the query
+	 * @param hasNext
+	 *            flag indicating that there are more results after this page
+	 */
+	public Page(final List<R> items, final long total, final boolean hasNext) {
+		super();
+		this.items = items;
+		this.total = total;
+		this.hasNext = hasNext;
+	}
+
+	/**
+	 * Returns the items of the page
+	 *
+	 * @return the items of the page
+	 */
+	public List<R> getItems() {
+		return items;
+	}
+
+	/**
+	 * Returns the total number of results matching the query
+	 *
+	 * @return the total number of results matching the query
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * Returns true if there are more results after this page
+	 *
+	 * @return true if there are more results after this page
+	 */
+	public boolean hasNext() {
+		return hasNext;
+	}
+}
@@ -0,0 +1,159 @@
+package com.a9ski.jpa;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import javax.persistence.Tuple;
+import javax.persistence.criteria.Selection;
+
+import com.a9ski.utils.NullUtils;
+
+/**
+ * Selection of some of the attributes of an entity used by {@link JpaUtils#listProjections(int, int, Function, Class, Projection)}. Only the selected columns are read from the database and the results are not managed by the entity manager, so
+ * there is no entity instance and no dirty checking snapshot per row.
+ * <p>
+ * The selection function is called for every query with the criteria objects of the query. The query plans are cached only for projections with an ID (see {@link #withId(String)}), which must be unique for the selected columns, because
+ * functions selecting different columns cannot be distinguished.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ * @param <E>
+ *            the entity type
+ * @param <R>
+ *            the result type
+ */
+public class Projection<E, R> {
+
+	private final Class<R> resultClass;
+
+	private final Function<CriteriaApiObjects<E>, Selection<? extends R>> selection;
+
+	private final String id;
+
+	/**
+	 * Creates a new projection
+	 *
+	 * @param resultClass
+	 *            the result class
+	 * @param selection
+	 *            creates the selection of the query
+	 */
+	public Projection(final Class<R> resultClass, final Function<CriteriaApiObjects<E>, Selection<? extends R>> selection) {
+		this(resultClass, selection, null);
+	}
+
+	private Projection(final Class<R> resultClass, final Function<CriteriaApiObjects<E>, Selection<? extends R>> selection, final String id) {
+		super();
+		NullUtils.checkNotNull(resultClass, "Invalid argument: resultClass should not be null");
+		NullUtils.checkNotNull(selection, "Invalid argument: selection should not be null");
+		this.resultClass = resultClass;
+		this.selection = selection;
+		this.id = id;
+	}
+
+	/**
+	 * Returns a copy of the projection with given ID. The ID is part of the query plan key, so it must identify the selected columns, e.g. <tt>"customer.name"</tt>
+	 *
+	 * @param id
+	 *            the ID of the projection
+	 * @return the projection with given ID
+	 */
+	public Projection<E, R> withId(final String id) {
+		NullUtils.checkNotNull(id, "Invalid argument: id should not be null");
+		return new Projection<>(resultClass, selection, id);
+	}
+
+	/**
+	 * Creates a projection constructing a DTO for every row (see {@link javax.persistence.criteria.CriteriaBuilder#construct(Class, Selection...)}). The DTO class must have a public constructor with arguments matching the selected columns.
+	 *
+	 * @param dtoClass
+	 *            the DTO class
+	 * @param columns
+	 *            creates the selected columns in the order of the constructor arguments
+	 * @return the projection
+	 */
+	public static <E, R> Projection<E, R> construct(final Class<R> dtoClass, final Function<CriteriaApiObjects<E>, List<Selection<?>>> columns) {
+		NullUtils.checkNotNull(columns, "Invalid argument: columns should not be null");
+		return new Projection<>(dtoClass, cao -> cao.getCriteriaBuilder().construct(dtoClass, toArray(columns.apply(cao))));
+	}
+
+	/**
+	 * Creates a projection returning a {@link Tuple} for every row. Use aliases of the columns (see {@link Selection#alias(String)}) to access the values by name.
+	 *
+	 * @param columns
+	 *            creates the selected columns
+	 * @return the projection
+	 */
+	public static <E> Projection<E, Tuple> tuple(final Function<CriteriaApiObjects<E>, List<Selection<?>>> columns) {
+		NullUtils.checkNotNull(columns, "Invalid argument: columns should not be null");
+		return new Projection<>(Tuple.class, cao -> cao.getCriteriaBuilder().tuple(toArray(columns.apply(cao))));
+	}
+
+	/**
+	 * Creates a projection of a single column
+	 *
+	 * @param resultClass
+	 *            the type of the column
+	 * @param column
+	 *            creates the selected column
+	 * @return the projection
+	 */
+	public static <E, R> Projection<E, R> column(final Class<R> resultClass, final Function<CriteriaApiObjects<E>, Selection<? extends R>> column) {
+		return new Projection<>(resultClass, column);
+	}
+
+	private static Selection<?>[] toArray(final List<Selection<?>> columns) {
+		if (columns == null || columns.isEmpty()) {
+			throw new IllegalArgumentException("Invalid argument: at least one column should be selected");
+		}
+		return columns.toArray(new Selection<?>[columns.size()]);
+	}
+
+	/**
+	 * Returns the result class
+	 *
+	 * @return the result class
+	 */
+	public Class<R> getResultClass() {
+		return resultClass;
+	}
+
+	/**
+	 * Returns the function creating the selection of the query
+	 *
+	 * @return the function creating the selection
+	 */
+	public Function<CriteriaApiObjects<E>, Selection<? extends R>> getSelection() {
+		return selection;
+	}
+
+	/**
+	 * Returns the ID of the projection
+	 *
+	 * @return the ID of the projection or <tt>null</tt> if not set
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the part of the query plan key identifying the projection: the result class and the ID of the projection
+	 *
+	 * @return the key of the projection or <tt>null</tt> if the projection has no ID
+	 */
+	public List<Object> getKey() {
+		return id != null ? Arrays.asList(resultClass, id) : null;
+	}
+
+	/**
+	 * Creates the selection of the query
+	 *
+	 * @param cao
+	 *            the criteria objects of the query
+	 * @return the selection
+	 */
+	public Selection<? extends R> createSelection(final CriteriaApiObjects<E> cao) {
+		return selection.apply(cao);
+	}
+}
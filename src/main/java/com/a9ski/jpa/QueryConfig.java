@@ -1,7 +1,11 @@
 package com.a9ski.jpa;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+import javax.persistence.EntityGraph;
 import javax.persistence.Parameter;
 import javax.persistence.criteria.Order;
 import javax.persistence.criteria.Predicate;
@@ -18,6 +22,21 @@ import com.a9ski.utils.ExtCollectionUtils;
  */
 public class QueryConfig {
 
+	/**
+	 * Query hint for fetch graph. The attributes of the graph are loaded eagerly, all other attributes are treated as lazy
+	 */
+	public static final String FETCH_GRAPH_HINT = "javax.persistence.fetchgraph";
+
+	/**
+	 * Query hint for load graph. The attributes of the graph are loaded eagerly, all other attributes keep their fetch type
+	 */
+	public static final String LOAD_GRAPH_HINT = "javax.persistence.loadgraph";
+
+	/**
+	 * Query hint for query timeout in milliseconds
+	 */
+	public static final String QUERY_TIMEOUT_HINT = "javax.persistence.query.timeout";
+
 	private final List<Order> sortOrders;
 
 	private final List<Pair<Parameter<Object>, Object>> parameters;
@@ -26,6 +45,20 @@ public class QueryConfig {
 
 	private final boolean distinct;
 
+	private final boolean readOnly;
+
+	private final Map<String, Object> hints;
+
+	private final EntityGraph<?> fetchGraph;
+
+	private final EntityGraph<?> loadGraph;
+
+	private final int maxInListSize;
+
+	private final Object planKey;
+
+	private final boolean parameterized;
+
 	/**
 	 * Creates a new query configuration object
 	 *
@@ -39,11 +72,213 @@ public class QueryConfig {
 	 *            flag indicating that only distinc entities must be returned
 	 */
 	public QueryConfig(final List<Predicate> predicates, final List<Pair<Parameter<Object>, Object>> parameters, final List<Order> sortOrders, final boolean distinct) {
+		this(predicates, parameters, sortOrders, distinct, false);
+	}
+
+	/**
+	 * Creates a new query configuration object
+	 *
+	 * @param predicates
+	 *            the predicates used in the query
+	 * @param parameters
+	 *            the parameter mapping used in the query
+	 * @param sortOrders
+	 *            the sort order used in the query
+	 * @param distinct
+	 *            flag indicating that only distinc entities must be returned
+	 * @param readOnly
+	 *            flag indicating that the returned entities will not be modified
+	 */
+	public QueryConfig(final List<Predicate> predicates, final List<Pair<Parameter<Object>, Object>> parameters, final List<Order> sortOrders, final boolean distinct, final boolean readOnly) {
+		this(predicates, parameters, sortOrders, distinct, readOnly, Collections.emptyMap(), null, null, 0, null, false);
+	}
+
+	private QueryConfig(final List<Predicate> predicates, final List<Pair<Parameter<Object>, Object>> parameters, final List<Order> sortOrders, final boolean distinct, final boolean readOnly, final Map<String, Object> hints,
+			final EntityGraph<?> fetchGraph, final EntityGraph<?> loadGraph, final int maxInListSize, final Object planKey, final boolean parameterized) {
 		super();
 		this.predicates = ExtCollectionUtils.defaultList(predicates);
 		this.parameters = parameters;
 		this.sortOrders = sortOrders;
 		this.distinct = distinct;
+		this.readOnly = readOnly;
+		this.hints = hints;
+		this.fetchGraph = fetchGraph;
+		this.loadGraph = loadGraph;
+		this.maxInListSize = maxInListSize;
+		this.planKey = planKey;
+		this.parameterized = parameterized;
+	}
+
+	/**
+	 * Creates a new query configuration object using the predicates and parameters of criteria builder helper
+	 *
+	 * @param cbh
+	 *            the criteria builder helper
+	 * @param sortOrders
+	 *            the sort order used in the query
+	 * @param distinct
+	 *            flag indicating that only distinc entities must be returned
+	 */
+	public QueryConfig(final CriteriaBuilderHelper cbh, final List<Order> sortOrders, final boolean distinct) {
+		this(cbh, sortOrders, distinct, false);
+	}
+
+	/**
+	 * Creates a new query configuration object using the predicates and parameters of criteria builder helper
+	 *
+	 * @param cbh
+	 *            the criteria builder helper
+	 * @param sortOrders
+	 *            the sort order used in the query
+	 * @param distinct
+	 *            flag indicating that only distinc entities must be returned
+	 * @param readOnly
+	 *            flag indicating that the returned entities will not be modified
+	 */
+	public QueryConfig(final CriteriaBuilderHelper cbh, final List<Order> sortOrders, final boolean distinct, final boolean readOnly) {
+		this(cbh.getPredicates(), cbh.getParameters(), sortOrders, distinct, readOnly, Collections.emptyMap(), null, null, cbh.getMaxInListSize(), null, cbh.isParameterBinding());
+	}
+
+	/**
+	 * Returns a copy of this query configuration with the read-only flag set
+	 *
+	 * @return read-only copy of this query configuration
+	 */
+	public QueryConfig asReadOnly() {
+		return readOnly ? this : new QueryConfig(predicates, parameters, sortOrders, distinct, true, hints, fetchGraph, loadGraph, maxInListSize, planKey, parameterized);
+	}
+
+	/**
+	 * Returns a copy of this query configuration with additional query hint (e.g. JDBC fetch size, query timeout or cache usage of the JPA provider). The hints are applied to all queries including the count queries.
+	 *
+	 * @param name
+	 *            the hint name
+	 * @param value
+	 *            the hint value
+	 * @return copy of this query configuration with the hint
+	 */
+	public QueryConfig withHint(final String name, final Object value) {
+		if (name == null) {
+			throw new IllegalArgumentException("Invalid argument: hint name should not be null");
+		}
+		return withHints(Collections.singletonMap(name, value));
+	}
+
+	/**
+	 * Returns a copy of this query configuration with additional query hints. See {@link #withHint(String, Object)}
+	 *
+	 * @param hints
+	 *            the hints
+	 * @return copy of this query configuration with the hints
+	 */
+	public QueryConfig withHints(final Map<String, Object> hints) {
+		final Map<String, Object> h = new LinkedHashMap<>(this.hints);
+		if (hints != null) {
+			h.putAll(hints);
+		}
+		return new QueryConfig(predicates, parameters, sortOrders, distinct, readOnly, Collections.unmodifiableMap(h), fetchGraph, loadGraph, maxInListSize, planKey, parameterized);
+	}
+
+	/**
+	 * Returns a copy of this query configuration with fetch graph. The graph is applied only to the queries returning entities, so it is left out of the count and ID queries.
+	 *
+	 * @param fetchGraph
+	 *            the fetch graph (see {@link javax.persistence.EntityManager#createEntityGraph(Class)})
+	 * @return copy of this query configuration with the fetch graph
+	 */
+	public QueryConfig withFetchGraph(final EntityGraph<?> fetchGraph) {
+		return new QueryConfig(predicates, parameters, sortOrders, distinct, readOnly, hints, fetchGraph, loadGraph, maxInListSize, planKey, parameterized);
+	}
+
+	/**
+	 * Returns a copy of this query configuration with load graph. The graph is applied only to the queries returning entities, so it is left out of the count and ID queries.
+	 *
+	 * @param loadGraph
+	 *            the load graph (see {@link javax.persistence.EntityManager#createEntityGraph(Class)})
+	 * @return copy of this query configuration with the load graph
+	 */
+	public QueryConfig withLoadGraph(final EntityGraph<?> loadGraph) {
+		return new QueryConfig(predicates, parameters, sortOrders, distinct, readOnly, hints, fetchGraph, loadGraph, maxInListSize, planKey, parameterized);
+	}
+
+	/**
+	 * Returns a copy of this query configuration with a key identifying the query plan, used by {@link QueryPlanCache}. The key must identify the whole structure of the query: configurations with equal keys must create the same predicates, sort
+	 * orders and parameters, differing only in the parameter values. All values must be bound as parameters (see {@link CriteriaBuilderHelper#isParameterBinding()}), so the key must contain everything else the query depends on, e.g. which
+	 * filter fields are set and the values captured by the query configuration factory that change the query.
+	 * <p>
+	 * Queries without plan key or with predicates that are not parameterized (see {@link #isParameterized()}) are not cached.
+	 *
+	 * @param planKey
+	 *            the key of the query plan. Must have proper <tt>equals</tt> and <tt>hashCode</tt>
+	 * @return copy of this query configuration with the plan key
+	 */
+	public QueryConfig withPlanKey(final Object planKey) {
+		return new QueryConfig(predicates, parameters, sortOrders, distinct, readOnly, hints, fetchGraph, loadGraph, maxInListSize, planKey, parameterized);
+	}
+
+	/**
+	 * Returns a copy of this query configuration declaring that the predicates contain no literal values - all values are passed as the parameters of this configuration, so the query can be cached by {@link QueryPlanCache}. The configurations
+	 * created from {@link CriteriaBuilderHelper} in parameter binding mode are already parameterized.
+	 *
+	 * @return parameterized copy of this query configuration
+	 */
+	public QueryConfig asParameterized() {
+		return parameterized ? this : new QueryConfig(predicates, parameters, sortOrders, distinct, readOnly, hints, fetchGraph, loadGraph, maxInListSize, planKey, true);
+	}
+
+	/**
+	 * Returns true if the predicates pass all values as the parameters of this configuration, i.e. the configuration is created from {@link CriteriaBuilderHelper} in parameter binding mode or declared with {@link #asParameterized()}. Only such
+	 * queries are cached by {@link QueryPlanCache}, because the values of the literal predicates would be baked into the cached query.
+	 *
+	 * @return true if the predicates are parameterized
+	 */
+	public boolean isParameterized() {
+		return parameterized && parameters != null;
+	}
+
+	/**
+	 * Returns the key of the query plan or <tt>null</tt> if the query plan must not be cached. See {@link #withPlanKey(Object)}
+	 *
+	 * @return the key of the query plan
+	 */
+	public Object getPlanKey() {
+		return planKey;
+	}
+
+	/**
+	 * Returns the query hints
+	 *
+	 * @return unmodifiable map of the query hints
+	 */
+	public Map<String, Object> getHints() {
+		return hints;
+	}
+
+	/**
+	 * Returns the number of values of the largest IN predicate created by the criteria builder helper of this configuration. Used for query metrics.
+	 *
+	 * @return the size of the largest IN list or <tt>0</tt> if unknown
+	 */
+	public int getMaxInListSize() {
+		return maxInListSize;
+	}
+
+	/**
+	 * Returns the fetch graph or <tt>null</tt> if there is no fetch graph
+	 *
+	 * @return the fetch graph
+	 */
+	public EntityGraph<?> getFetchGraph() {
+		return fetchGraph;
+	}
+
+	/**
+	 * Returns the load graph or <tt>null</tt> if there is no load graph
+	 *
+	 * @return the load graph
+	 */
+	public EntityGraph<?> getLoadGraph() {
+		return loadGraph;
 	}
 
 	/**
@@ -73,6 +308,16 @@ public class QueryConfig {
 		return distinct;
 	}
 
+	/**
+	 * Returns true if the returned entities will not be modified. The query is executed with {@link javax.persistence.FlushModeType#COMMIT} and the read-only hints of the JPA dialect (see {@link JpaDialect#getReadOnlyHints()}), so the JPA provider
+	 * does not keep snapshots of the entities for dirty checking. If the dialect has no read-only hints the entities are detached after the query.
+	 *
+	 * @return true if the returned entities will not be modified
+	 */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
 	/**
 	 * Gets a list of the predicates used in the query
 	 *
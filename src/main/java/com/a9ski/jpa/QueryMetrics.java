@@ -0,0 +1,86 @@
+package com.a9ski.jpa;
+
+/**
+ * Receives the metrics of the operations of {@link JpaUtils} (see {@link JpaUtils#withMetrics(QueryMetrics)}). The methods are called on the thread executing the operation, so they must be fast and thread safe. All methods do nothing by default.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+public interface QueryMetrics {
+
+	/**
+	 * Metrics ignoring all values
+	 */
+	public static final QueryMetrics NO_OP = new QueryMetrics() {
+	};
+
+	/**
+	 * Queries listing entities, IDs or projections
+	 */
+	public static final String LIST = "list";
+
+	/**
+	 * Keyset pagination queries
+	 */
+	public static final String KEYSET = "keyset";
+
+	/**
+	 * Count queries
+	 */
+	public static final String COUNT = "count";
+
+	/**
+	 * Loading entities by ID
+	 */
+	public static final String LOAD = "load";
+
+	/**
+	 * Saving entities
+	 */
+	public static final String SAVE = "save";
+
+	/**
+	 * Generating IDs from sequence
+	 */
+	public static final String GENERATE_ID = "generateId";
+
+	/**
+	 * Records an executed operation
+	 *
+	 * @param operation
+	 *            the operation (e.g. {@link #LIST})
+	 * @param entityClass
+	 *            the entity class or <tt>null</tt> if unknown
+	 * @param elapsedNanos
+	 *            the duration of the operation in nanoseconds
+	 * @param rows
+	 *            the number of returned or saved rows
+	 */
+	public default void recordOperation(final String operation, final Class<?> entityClass, final long elapsedNanos, final int rows) {
+		// nothing to do
+	}
+
+	/**
+	 * Records the size of the largest IN list of a query (see {@link QueryConfig#getMaxInListSize()})
+	 *
+	 * @param entityClass
+	 *            the entity class or <tt>null</tt> if unknown
+	 * @param size
+	 *            the number of values in the IN list
+	 */
+	public default void recordInListSize(final Class<?> entityClass, final int size) {
+		// nothing to do
+	}
+
+	/**
+	 * Records a lookup in the {@link EntityCache}
+	 *
+	 * @param entityClass
+	 *            the entity class
+	 * @param hit
+	 *            <tt>true</tt> if the entity was found in the cache
+	 */
+	public default void recordCacheAccess(final Class<?> entityClass, final boolean hit) {
+		// nothing to do
+	}
+}
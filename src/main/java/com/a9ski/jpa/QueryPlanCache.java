@@ -0,0 +1,203 @@
+package com.a9ski.jpa;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Parameter;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+
+/**
+ * Cache of compiled query plans used by {@link JpaUtils}. The first query with a given plan key is registered as a named query in the entity manager factory. Subsequent queries with the same key reuse the precompiled named query and only bind
+ * the parameter values, so the JPA provider does not translate the query again.
+ * <p>
+ * The plan key is the entity class and the kind of the query together with the key supplied by the caller with {@link QueryConfig#withPlanKey(Object)}. A query is cached only if it has such key and its predicates pass all values as named
+ * parameters of the query configuration (see {@link QueryConfig#isParameterized()}). Queries of configurations without plan key or with values inlined as literals are always translated by the JPA provider. A cached plan is reused only by
+ * queries with the same parameter names and types.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+public class QueryPlanCache {
+
+	private static final String NAME_PREFIX = QueryPlanCache.class.getName() + ".";
+
+	private static final AtomicLong SEQUENCE = new AtomicLong();
+
+	private final int maxSize;
+	private final ConcurrentMap<List<Object>, QueryPlan> plans = new ConcurrentHashMap<>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Creates a new cache holding at most 1000 plans
+	 */
+	public QueryPlanCache() {
+		this(1000);
+	}
+
+	/**
+	 * Creates a new cache
+	 *
+	 * @param maxSize
+	 *            the maximum number of cached plans
+	 */
+	public QueryPlanCache(final int maxSize) {
+		super();
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("Invalid argument: maxSize must be positive");
+		}
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Returns <tt>true</tt> if the query of given configuration can be cached, i.e. the configuration has a plan key and its predicates are parameterized (see {@link QueryConfig#isParameterized()})
+	 *
+	 * @param qc
+	 *            the query configuration
+	 * @return <tt>true</tt> if the query can be cached
+	 */
+	public static boolean isCacheable(final QueryConfig qc) {
+		return qc != null && qc.getPlanKey() != null && qc.isParameterized();
+	}
+
+	/**
+	 * Looks up a plan matching given key and query configuration
+	 *
+	 * @param key
+	 *            the plan key
+	 * @param qc
+	 *            the query configuration
+	 * @return the plan or <tt>null</tt> if there is no matching plan
+	 */
+	QueryPlan lookup(final List<Object> key, final QueryConfig qc) {
+		final QueryPlan plan = isCacheable(qc) ? plans.get(key) : null;
+		if (plan != null && plan.matches(qc)) {
+			hits.incrementAndGet();
+			return plan;
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Registers the query as a named query and caches the plan. The query is not cached if the configuration is not cacheable (see {@link #isCacheable(QueryConfig)}), if some of the parameters is not named or if the query has parameters not
+	 * declared in the query configuration.
+	 *
+	 * @param key
+	 *            the plan key
+	 * @param emf
+	 *            the entity manager factory
+	 * @param q
+	 *            the query without bound parameters, first result and max results
+	 * @param qc
+	 *            the query configuration
+	 */
+	void register(final List<Object> key, final EntityManagerFactory emf, final Query q, final QueryConfig qc) {
+		if (!isCacheable(qc)) {
+			return;
+		}
+		final List<Pair<Parameter<Object>, Object>> parameters = qc.getParameters();
+		final QueryPlan existing = plans.get(key);
+		if (existing == null && plans.size() >= maxSize) {
+			return;
+		}
+		if (parameters.stream().anyMatch(p -> p.getKey().getName() == null) || q.getParameters().size() != parameters.size()) {
+			return;
+		}
+		// a query registered again with the same key replaces the named query, so the number of named queries is bounded by the size of the cache
+		final String name = existing != null ? existing.getName() : NAME_PREFIX + SEQUENCE.incrementAndGet();
+		try {
+			emf.addNamedQuery(name, q);
+		} catch (final RuntimeException ex) {
+			if (JpaUtils.LOGGER.isWarnEnabled()) {
+				JpaUtils.LOGGER.warn("Cannot register query plan", ex);
+			}
+			return;
+		}
+		plans.put(key, new QueryPlan(name, parameters));
+	}
+
+	/**
+	 * Returns the number of queries served by cached plans
+	 *
+	 * @return the number of cache hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of queries that had to be translated by the JPA provider
+	 *
+	 * @return the number of cache misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of cached plans
+	 *
+	 * @return the number of cached plans
+	 */
+	public int size() {
+		return plans.size();
+	}
+
+	/**
+	 * Removes all cached plans and resets the counters. Already registered named queries remain in the entity manager factory.
+	 */
+	public void clear() {
+		plans.clear();
+		hits.set(0);
+		misses.set(0);
+	}
+
+	/**
+	 * A cached query plan - the name of the registered named query and the names and types of its parameters in the order of declaration in the query configuration
+	 */
+	static class QueryPlan {
+		private final String name;
+		private final String[] parameterNames;
+		private final Class<?>[] parameterTypes;
+
+		QueryPlan(final String name, final List<Pair<Parameter<Object>, Object>> parameters) {
+			super();
+			this.name = name;
+			this.parameterNames = parameters.stream().map(p -> p.getKey().getName()).toArray(String[]::new);
+			this.parameterTypes = parameters.stream().map(p -> p.getKey().getParameterType()).toArray(Class<?>[]::new);
+		}
+
+		String getName() {
+			return name;
+		}
+
+		boolean matches(final QueryConfig qc) {
+			final List<Pair<Parameter<Object>, Object>> parameters = qc.getParameters();
+			if (parameters.size() != parameterNames.length) {
+				return false;
+			}
+			for (int i = 0; i < parameterNames.length; i++) {
+				final Parameter<Object> p = parameters.get(i).getKey();
+				if (!Objects.equals(parameterNames[i], p.getName()) || !Objects.equals(parameterTypes[i], p.getParameterType())) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		void bind(final TypedQuery<?> q, final QueryConfig qc) {
+			for (int i = 0; i < parameterNames.length; i++) {
+				q.setParameter(parameterNames[i], qc.getParameters().get(i).getValue());
+			}
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package com.a9ski.jpa;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import com.a9ski.collections.SortedLongSet;
+import com.a9ski.utils.Range;
+
+/**
+ * Helpers for building explicit query plan keys (see {@link QueryConfig#withPlanKey(Object)}) of queries with predicates created by {@link CriteriaBuilderHelper} in parameter binding mode. The structure of such queries depends on which filter
+ * fields are set and on the sizes of the collections, but not on the values.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+public final class QueryShape {
+
+	private QueryShape() {
+		super();
+	}
+
+	/**
+	 * Returns the size bucket of a collection: <tt>0</tt> for empty collection, <tt>1</tt> for single element and the next power of two for larger collections
+	 *
+	 * @param c
+	 *            the collection
+	 * @return the size bucket of the collection
+	 */
+	public static int sizeBucket(final Collection<?> c) {
+		final int size = c != null ? c.size() : 0;
+		return size <= 1 ? size : Integer.highestOneBit(size - 1) << 1;
+	}
+
+	/**
+	 * Returns the shape of a collection used in IN predicate: the size bucket (see {@link #sizeBucket(Collection)}) or, for {@link SortedLongSet} with runs of consecutive values matched with <b>BETWEEN</b>, the number of runs and the size bucket
+	 * of the remaining values
+	 *
+	 * @param c
+	 *            the collection
+	 * @return the shape of the collection
+	 */
+	public static Object collection(final Collection<?> c) {
+		if (c instanceof SortedLongSet) {
+			// runs of consecutive values are matched with BETWEEN, see CriteriaBuilderHelper#in
+			final long between = ((SortedLongSet) c).ranges().stream().filter(r -> r.size() >= CriteriaBuilderHelper.MIN_BETWEEN_RANGE_SIZE).count();
+			if (between > 0) {
+				final long singles = ((SortedLongSet) c).ranges().stream().filter(r -> r.size() < CriteriaBuilderHelper.MIN_BETWEEN_RANGE_SIZE).mapToLong(r -> r.size()).sum();
+				final int singlesBucket = singles <= 1 ? (int) singles : Integer.highestOneBit((int) singles - 1) << 1;
+				return Arrays.asList(between, singlesBucket);
+			}
+		}
+		return sizeBucket(c);
+	}
+
+	/**
+	 * Returns the shape of a range: <tt>0</tt> for no range, <tt>4</tt> for single value and a combination of <tt>1</tt> (start is set) and <tt>2</tt> (end is set) otherwise
+	 *
+	 * @param range
+	 *            the range
+	 * @return the shape of the range
+	 */
+	public static int range(final Range<?> range) {
+		if (range == null) {
+			return 0;
+		}
+		final Object start = range.getStart();
+		final Object end = range.getEnd();
+		if (start != null && start.equals(end)) {
+			return 4;
+		}
+		return (start != null ? 1 : 0) + (end != null ? 2 : 0);
+	}
+}
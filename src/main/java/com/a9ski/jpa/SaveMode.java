@@ -0,0 +1,22 @@
+package com.a9ski.jpa;
+
+import javax.persistence.EntityManager;
+
+/**
+ * Defines how {@link JpaUtils#save(com.a9ski.entities.AuditableEntity, boolean, SaveMode)} updates detached entities with non-zero ID. New entities are always persisted and entities managed by the entity manager are always updated by the dirty
+ * checking of the JPA provider.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+public enum SaveMode {
+	/**
+	 * Calls {@link EntityManager#merge(Object)}, which loads the current row (if the entity is not in the persistence context or the shared cache) and copies the state of the detached entity, cascading to the associations.
+	 */
+	MERGE,
+	/**
+	 * Executes a single <b>UPDATE</b> of the column attributes (see {@link EntityTableMapping}) with <tt>WHERE id = :id AND version = :version</tt> without loading the row. The statement bypasses the persistence context and the shared cache, so
+	 * an instance of the entity already managed by the entity manager is not updated.
+	 */
+	VERSIONED_UPDATE
+}
@@ -0,0 +1,196 @@
+package com.a9ski.jpa;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.a9ski.utils.NullUtils;
+
+/**
+ * ID generator reserving blocks of sequence values, so most of the IDs are handed out without a database round trip. The IDs of a block are handed out lock-free and only one thread at a time refills the block of a sequence. The generator is safe
+ * to use on multiple cluster nodes, because every block is obtained from the database sequence. The unused values of the last block are lost when the application stops, so the IDs may have gaps.
+ * <p>
+ * The generator works in one of two modes:
+ * <ul>
+ * <li><b>Multiple values</b> (<tt>sequenceIncrement</tt> is <tt>1</tt>) - each block is fetched with {@link JpaUtils#generateIds(DatabaseDialect, String, int)}. The block size starts from <tt>minBlockSize</tt> and adapts to the observed rate: it is
+ * doubled (up to <tt>maxBlockSize</tt>) when a block is used faster than the target refill interval and halved (down to <tt>minBlockSize</tt>) when it lasts much longer. If the dialect does not support
+ * {@link DatabaseDialect#createSequenceNextValuesSql(String, int)} the block size is capped at <tt>1</tt>, because filling a block would take a round trip per ID while the other threads wait for the block. Use pooled mode for such
+ * databases.</li>
+ * <li><b>Pooled</b> (<tt>sequenceIncrement</tt> greater than <tt>1</tt>) - the sequence must be created with <tt>INCREMENT BY sequenceIncrement</tt>. Each value <tt>v</tt> of the sequence reserves the IDs from <tt>v</tt> to
+ * <tt>v + sequenceIncrement - 1</tt>. The block size is fixed.</li>
+ * </ul>
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+public class SequenceIdGenerator {
+
+	private static final long DEFAULT_TARGET_REFILL_INTERVAL_MILLIS = 1000;
+
+	private final JpaUtils jpaUtils;
+	private final DatabaseDialect dialect;
+	private final int minBlockSize;
+	private final int maxBlockSize;
+	private final int sequenceIncrement;
+	private final long targetRefillIntervalNanos;
+	private final ConcurrentMap<String, SequenceState> sequences = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a generator fetching multiple values of the sequence at once. The block size adapts between <tt>minBlockSize</tt> and <tt>maxBlockSize</tt> aiming at one refill per second.
+	 *
+	 * @param jpaUtils
+	 *            the JPA utils used for querying the sequence
+	 * @param dialect
+	 *            the database dialect
+	 * @param minBlockSize
+	 *            the minimal block size
+	 * @param maxBlockSize
+	 *            the maximal block size
+	 */
+	public SequenceIdGenerator(final JpaUtils jpaUtils, final DatabaseDialect dialect, final int minBlockSize, final int maxBlockSize) {
+		this(jpaUtils, dialect, minBlockSize, maxBlockSize, 1, DEFAULT_TARGET_REFILL_INTERVAL_MILLIS);
+	}
+
+	/**
+	 * Creates a new generator
+	 *
+	 * @param jpaUtils
+	 *            the JPA utils used for querying the sequence
+	 * @param dialect
+	 *            the database dialect
+	 * @param minBlockSize
+	 *            the minimal block size. Not used in pooled mode
+	 * @param maxBlockSize
+	 *            the maximal block size. Not used in pooled mode
+	 * @param sequenceIncrement
+	 *            the increment of the database sequence. Values greater than <tt>1</tt> turn on pooled mode
+	 * @param targetRefillIntervalMillis
+	 *            the desired interval between two refills of a block, used for adapting the block size
+	 */
+	public SequenceIdGenerator(final JpaUtils jpaUtils, final DatabaseDialect dialect, final int minBlockSize, final int maxBlockSize, final int sequenceIncrement, final long targetRefillIntervalMillis) {
+		super();
+		NullUtils.checkNotNull(jpaUtils, "Invalid argument: jpaUtils should not be null");
+		NullUtils.checkNotNull(dialect, "Invalid argument: dialect should not be null");
+		if (minBlockSize < 1 || maxBlockSize < minBlockSize) {
+			throw new IllegalArgumentException("Invalid argument: block sizes should satisfy 1 <= minBlockSize <= maxBlockSize");
+		}
+		if (sequenceIncrement < 1) {
+			throw new IllegalArgumentException("Invalid argument: sequenceIncrement should be positive");
+		}
+		if (targetRefillIntervalMillis < 1) {
+			throw new IllegalArgumentException("Invalid argument: targetRefillIntervalMillis should be positive");
+		}
+		this.jpaUtils = jpaUtils;
+		this.dialect = dialect;
+		this.minBlockSize = minBlockSize;
+		this.maxBlockSize = maxBlockSize;
+		this.sequenceIncrement = sequenceIncrement;
+		this.targetRefillIntervalNanos = TimeUnit.MILLISECONDS.toNanos(targetRefillIntervalMillis);
+	}
+
+	/**
+	 * Returns the next ID of the sequence
+	 *
+	 * @param sequenceName
+	 *            the sequence name
+	 * @return the next ID
+	 */
+	public long nextId(final String sequenceName) {
+		if (StringUtils.isBlank(sequenceName)) {
+			throw new IllegalArgumentException("Invalid argument: sequenceName cannot be blank");
+		}
+		final SequenceState state = sequences.computeIfAbsent(sequenceName, n -> new SequenceState(minBlockSize, sequenceIncrement > 1 || dialect.createSequenceNextValuesSql(n, 2) != null));
+		while (true) {
+			final Block block = state.block;
+			final long index = block.cursor.getAndIncrement();
+			if (index < block.size) {
+				return block.get((int) index);
+			}
+			synchronized (state) {
+				if (state.block == block) {
+					state.block = fetchBlock(sequenceName, state);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the current block size of the sequence
+	 *
+	 * @param sequenceName
+	 *            the sequence name
+	 * @return the current block size
+	 */
+	public int getBlockSize(final String sequenceName) {
+		if (sequenceIncrement > 1) {
+			return sequenceIncrement;
+		}
+		final SequenceState state = sequences.get(sequenceName);
+		if (state == null) {
+			return minBlockSize;
+		}
+		return state.multipleValues ? state.blockSize : 1;
+	}
+
+	private Block fetchBlock(final String sequenceName, final SequenceState state) {
+		if (sequenceIncrement > 1) {
+			return new Block(null, jpaUtils.generateId(dialect, sequenceName), sequenceIncrement);
+		}
+		if (!state.multipleValues) {
+			return new Block(null, jpaUtils.generateId(dialect, sequenceName), 1);
+		}
+		final long now = System.nanoTime();
+		if (state.lastRefill != 0) {
+			final long elapsed = now - state.lastRefill;
+			if (elapsed < targetRefillIntervalNanos / 2) {
+				state.blockSize = Math.min(maxBlockSize, state.blockSize * 2);
+			} else if (elapsed > targetRefillIntervalNanos * 4) {
+				state.blockSize = Math.max(minBlockSize, state.blockSize / 2);
+			}
+		}
+		state.lastRefill = now;
+		final long[] ids = jpaUtils.generateIds(dialect, sequenceName, state.blockSize);
+		if (ids.length == 0) {
+			throw new IllegalStateException("Sequence " + sequenceName + " returned no values");
+		}
+		return new Block(ids, 0, ids.length);
+	}
+
+	/**
+	 * Block of reserved IDs - either an array of values or a range starting from <tt>start</tt>
+	 */
+	private static class Block {
+		private static final Block EMPTY = new Block(new long[0], 0, 0);
+
+		private final long[] values;
+		private final long start;
+		private final int size;
+		private final AtomicLong cursor = new AtomicLong();
+
+		Block(final long[] values, final long start, final int size) {
+			this.values = values;
+			this.start = start;
+			this.size = size;
+		}
+
+		long get(final int index) {
+			return values != null ? values[index] : start + index;
+		}
+	}
+
+	private static class SequenceState {
+		private volatile Block block = Block.EMPTY;
+		private volatile int blockSize;
+		private final boolean multipleValues;
+		// guarded by this
+		private long lastRefill;
+
+		SequenceState(final int blockSize, final boolean multipleValues) {
+			this.blockSize = blockSize;
+			this.multipleValues = multipleValues;
+		}
+	}
+}
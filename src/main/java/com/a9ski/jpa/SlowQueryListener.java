@@ -0,0 +1,25 @@
+package com.a9ski.jpa;
+
+/**
+ * Listener notified about operations of {@link JpaUtils} lasting longer than a threshold (see {@link JpaUtils#withSlowQueryListener(long, SlowQueryListener)}). The SQL of the query is rendered by the {@link JpaDialect} only for the slow
+ * operations.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+@FunctionalInterface
+public interface SlowQueryListener {
+	/**
+	 * Called after a slow operation
+	 *
+	 * @param operation
+	 *            the operation (see {@link QueryMetrics#LIST})
+	 * @param entityClass
+	 *            the entity class or <tt>null</tt> if unknown
+	 * @param elapsedNanos
+	 *            the duration of the operation in nanoseconds
+	 * @param sql
+	 *            the SQL of the query or <tt>null</tt> if it is not available (e.g. there is no JPA dialect or the operation is not a single query)
+	 */
+	public void onSlowQuery(final String operation, final Class<?> entityClass, final long elapsedNanos, final String sql);
+}
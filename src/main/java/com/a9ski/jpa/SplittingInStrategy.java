@@ -0,0 +1,56 @@
+package com.a9ski.jpa;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Predicate;
+
+import com.a9ski.utils.ExtCollectionUtils;
+
+/**
+ * IN strategy splitting the values into several IN clauses with at most <tt>maxNumberOfInElements</tt> values joined with OR predicate
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+public class SplittingInStrategy implements InStrategy {
+
+	private final int maxNumberOfInElements;
+
+	/**
+	 * Creates a new strategy
+	 *
+	 * @param maxNumberOfInElements
+	 *            the maximum number of elements in a single IN clause
+	 */
+	public SplittingInStrategy(final int maxNumberOfInElements) {
+		super();
+		if (maxNumberOfInElements <= 0) {
+			throw new IllegalArgumentException("Invalid argument: maxNumberOfInElements must be positive");
+		}
+		this.maxNumberOfInElements = maxNumberOfInElements;
+	}
+
+	/**
+	 * Returns the maximum number of elements in a single IN clause
+	 *
+	 * @return the maximum number of elements in a single IN clause
+	 */
+	public int getMaxNumberOfInElements() {
+		return maxNumberOfInElements;
+	}
+
+	@Override
+	public <T> Predicate in(final CriteriaBuilderHelper cbh, final Expression<T> field, final Collection<T> values) {
+		if (values.size() <= maxNumberOfInElements) {
+			return cbh.inPredicate(field, values);
+		}
+		final List<Predicate> predicates = new ArrayList<>();
+		for (final List<T> subSearchIn : ExtCollectionUtils.split(values, maxNumberOfInElements, ArrayList::new)) {
+			predicates.add(cbh.inPredicate(field, subSearchIn));
+		}
+		return cbh.getCriteriaBuilder().or(predicates.toArray(new Predicate[predicates.size()]));
+	}
+}
@@ -0,0 +1,156 @@
+package com.a9ski.jpa;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.TypedQuery;
+
+import org.slf4j.Logger;
+
+import com.a9ski.utils.NullUtils;
+
+/**
+ * Logs the SQL of the queries at debug level with lower overhead than {@link JpaUtils#logSql(Logger, JpaDialect, TypedQuery)}:
+ * <ul>
+ * <li>The rendered SQL is cached by a key identifying the query plan (e.g. the plan key of {@link QueryPlanCache}), so the JPA dialect renders each distinct query only once. Queries with the same key must have the same SQL text, i.e. the values
+ * must be bound as parameters.</li>
+ * <li>Only a sample of the queries is logged: one in <tt>sampleRate</tt> queries or, in distinct mode, only the first occurrence of each key.</li>
+ * <li>The messages are written to the logger by a background thread. If the queue of the background thread is full the messages are dropped (see {@link #getDropped()}).</li>
+ * </ul>
+ * The SQL is rendered on the calling thread, because the query objects are not thread safe and belong to the entity manager of the caller.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+public class SqlLogger implements AutoCloseable {
+
+	private final Logger logger;
+
+	private final JpaDialect dialect;
+
+	private final int sampleRate;
+
+	private final boolean distinct;
+
+	private final Map<Object, String> cache;
+
+	private final ThreadPoolExecutor executor;
+
+	private final AtomicLong counter = new AtomicLong();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * Creates a new SQL logger
+	 *
+	 * @param logger
+	 *            the logger. If <tt>null</tt> the logger of {@link JpaUtils} is used
+	 * @param dialect
+	 *            the JPA dialect rendering the SQL
+	 * @param sampleRate
+	 *            logs one in <tt>sampleRate</tt> queries. Use <tt>1</tt> for logging all queries. Not used in distinct mode, except for queries without key
+	 * @param distinct
+	 *            logs only the first occurrence of each key
+	 * @param cacheSize
+	 *            the maximum number of cached SQL strings
+	 * @param queueCapacity
+	 *            the maximum number of messages waiting for the background thread
+	 */
+	public SqlLogger(final Logger logger, final JpaDialect dialect, final int sampleRate, final boolean distinct, final int cacheSize, final int queueCapacity) {
+		super();
+		NullUtils.checkNotNull(dialect, "Invalid argument: dialect should not be null");
+		if (sampleRate <= 0) {
+			throw new IllegalArgumentException("Invalid argument: sampleRate must be positive");
+		}
+		if (cacheSize <= 0) {
+			throw new IllegalArgumentException("Invalid argument: cacheSize must be positive");
+		}
+		if (queueCapacity <= 0) {
+			throw new IllegalArgumentException("Invalid argument: queueCapacity must be positive");
+		}
+		this.logger = logger != null ? logger : JpaUtils.LOGGER;
+		this.dialect = dialect;
+		this.sampleRate = sampleRate;
+		this.distinct = distinct;
+		this.cache = new LinkedHashMap<Object, String>(16, 0.75f, true) {
+			private static final long serialVersionUID = 2960431706546263719L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Object, String> eldest) {
+				return size() > cacheSize;
+			}
+		};
+		this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), r -> {
+			final Thread t = new Thread(r, "jpa-sql-logger");
+			t.setDaemon(true);
+			return t;
+		}, (r, e) -> dropped.incrementAndGet());
+	}
+
+	/**
+	 * Logs the SQL of the query if debug level is enabled and the query is sampled
+	 *
+	 * @param q
+	 *            the query
+	 * @param key
+	 *            the key identifying the query plan or <tt>null</tt> if the SQL must not be cached
+	 * @return <tt>true</tt> if the SQL is queued for logging
+	 */
+	public boolean log(final TypedQuery<?> q, final Object key) {
+		if (!logger.isDebugEnabled() || q == null) {
+			return false;
+		}
+		String sql = null;
+		if (key != null) {
+			synchronized (cache) {
+				sql = cache.get(key);
+			}
+		}
+		final boolean sampled = distinct && key != null ? sql == null : counter.getAndIncrement() % sampleRate == 0;
+		if (!sampled) {
+			return false;
+		}
+		if (sql == null) {
+			try {
+				sql = dialect.getSql(q);
+			} catch (final RuntimeException ex) {
+				logger.error("Cannot get query sql", ex);
+				return false;
+			}
+			if (key != null) {
+				synchronized (cache) {
+					cache.put(key, sql);
+				}
+			}
+		}
+		final String message = sql;
+		executor.execute(() -> logger.debug(message));
+		return true;
+	}
+
+	/**
+	 * Returns the number of messages dropped because the queue of the background thread was full
+	 *
+	 * @return the number of dropped messages
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Writes the queued messages and stops the background thread
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
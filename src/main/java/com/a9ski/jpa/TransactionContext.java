@@ -0,0 +1,204 @@
+package com.a9ski.jpa;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.naming.NoInitialContextException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * Access to the transaction bound to the current thread through {@link TransactionSynchronizationRegistry}. The registry of the default instance is looked up in JNDI once and reused. If there is no JNDI (e.g. outside of application server) the
+ * context behaves as if there is no transaction. If the lookup fails for another reason (e.g. it is called from a thread not managed by the container) it is retried at most once per minute.
+ * <p>
+ * The attachments are values bound to the current transaction with {@link TransactionSynchronizationRegistry#putResource(Object, Object)}. They can be used for caching values for the rest of the transaction.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+public class TransactionContext {
+
+	private static final String REGISTRY_JNDI_NAME = "java:comp/TransactionSynchronizationRegistry";
+
+	private static final long LOOKUP_RETRY_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+	private static final TransactionContext DEFAULT = new TransactionContext(null, true);
+
+	private volatile TransactionSynchronizationRegistry registry;
+
+	private volatile boolean lookup;
+
+	private volatile long lastLookup;
+
+	/**
+	 * Creates a context using the provided registry
+	 *
+	 * @param registry
+	 *            the transaction synchronization registry. If <tt>null</tt> the context behaves as if there is no transaction
+	 */
+	public TransactionContext(final TransactionSynchronizationRegistry registry) {
+		this(registry, false);
+	}
+
+	private TransactionContext(final TransactionSynchronizationRegistry registry, final boolean lookup) {
+		super();
+		this.registry = registry;
+		this.lookup = lookup;
+	}
+
+	/**
+	 * Returns the default context using the registry from JNDI
+	 *
+	 * @return the default context
+	 */
+	public static TransactionContext getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Returns the transaction synchronization registry or <tt>null</tt> if it is not available
+	 *
+	 * @return the transaction synchronization registry
+	 */
+	public TransactionSynchronizationRegistry getRegistry() {
+		final TransactionSynchronizationRegistry reg = registry;
+		if (reg != null || !lookup) {
+			return reg;
+		}
+		return lookupRegistry();
+	}
+
+	private synchronized TransactionSynchronizationRegistry lookupRegistry() {
+		final long now = System.nanoTime();
+		if (registry != null || !lookup || (lastLookup != 0 && now - lastLookup < LOOKUP_RETRY_INTERVAL_NANOS)) {
+			return registry;
+		}
+		lastLookup = now;
+		try {
+			registry = (TransactionSynchronizationRegistry) new InitialContext().lookup(REGISTRY_JNDI_NAME);
+			lookup = false;
+		} catch (final NoInitialContextException ex) {
+			// no JNDI at all, there will never be a registry
+			lookup = false;
+			JpaUtils.LOGGER.debug("No JNDI available, transactions are not tracked");
+		} catch (final NamingException | RuntimeException ex) {
+			JpaUtils.LOGGER.debug("Cannot lookup {}", REGISTRY_JNDI_NAME, ex);
+		}
+		return registry;
+	}
+
+	/**
+	 * Returns the key of the transaction bound to the current thread
+	 *
+	 * @return the transaction key or <tt>null</tt> if there is no transaction
+	 */
+	public Object getTransactionKey() {
+		final TransactionSynchronizationRegistry reg = getRegistry();
+		return reg != null ? reg.getTransactionKey() : null;
+	}
+
+	/**
+	 * Returns the ID of the transaction bound to the current thread
+	 *
+	 * @return the ID of the transaction or empty string if there is no transaction
+	 */
+	public String getTransactionId() {
+		final Object key = getTransactionKey();
+		return key != null ? key.toString() : "";
+	}
+
+	/**
+	 * Checks if there is an active transaction bound to the current thread
+	 *
+	 * @return <tt>true</tt> if there is an active transaction
+	 */
+	public boolean isActive() {
+		final TransactionSynchronizationRegistry reg = getRegistry();
+		return reg != null && reg.getTransactionStatus() == Status.STATUS_ACTIVE;
+	}
+
+	/**
+	 * Registers an action executed after the current transaction is committed
+	 *
+	 * @param action
+	 *            the action
+	 * @return <tt>true</tt> if the action is registered, <tt>false</tt> if there is no transaction
+	 */
+	public boolean afterCommit(final Runnable action) {
+		final TransactionSynchronizationRegistry reg = getRegistry();
+		if (reg == null || reg.getTransactionKey() == null) {
+			return false;
+		}
+		reg.registerInterposedSynchronization(new Synchronization() {
+			@Override
+			public void beforeCompletion() {
+				// nothing to do
+			}
+
+			@Override
+			public void afterCompletion(final int status) {
+				if (status == Status.STATUS_COMMITTED) {
+					action.run();
+				}
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Returns a value attached to the current transaction
+	 *
+	 * @param key
+	 *            the attachment key
+	 * @return the attached value or <tt>null</tt> if there is no such value or there is no transaction
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T getAttachment(final Object key) {
+		final TransactionSynchronizationRegistry reg = getRegistry();
+		return reg != null && reg.getTransactionKey() != null ? (T) reg.getResource(key) : null;
+	}
+
+	/**
+	 * Attaches a value to the current transaction
+	 *
+	 * @param key
+	 *            the attachment key
+	 * @param value
+	 *            the value
+	 * @return <tt>true</tt> if the value is attached, <tt>false</tt> if there is no transaction
+	 */
+	public boolean putAttachment(final Object key, final Object value) {
+		final TransactionSynchronizationRegistry reg = getRegistry();
+		if (reg == null || reg.getTransactionKey() == null) {
+			return false;
+		}
+		reg.putResource(key, value);
+		return true;
+	}
+
+	/**
+	 * Returns a value attached to the current transaction. If there is no such value it is computed by the <tt>supplier</tt> and attached to the transaction. Without transaction the value is computed on every call.
+	 *
+	 * @param key
+	 *            the attachment key
+	 * @param supplier
+	 *            the supplier of the value
+	 * @return the attached value
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T computeAttachmentIfAbsent(final Object key, final Supplier<T> supplier) {
+		final TransactionSynchronizationRegistry reg = getRegistry();
+		if (reg == null || reg.getTransactionKey() == null) {
+			return supplier.get();
+		}
+		T value = (T) reg.getResource(key);
+		if (value == null) {
+			value = supplier.get();
+			reg.putResource(key, value);
+		}
+		return value;
+	}
+}
@@ -0,0 +1,206 @@
+package com.a9ski.jpa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Helpers for generating the upsert statements of the common databases in {@link DatabaseDialect#createUpsertSql(String, List, List, List, String, int)}. The values are bound as positional parameters <tt>?1</tt>, <tt>?2</tt>, ... row by
+ * row in the order of the insert columns.
+ *
+ * @author Kiril Arabadzhiyski
+ *
+ */
+public final class UpsertSql {
+
+	private UpsertSql() {
+		super();
+	}
+
+	/**
+	 * Generates <tt>INSERT ... ON CONFLICT (...) DO UPDATE</tt> statement supported by PostgreSQL 9.5+ and SQLite 3.24+. See {@link DatabaseDialect#createUpsertSql(String, List, List, List, String, int)}
+	 *
+	 * @param tableName
+	 *            the table name
+	 * @param keyColumns
+	 *            the columns of the natural key
+	 * @param insertColumns
+	 *            the columns set when a row is inserted
+	 * @param updateColumns
+	 *            the columns set when a row is updated
+	 * @param versionColumn
+	 *            the version column incremented when a row is updated or <tt>null</tt>
+	 * @param rows
+	 *            the number of rows
+	 * @return the SQL
+	 */
+	public static String createInsertOnConflictSql(final String tableName, final List<String> keyColumns, final List<String> insertColumns, final List<String> updateColumns, final String versionColumn, final int rows) {
+		final StringBuilder sql = new StringBuilder("INSERT INTO ").append(tableName).append(" (").append(String.join(", ", insertColumns)).append(") VALUES ");
+		appendValues(sql, insertColumns.size(), rows);
+		sql.append(" ON CONFLICT (").append(String.join(", ", keyColumns)).append(") DO ");
+		if (updateColumns.isEmpty() && versionColumn == null) {
+			return sql.append("NOTHING").toString();
+		}
+		final List<String> set = updateColumns.stream().map(c -> c + " = EXCLUDED." + c).collect(Collectors.toCollection(ArrayList::new));
+		if (versionColumn != null) {
+			set.add(versionColumn + " = " + tableName + "." + versionColumn + " + 1");
+		}
+		return sql.append("UPDATE SET ").append(String.join(", ", set)).toString();
+	}
+
+	/**
+	 * Generates SQL standard <tt>MERGE</tt> statement with <tt>VALUES</tt> source supported by H2. SQL Server requires the statement to be terminated (see {@link #createSqlServerMergeSql(String, List, List, List, String, int)}) and DB2
+	 * requires typed parameters in the <tt>VALUES</tt> source (see {@link #createDb2MergeSql(String, List, List, List, String, int, Function)}). See {@link DatabaseDialect#createUpsertSql(String, List, List, List, String, int)}
+	 *
+	 * @param tableName
+	 *            the table name
+	 * @param keyColumns
+	 *            the columns of the natural key
+	 * @param insertColumns
+	 *            the columns set when a row is inserted
+	 * @param updateColumns
+	 *            the columns set when a row is updated
+	 * @param versionColumn
+	 *            the version column incremented when a row is updated or <tt>null</tt>
+	 * @param rows
+	 *            the number of rows
+	 * @return the SQL
+	 */
+	public static String createMergeSql(final String tableName, final List<String> keyColumns, final List<String> insertColumns, final List<String> updateColumns, final String versionColumn, final int rows) {
+		final StringBuilder sql = new StringBuilder();
+		appendValues(sql, insertColumns.size(), rows);
+		return createMergeSql(tableName, keyColumns, insertColumns, updateColumns, versionColumn, sql);
+	}
+
+	/**
+	 * Generates <tt>MERGE</tt> statement for SQL Server 2008+, terminated with semicolon as required by SQL Server. See {@link #createMergeSql(String, List, List, List, String, int)}
+	 *
+	 * @param tableName
+	 *            the table name
+	 * @param keyColumns
+	 *            the columns of the natural key
+	 * @param insertColumns
+	 *            the columns set when a row is inserted
+	 * @param updateColumns
+	 *            the columns set when a row is updated
+	 * @param versionColumn
+	 *            the version column incremented when a row is updated or <tt>null</tt>
+	 * @param rows
+	 *            the number of rows
+	 * @return the SQL
+	 */
+	public static String createSqlServerMergeSql(final String tableName, final List<String> keyColumns, final List<String> insertColumns, final List<String> updateColumns, final String versionColumn, final int rows) {
+		return createMergeSql(tableName, keyColumns, insertColumns, updateColumns, versionColumn, rows) + ";";
+	}
+
+	/**
+	 * Generates <tt>MERGE</tt> statement for DB2. DB2 cannot infer the types of untyped parameter markers in the <tt>VALUES</tt> source, so every parameter is cast to the type of its column. See
+	 * {@link #createMergeSql(String, List, List, List, String, int)}
+	 *
+	 * @param tableName
+	 *            the table name
+	 * @param keyColumns
+	 *            the columns of the natural key
+	 * @param insertColumns
+	 *            the columns set when a row is inserted
+	 * @param updateColumns
+	 *            the columns set when a row is updated
+	 * @param versionColumn
+	 *            the version column incremented when a row is updated or <tt>null</tt>
+	 * @param rows
+	 *            the number of rows
+	 * @param columnType
+	 *            returns the SQL type of given insert column, e.g. <tt>VARCHAR(50)</tt>
+	 * @return the SQL
+	 * @throws IllegalArgumentException
+	 *             thrown if the type of an insert column is unknown
+	 */
+	public static String createDb2MergeSql(final String tableName, final List<String> keyColumns, final List<String> insertColumns, final List<String> updateColumns, final String versionColumn, final int rows,
+			final Function<String, String> columnType) {
+		final StringBuilder sql = new StringBuilder();
+		appendTypedValues(sql, insertColumns, rows, columnType);
+		return createMergeSql(tableName, keyColumns, insertColumns, updateColumns, versionColumn, sql);
+	}
+
+	/**
+	 * Generates <tt>MERGE</tt> statement with given <tt>VALUES</tt> rows
+	 *
+	 * @param tableName
+	 *            the table name
+	 * @param keyColumns
+	 *            the columns of the natural key
+	 * @param insertColumns
+	 *            the columns set when a row is inserted
+	 * @param updateColumns
+	 *            the columns set when a row is updated
+	 * @param versionColumn
+	 *            the version column incremented when a row is updated or <tt>null</tt>
+	 * @param values
+	 *            the rows of the <tt>VALUES</tt> source, e.g. <tt>(?1, ?2), (?3, ?4)</tt>
+	 * @return the SQL
+	 */
+	public static String createMergeSql(final String tableName, final List<String> keyColumns, final List<String> insertColumns, final List<String> updateColumns, final String versionColumn, final CharSequence values) {
+		final StringBuilder sql = new StringBuilder("MERGE INTO ").append(tableName).append(" t USING (VALUES ").append(values);
+		sql.append(") s (").append(String.join(", ", insertColumns)).append(") ON (");
+		sql.append(keyColumns.stream().map(c -> "t." + c + " = s." + c).collect(Collectors.joining(" AND "))).append(')');
+		final List<String> set = updateColumns.stream().map(c -> "t." + c + " = s." + c).collect(Collectors.toCollection(ArrayList::new));
+		if (versionColumn != null) {
+			set.add("t." + versionColumn + " = t." + versionColumn + " + 1");
+		}
+		if (!set.isEmpty()) {
+			sql.append(" WHEN MATCHED THEN UPDATE SET ").append(String.join(", ", set));
+		}
+		sql.append(" WHEN NOT MATCHED THEN INSERT (").append(String.join(", ", insertColumns)).append(") VALUES (");
+		sql.append(insertColumns.stream().map(c -> "s." + c).collect(Collectors.joining(", "))).append(')');
+		return sql.toString();
+	}
+
+	/**
+	 * Appends <tt>rows</tt> groups of <tt>columns</tt> positional parameters, e.g. <tt>(?1, ?2), (?3, ?4)</tt>
+	 *
+	 * @param sql
+	 *            the SQL builder
+	 * @param columns
+	 *            the number of columns
+	 * @param rows
+	 *            the number of rows
+	 */
+	public static void appendValues(final StringBuilder sql, final int columns, final int rows) {
+		int p = 1;
+		for (int r = 0; r < rows; r++) {
+			sql.append(r > 0 ? ", (" : "(");
+			for (int c = 0; c < columns; c++) {
+				sql.append(c > 0 ? ", ?" : "?").append(p++);
+			}
+			sql.append(')');
+		}
+	}
+
+	/**
+	 * Appends <tt>rows</tt> groups of positional parameters of <tt>columns</tt> cast to the column types, e.g. <tt>(CAST(?1 AS VARCHAR(50)), CAST(?2 AS BIGINT))</tt>
+	 *
+	 * @param sql
+	 *            the SQL builder
+	 * @param columns
+	 *            the columns
+	 * @param rows
+	 *            the number of rows
+	 * @param columnType
+	 *            returns the SQL type of given column
+	 */
+	public static void appendTypedValues(final StringBuilder sql, final List<String> columns, final int rows, final Function<String, String> columnType) {
+		int p = 1;
+		for (int r = 0; r < rows; r++) {
+			sql.append(r > 0 ? ", (" : "(");
+			for (int c = 0; c < columns.size(); c++) {
+				final String type = columnType.apply(columns.get(c));
+				if (type == null) {
+					throw new IllegalArgumentException(String.format("Invalid argument: the type of column %s is unknown", columns.get(c)));
+				}
+				sql.append(c > 0 ? ", CAST(?" : "CAST(?").append(p++).append(" AS ").append(type).append(')');
+			}
+			sql.append(')');
+		}
+	}
+}
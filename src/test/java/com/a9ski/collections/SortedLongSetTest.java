@@ -0,0 +1,40 @@
+package com.a9ski.collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+public class SortedLongSetTest {
+
+	@Test
+	public void testOf() {
+		final SortedLongSet s = SortedLongSet.of(5, 1, 3, 1, 5);
+		assertArrayEquals(new long[] { 1, 3, 5 }, s.toLongArray());
+		assertEquals(3, s.size());
+		assertTrue(s.contains(3L));
+		assertFalse(s.contains(2L));
+		assertFalse(s.contains("3"));
+	}
+
+	@Test
+	public void testRanges() {
+		final SortedLongSet s = SortedLongSet.copyOf(Arrays.asList(7L, 1L, 2L, 3L, 4L, 10L, 8L));
+		assertEquals(Arrays.asList(new LongRange(1, 4), new LongRange(7, 8), new LongRange(10, 10)), s.ranges());
+		assertTrue(SortedLongSet.of().ranges().isEmpty());
+	}
+
+	@Test
+	public void testEquals() {
+		final SortedLongSet s = SortedLongSet.of(1, 2, 3);
+		final HashSet<Long> h = new HashSet<>(Arrays.asList(3L, 2L, 1L));
+		assertEquals(h, s);
+		assertEquals(s, h);
+		assertEquals(h.hashCode(), s.hashCode());
+	}
+}
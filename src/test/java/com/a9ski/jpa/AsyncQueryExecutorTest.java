@@ -0,0 +1,141 @@
+package com.a9ski.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.persistence.EntityManager;
+import javax.persistence.QueryTimeoutException;
+
+import org.junit.Test;
+
+public class AsyncQueryExecutorTest {
+
+	@Test
+	public void testEntityManagerPerTask() throws Exception {
+		try (final AsyncQueryExecutor executor = new AsyncQueryExecutor(() -> mock(EntityManager.class), 2, 2, 0)) {
+			final CompletableFuture<EntityManager> f1 = executor.submit(em -> em);
+			final CompletableFuture<EntityManager> f2 = executor.submit(em -> em);
+			final EntityManager em1 = f1.get(5, TimeUnit.SECONDS);
+			final EntityManager em2 = f2.get(5, TimeUnit.SECONDS);
+			assertNotSame(em1, em2);
+			verify(em1).close();
+			verify(em2).close();
+		}
+	}
+
+	@Test
+	public void testBackpressure() throws Exception {
+		try (final AsyncQueryExecutor executor = new AsyncQueryExecutor(() -> mock(EntityManager.class), 1, 0, 0)) {
+			final CountDownLatch release = new CountDownLatch(1);
+			final CompletableFuture<Integer> first = executor.submit(em -> {
+				await(release);
+				return 1;
+			});
+			final AtomicBoolean submitted = new AtomicBoolean();
+			final Thread caller = new Thread(() -> {
+				executor.submit(em -> 2).join();
+				submitted.set(true);
+			});
+			caller.start();
+			caller.join(200);
+			assertFalse(submitted.get());
+			release.countDown();
+			caller.join(5000);
+			assertTrue(submitted.get());
+			assertEquals(Integer.valueOf(1), first.get());
+		}
+	}
+
+	@Test
+	public void testCancelWaitingQuery() throws Exception {
+		try (final AsyncQueryExecutor executor = new AsyncQueryExecutor(() -> mock(EntityManager.class), 1, 1, 0)) {
+			final CountDownLatch release = new CountDownLatch(1);
+			final CompletableFuture<Integer> first = executor.submit(em -> {
+				await(release);
+				return 1;
+			});
+			final AtomicBoolean executed = new AtomicBoolean();
+			final CompletableFuture<Integer> second = executor.submit(em -> {
+				executed.set(true);
+				return 2;
+			});
+			assertTrue(second.cancel(true));
+			release.countDown();
+			assertEquals(Integer.valueOf(1), first.get(5, TimeUnit.SECONDS));
+			// the third query runs after the cancelled one was skipped
+			assertEquals(Integer.valueOf(3), executor.submit(em -> 3).get(5, TimeUnit.SECONDS));
+			assertFalse(executed.get());
+		}
+	}
+
+	@Test(expected = CancellationException.class)
+	public void testCancelRunningQuery() throws Exception {
+		try (final AsyncQueryExecutor executor = new AsyncQueryExecutor(() -> mock(EntityManager.class), 1, 0, 0)) {
+			final CountDownLatch started = new CountDownLatch(1);
+			final CompletableFuture<Integer> f = executor.submit(em -> {
+				started.countDown();
+				try {
+					Thread.sleep(10000);
+				} catch (final InterruptedException ex) {
+					return -1;
+				}
+				return 1;
+			});
+			started.await(5, TimeUnit.SECONDS);
+			f.cancel(true);
+			// the interrupted thread is released
+			assertEquals(Integer.valueOf(2), executor.submit(em -> 2).get(5, TimeUnit.SECONDS));
+			f.get();
+		}
+	}
+
+	@Test
+	public void testQueueTimeout() throws Exception {
+		try (final AsyncQueryExecutor executor = new AsyncQueryExecutor(() -> mock(EntityManager.class), 1, 1, 50)) {
+			final CompletableFuture<Integer> first = executor.submit(em -> {
+				await(new CountDownLatch(1), 200);
+				return 1;
+			});
+			final CompletableFuture<Integer> second = executor.submit(em -> 2);
+			assertEquals(Integer.valueOf(1), first.get(5, TimeUnit.SECONDS));
+			try {
+				second.get(5, TimeUnit.SECONDS);
+			} catch (final ExecutionException ex) {
+				assertTrue(ex.getCause() instanceof QueryTimeoutException);
+				return;
+			}
+			throw new AssertionError("QueryTimeoutException expected");
+		}
+	}
+
+	@Test
+	public void testQueryTimeoutHint() {
+		try (final AsyncQueryExecutor executor = new AsyncQueryExecutor(() -> mock(EntityManager.class), 1, 0, 1500)) {
+			final QueryConfig qc = executor.<Object> withQueryTimeout(cao -> new QueryConfig(null, null, null, false)).apply(null);
+			assertEquals(1500L, qc.getHints().get(QueryConfig.QUERY_TIMEOUT_HINT));
+		}
+	}
+
+	private static void await(final CountDownLatch latch) {
+		await(latch, 5000);
+	}
+
+	private static void await(final CountDownLatch latch, final long millis) {
+		try {
+			latch.await(millis, TimeUnit.MILLISECONDS);
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
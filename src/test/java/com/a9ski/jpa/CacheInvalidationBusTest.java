@@ -0,0 +1,96 @@
+package com.a9ski.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManagerFactory;
+
+import org.junit.Test;
+
+public class CacheInvalidationBusTest {
+
+	@Test
+	public void testCoalescing() {
+		final LoopbackInvalidationChannel channel = new LoopbackInvalidationChannel();
+		final EntityManagerFactory emf = mock(EntityManagerFactory.class);
+		when(emf.getCache()).thenReturn(mock(Cache.class));
+		try (CacheInvalidationBus bus = new CacheInvalidationBus(emf, null, channel, 60_000)) {
+			bus.publish(CacheInvalidation.of(String.class, 1, 1));
+			bus.publish(CacheInvalidation.of(String.class, 1, 3));
+			bus.publish(CacheInvalidation.of(String.class, 1, 2));
+			// unknown version makes the invalidation unconditional
+			bus.publish(CacheInvalidation.of(String.class, 2, 4));
+			bus.publish(CacheInvalidation.of(String.class, 2, 0));
+			bus.publish(CacheInvalidation.of(String.class, 2, 5));
+			bus.publish(CacheInvalidation.of(Integer.class, 1, 1));
+			bus.publish(CacheInvalidation.of(Integer.class));
+			bus.flush();
+
+			assertEquals(1, channel.getPublished().size());
+			final Collection<CacheInvalidation> batch = channel.getPublished().get(0);
+			assertEquals(new HashSet<>(Arrays.asList(CacheInvalidation.of(String.class, 1, 3), CacheInvalidation.of(String.class, 2, 0), CacheInvalidation.of(Integer.class))), new HashSet<>(batch));
+
+			bus.publish(CacheInvalidation.of(String.class, 2, 1));
+			bus.publish(CacheInvalidation.all());
+			bus.flush();
+			assertEquals(Arrays.asList(CacheInvalidation.all()), channel.getPublished().get(1));
+
+			// nothing is sent when there are no events
+			bus.flush();
+			assertEquals(2, channel.getPublished().size());
+		}
+	}
+
+	@Test
+	public void testReceive() {
+		final LoopbackInvalidationChannel channel = new LoopbackInvalidationChannel();
+		final EntityManagerFactory emf = mock(EntityManagerFactory.class);
+		final Cache cache = mock(Cache.class);
+		when(emf.getCache()).thenReturn(cache);
+		final EntityCache entityCache = new EntityCache(10).setTtl(String.class, 60_000);
+		entityCache.put(String.class, 1, "v2", 2, entityCache.stamp(String.class, 1));
+		entityCache.put(String.class, 2, "v2", 2, entityCache.stamp(String.class, 2));
+
+		try (CacheInvalidationBus bus = new CacheInvalidationBus(emf, entityCache, channel, 0)) {
+			// older version does not evict the cached entity
+			bus.publish(CacheInvalidation.of(String.class, 1, 2));
+			assertNotNull(entityCache.get(String.class, 1));
+			bus.publish(CacheInvalidation.of(String.class, 2, 3));
+			assertNull(entityCache.get(String.class, 2));
+			verify(cache).evict(String.class, 2L);
+		}
+	}
+
+	@Test
+	public void testPublishAfterCommitWithoutTransaction() {
+		final LoopbackInvalidationChannel channel = new LoopbackInvalidationChannel();
+		final EntityManagerFactory emf = mock(EntityManagerFactory.class);
+		try (CacheInvalidationBus bus = new CacheInvalidationBus(emf, null, channel, 0)) {
+			try {
+				bus.publishAfterCommit(CacheInvalidation.of(String.class, 1, 2));
+				fail("the invalidation cannot be deferred without transaction");
+			} catch (final IllegalStateException ex) {
+				// expected
+			}
+			assertTrue(channel.getPublished().isEmpty());
+		}
+	}
+
+	@Test
+	public void testEncoding() {
+		for (final CacheInvalidation e : Arrays.asList(CacheInvalidation.all(), CacheInvalidation.of(String.class), CacheInvalidation.of(String.class, 42, 7))) {
+			assertEquals(e, MulticastInvalidationChannel.decode(MulticastInvalidationChannel.encode(e)));
+		}
+	}
+}
@@ -1,10 +1,28 @@
 package com.a9ski.jpa;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 
+import javax.persistence.Parameter;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.ParameterExpression;
+import javax.persistence.criteria.Predicate;
+
+import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Test;
 
 public class CriteriaBuilderHelperTest {
@@ -51,4 +69,35 @@ public class CriteriaBuilderHelperTest {
 		assertEquals("%simple%search%text\\%", cph.createEndsWithPattern("simple search text%", '\\'));
 	}
 
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testParameterBinding() {
+		final CriteriaBuilder cb = mock(CriteriaBuilder.class);
+		when(cb.parameter(any(Class.class), anyString())).thenAnswer(inv -> {
+			final ParameterExpression<?> p = mock(ParameterExpression.class);
+			when(p.getName()).thenReturn(inv.getArgument(1));
+			return p;
+		});
+		final Expression<Long> field = mock(Expression.class);
+
+		final List<Pair<Parameter<Object>, Object>> params = new ArrayList<>();
+		final CriteriaBuilderHelper cbh = new CriteriaBuilderHelper(cb, Locale.ENGLISH, new ArrayList<Predicate>(), 100, params);
+		assertTrue(cbh.isParameterBinding());
+
+		cbh.equal(field, 42L);
+		cbh.in(field, Arrays.asList(1L, 2L, 3L));
+
+		assertEquals(2, params.size());
+		assertEquals("cbh_p0", params.get(0).getKey().getName());
+		assertEquals(42L, params.get(0).getValue());
+		assertEquals("cbh_p1", params.get(1).getKey().getName());
+		assertEquals(Arrays.asList(1L, 2L, 3L), params.get(1).getValue());
+		verify(cb).equal(eq(field), any(Expression.class));
+	}
+
+	@Test
+	public void testNoParameterBinding() {
+		final CriteriaBuilderHelper cbh = new CriteriaBuilderHelper(null, Locale.ENGLISH);
+		assertFalse(cbh.isParameterBinding());
+	}
 }
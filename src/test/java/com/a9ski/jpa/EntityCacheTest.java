@@ -0,0 +1,100 @@
+package com.a9ski.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.stream.LongStream;
+
+import org.junit.Test;
+
+public class EntityCacheTest {
+
+	private static class Base {
+	}
+
+	private static class Derived extends Base {
+	}
+
+	@Test
+	public void testOnlyRegisteredClassesAreCached() {
+		final EntityCache cache = new EntityCache(10).setTtl(Base.class, 60_000);
+		assertTrue(cache.isCached(Base.class));
+		assertFalse(cache.isCached(Derived.class));
+
+		cache.put(Derived.class, 1, new Derived(), 0, cache.stamp(Derived.class, 1));
+		assertNull(cache.get(Derived.class, 1));
+		cache.put(Base.class, 1, new Base(), 0, cache.stamp(Base.class, 1));
+		assertNotNull(cache.get(Base.class, 1));
+		assertFalse(cache.get(Base.class, 1).isExpired());
+	}
+
+	@Test
+	public void testInvalidation() {
+		final EntityCache cache = new EntityCache(10).setTtl(Base.class, 60_000);
+		final long stamp = cache.stamp(Base.class, 1);
+		cache.put(Base.class, 1, new Base(), 3, stamp);
+		assertEquals(3, cache.get(Base.class, 1).getVersion());
+
+		// saving a subclass entity removes it from the cache of the superclass
+		cache.invalidate(Derived.class, 1);
+		assertNull(cache.get(Base.class, 1));
+
+		// an entity loaded before the invalidation could be stale
+		cache.put(Base.class, 1, new Base(), 3, stamp);
+		assertNull(cache.get(Base.class, 1));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testInvalidationOfOtherSegment() {
+		final EntityCache cache = new EntityCache(1024).setTtl(Base.class, 60_000);
+		final long stamp = cache.stamp(Base.class, 1);
+		cache.invalidate(Base.class, 1);
+
+		// the invalidation does not prevent caching of entities loaded concurrently in the other segments
+		final long other = LongStream.range(2, 100).filter(id -> cache.stamp(Base.class, id) == stamp).findFirst().getAsLong();
+		cache.put(Base.class, other, new Base(), 1, stamp);
+		assertEquals(1, cache.get(Base.class, other).getVersion());
+		cache.put(Base.class, 1, new Base(), 1, stamp);
+		assertNull(cache.get(Base.class, 1));
+	}
+
+	@Test
+	public void testEviction() {
+		final EntityCache cache = new EntityCache(2).setTtl(Base.class, 60_000);
+		cache.put(Base.class, 1, new Base(), 0, cache.stamp(Base.class, 1));
+		cache.put(Base.class, 2, new Base(), 0, cache.stamp(Base.class, 2));
+		cache.get(Base.class, 1);
+		cache.put(Base.class, 3, new Base(), 0, cache.stamp(Base.class, 3));
+		assertEquals(2, cache.size());
+		assertNotNull(cache.get(Base.class, 1));
+		assertNull(cache.get(Base.class, 2));
+	}
+
+	@Test
+	public void testSegmentedEviction() {
+		final EntityCache cache = new EntityCache(1000).setTtl(Base.class, 60_000);
+		for (int id = 1; id <= 5000; id++) {
+			cache.put(Base.class, id, new Base(), 0, cache.stamp(Base.class, id));
+		}
+		assertTrue(cache.size() <= 1000);
+		// the recently added entities are kept
+		assertNotNull(cache.get(Base.class, 5000));
+		assertNull(cache.get(Base.class, 1));
+	}
+
+	@Test
+	public void testPutReplacesEntry() {
+		final EntityCache cache = new EntityCache(10).setTtl(Base.class, 60_000);
+		cache.put(Base.class, 1, new Base(), 1, cache.stamp(Base.class, 1));
+		final Base reloaded = new Base();
+		cache.put(Base.class, 1, reloaded, 2, cache.stamp(Base.class, 1));
+		assertSame(reloaded, cache.get(Base.class, 1).getEntity());
+		assertEquals(2, cache.get(Base.class, 1).getVersion());
+		assertEquals(1, cache.size());
+	}
+}
@@ -0,0 +1,73 @@
+package com.a9ski.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+
+import org.junit.Test;
+
+public class EntityInstantiatorTest {
+
+	public static class PublicEntity {
+		private final String name = "public";
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	public static class ProtectedEntity {
+		private final String name;
+
+		protected ProtectedEntity() {
+			name = "protected";
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	public abstract static class AbstractEntity {
+	}
+
+	public static class FailingEntity {
+		public FailingEntity() {
+			throw new IllegalStateException("failed");
+		}
+	}
+
+	@Test
+	public void testPublicConstructor() {
+		final PublicEntity e1 = EntityInstantiator.newInstance(PublicEntity.class);
+		final PublicEntity e2 = EntityInstantiator.newInstance(PublicEntity.class);
+		assertNotNull(e1);
+		assertNotSame(e1, e2);
+		assertEquals("public", e1.getName());
+	}
+
+	@Test
+	public void testProtectedConstructor() {
+		assertEquals("protected", EntityInstantiator.newInstance(ProtectedEntity.class).getName());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testAbstractClass() {
+		EntityInstantiator.newInstance(AbstractEntity.class);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoDefaultConstructor() {
+		EntityInstantiator.newInstance(Integer.class);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testConstructorException() {
+		EntityInstantiator.newInstance(FailingEntity.class);
+	}
+
+	@Test
+	public void testCreateEntity() {
+		assertNotNull(new JpaUtils(() -> null).createEntity(JpaUtilsTest.TestEntity.class));
+	}
+}
@@ -0,0 +1,81 @@
+package com.a9ski.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.a9ski.jpa.InMemoryQueryMetrics.Histogram;
+
+public class InMemoryQueryMetricsTest {
+
+	@Test
+	public void testSmallValuesAreExact() {
+		final Histogram h = new Histogram();
+		for (int i = 1; i <= 10; i++) {
+			h.record(i);
+		}
+		assertEquals(10, h.getCount());
+		assertEquals(10, h.getMax());
+		assertEquals(5.5, h.getMean(), 0.0001);
+		assertEquals(5, h.getValueAtPercentile(50));
+		assertEquals(9, h.getValueAtPercentile(90));
+		assertEquals(10, h.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void testPercentileError() {
+		final Random r = new Random(42);
+		final long[] values = new long[10000];
+		final Histogram h = new Histogram();
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (long) Math.abs(r.nextGaussian() * 5_000_000) + 100_000;
+			h.record(values[i]);
+		}
+		Arrays.sort(values);
+		for (final double p : new double[] { 50, 90, 99, 99.9 }) {
+			final long expected = values[(int) Math.ceil(values.length * p / 100) - 1];
+			final long actual = h.getValueAtPercentile(p);
+			assertTrue(p + ": " + expected + " vs " + actual, actual >= expected && actual <= expected * 1.033);
+		}
+		assertEquals(values[values.length - 1], h.getMax());
+	}
+
+	@Test
+	public void testBuckets() {
+		for (final long v : new long[] { 0, 1, 31, 32, 33, 63, 64, 1000, 123456789, Long.MAX_VALUE }) {
+			final int index = Histogram.index(v);
+			assertTrue(v + " <= " + Histogram.highestValue(index), v <= Histogram.highestValue(index));
+			if (index > 0) {
+				assertTrue(v > Histogram.highestValue(index - 1));
+			}
+		}
+	}
+
+	@Test
+	public void testRecord() {
+		final InMemoryQueryMetrics m = new InMemoryQueryMetrics();
+		m.recordOperation(QueryMetrics.LIST, String.class, 1000, 20);
+		m.recordOperation(QueryMetrics.LIST, String.class, 3000, 40);
+		m.recordInListSize(String.class, 500);
+		m.recordCacheAccess(String.class, true);
+		m.recordCacheAccess(String.class, false);
+		m.recordCacheAccess(String.class, true);
+
+		assertEquals(2, m.getLatency(QueryMetrics.LIST, String.class).getCount());
+		assertEquals(3000, m.getLatency(QueryMetrics.LIST, String.class).getMax());
+		assertEquals(30, m.getRows(QueryMetrics.LIST, String.class).getMean(), 0.0001);
+		assertEquals(500, m.getInListSizes(String.class).getMax());
+		assertEquals(2, m.getCacheHits(String.class));
+		assertEquals(1, m.getCacheMisses(String.class));
+		assertNull(m.getLatency(QueryMetrics.COUNT, String.class));
+
+		m.reset();
+		assertNull(m.getLatency(QueryMetrics.LIST, String.class));
+		assertEquals(0, m.getCacheHits(String.class));
+	}
+}
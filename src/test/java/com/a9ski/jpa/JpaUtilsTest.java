@@ -0,0 +1,884 @@
+package com.a9ski.jpa;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.persistence.Column;
+import javax.persistence.EntityGraph;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.FlushModeType;
+import javax.persistence.Query;
+import javax.persistence.Table;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.CriteriaUpdate;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Order;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.metamodel.SingularAttribute;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+import com.a9ski.entities.AuditableEntity;
+import com.a9ski.entities.IdentifiableEntity;
+import com.a9ski.entities.filters.PageableFilter;
+import com.a9ski.exceptions.ObjectAlreadyModifiedException;
+
+public class JpaUtilsTest {
+
+	public static class TestEntity extends IdentifiableEntity {
+		private static final long serialVersionUID = 1L;
+
+		public TestEntity() {
+			super();
+		}
+
+		TestEntity(final long id) {
+			setId(id);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testLoadEntities() {
+		final EntityManager em = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		final TestEntity e1 = new TestEntity(1);
+		final TestEntity e2 = new TestEntity(2);
+		final TestEntity e3 = new TestEntity(3);
+		// entity 1 is in the shared cache
+		when(em.getEntityManagerFactory().getCache().contains(TestEntity.class, 1L)).thenReturn(true);
+		doReturn(e1).when(em).find(TestEntity.class, 1L);
+		when(em.createQuery(any(CriteriaQuery.class)).getResultList()).thenReturn(Arrays.asList(e3, e2));
+
+		final List<TestEntity> entities = new JpaUtils(em).loadEntities(TestEntity.class, 3L, 1L, 4L, 2L, 3L);
+
+		assertEquals(Arrays.asList(e3, e1, null, e2, e3), entities);
+		assertSame(e1, entities.get(1));
+		verify(em, never()).find(TestEntity.class, 2L);
+		verify(em, times(1)).createQuery(any(CriteriaQuery.class));
+	}
+
+	@Test
+	public void testEntityCacheRefresh() {
+		final EntityManager em = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		final EntityManager loader = mock(EntityManager.class);
+		when(em.getEntityManagerFactory().createEntityManager()).thenReturn(loader);
+		final TestEntity v1 = new TestEntity(1);
+		final TestEntity v2 = new TestEntity(1);
+		when(loader.find(TestEntity.class, 1L)).thenReturn(v1, v2);
+		final EntityCache cache = new EntityCache(10).setTtl(TestEntity.class, 60_000);
+		final JpaUtils jpaUtils = new JpaUtils(() -> em).withEntityCache(cache);
+
+		assertSame(v1, jpaUtils.loadEntity(1, TestEntity.class, false));
+		assertSame(v1, jpaUtils.loadEntity(1, TestEntity.class, false));
+		// the entry is replaced by the reloaded entity instead of being evicted
+		assertSame(v2, jpaUtils.loadEntity(1, TestEntity.class, true));
+		assertSame(v2, jpaUtils.loadEntity(1, TestEntity.class, false));
+		assertEquals(1, cache.size());
+		// the loaded entities are detached before they are shared
+		verify(loader, times(2)).clear();
+		verify(loader, times(2)).close();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testEntityCacheResourceLocalTransaction() throws ObjectAlreadyModifiedException {
+		final EntityManager em = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		final EntityManager loader = mock(EntityManager.class);
+		when(em.getEntityManagerFactory().createEntityManager()).thenReturn(loader);
+		final TestEntity committed = new TestEntity(1);
+		final TestEntity saved = new TestEntity(1);
+		when(loader.find(TestEntity.class, 1L)).thenReturn(committed);
+		doReturn(saved).when(em).find(TestEntity.class, 1L);
+		final EntityCache cache = new EntityCache(10).setTtl(TestEntity.class, 60_000);
+		final JpaUtils jpaUtils = new JpaUtils(() -> em).withEntityCache(cache);
+
+		assertSame(committed, jpaUtils.loadEntity(1, TestEntity.class, false));
+		// the loader would see only the committed row, so the entity manager of the transaction is used
+		when(em.getTransaction().isActive()).thenReturn(true);
+		when(em.contains(saved)).thenReturn(true);
+		jpaUtils.save(saved, false);
+		assertSame(saved, jpaUtils.loadEntity(1, TestEntity.class, false));
+		when(em.createQuery(any(CriteriaQuery.class)).getResultList()).thenReturn(Arrays.asList(saved));
+		assertEquals(Arrays.asList(saved), jpaUtils.loadEntities(TestEntity.class, 1L));
+		assertEquals(0, cache.size());
+		verify(loader, times(1)).find(TestEntity.class, 1L);
+	}
+
+	@Test
+	public void testFindOrCreateEntityBypassesEntityCache() {
+		final EntityManager em = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		final TestEntity cached = new TestEntity(1);
+		final TestEntity managed = new TestEntity(1);
+		doReturn(managed).when(em).find(TestEntity.class, 1L);
+		final EntityCache cache = new EntityCache(10).setTtl(TestEntity.class, 60_000);
+		cache.put(TestEntity.class, 1, cached, 0, cache.stamp(TestEntity.class, 1));
+		final JpaUtils jpaUtils = new JpaUtils(() -> em).withEntityCache(cache);
+
+		// the entity is modified usually, so the managed instance is returned
+		assertSame(managed, jpaUtils.findOrCreateEntity(TestEntity.class, 1L, false));
+		assertSame(managed, jpaUtils.findOrCreateEntity(TestEntity.class, 1L, true));
+		assertSame(cached, cache.get(TestEntity.class, 1).getEntity());
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Test
+	public void testLoadEntitiesInStrategyOfDialect() {
+		final EntityManager em = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		final CriteriaBuilder cb = mock(CriteriaBuilder.class, RETURNS_DEEP_STUBS);
+		final Root<TestEntity> root = mock(Root.class);
+		final Path<Object> id = mock(Path.class);
+		when(em.getCriteriaBuilder()).thenReturn(cb);
+		when(cb.createQuery(TestEntity.class).from(TestEntity.class)).thenReturn(root);
+		doReturn(id).when(root).get((SingularAttribute) any());
+		final DatabaseDialect dialect = new DatabaseDialect() {
+			@Override
+			public String createSequenceNextValueSql(final String sequenceName) {
+				return null;
+			}
+
+			@Override
+			public int getMaxNumberOfInElements() {
+				return 2;
+			}
+		};
+		final JpaUtils jpaUtils = new JpaUtils(em).withDatabaseDialect(dialect);
+
+		// short list - single IN clause
+		jpaUtils.loadEntities(TestEntity.class, 1L, 2L);
+		verify(id, times(1)).in(any(Collection.class));
+
+		// long list - the IN clause is split by the strategy of the dialect
+		jpaUtils.loadEntities(TestEntity.class, 1L, 2L, 3L, 4L, 5L);
+		verify(id, times(4)).in(any(Collection.class));
+
+		// without dialect the default limit of 100 values is used
+		new JpaUtils(em).loadEntities(TestEntity.class, 1L, 2L, 3L, 4L, 5L);
+		verify(id, times(5)).in(any(Collection.class));
+	}
+
+	@Test
+	public void testBulkUpdateChunks() {
+		final EntityManager em = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		final EntityTransaction tx = mock(EntityTransaction.class);
+		when(em.getTransaction()).thenReturn(tx);
+		when(em.createQuery(any(CriteriaUpdate.class)).executeUpdate()).thenReturn(2);
+		final List<Long> ids = Arrays.asList(5L, 6L, 9L, 1000L, 1001L);
+		final List<long[]> chunks = new ArrayList<>();
+		final JpaUtils jpaUtils = new JpaUtils(em) {
+			@Override
+			protected <E extends IdentifiableEntity> long findChunkUpperBound(final Function<CriteriaApiObjects<E>, QueryConfig> queryConfigFactory, final Class<E> entityClass, final long after, final int chunkSize) {
+				final List<Long> next = ids.stream().filter(id -> id > after).collect(Collectors.toList());
+				return next.size() >= chunkSize ? next.get(chunkSize - 1) : Long.MAX_VALUE;
+			}
+		};
+
+		// each chunk runs in its own transaction by default
+		final int count = jpaUtils.bulkUpdate(null, (cu, cao) -> {
+			// the updater gets the criteria objects of the statement
+			assertSame(em.getCriteriaBuilder(), cao.getCriteriaBuilder());
+			assertSame(cu, cao.getCriteria());
+		}, TestEntity.class, 2);
+		assertEquals(6, count);
+		verify(tx, times(3)).begin();
+		verify(tx, times(3)).commit();
+
+		// the gap between the IDs does not produce empty chunks
+		jpaUtils.executeInIdChunks(null, TestEntity.class, 2, s -> s.get(), (m, r) -> {
+			chunks.add(r);
+			return 0;
+		});
+		assertEquals(3, chunks.size());
+		assertEquals("[" + Long.MIN_VALUE + ", 6]", Arrays.toString(chunks.get(0)));
+		assertEquals("[6, 1000]", Arrays.toString(chunks.get(1)));
+		assertEquals("[1000, " + Long.MAX_VALUE + "]", Arrays.toString(chunks.get(2)));
+		verify(em.getEntityManagerFactory().getCache(), times(2)).evict(TestEntity.class);
+	}
+
+	@Test
+	public void testWithCopies() {
+		final QueryPlanCache planCache = new QueryPlanCache();
+		final EntityCache cache = new EntityCache(10);
+		final CacheInvalidationBus bus = mock(CacheInvalidationBus.class);
+		final JpaDialect dialect = mock(JpaDialect.class);
+		final JpaUtils jpaUtils = new JpaUtils(mock(EntityManager.class)).withQueryPlanCache(planCache).withEntityCache(cache).withInvalidationBus(bus).withJpaDialect(dialect);
+		assertSame(planCache, jpaUtils.getQueryPlanCache());
+		assertSame(cache, jpaUtils.getEntityCache());
+		assertSame(bus, jpaUtils.getInvalidationBus());
+		assertSame(dialect, jpaUtils.getJpaDialect());
+		assertNull(jpaUtils.withEntityCache(null).getEntityCache());
+		assertSame(planCache, jpaUtils.withEntityCache(null).getQueryPlanCache());
+	}
+
+	@Test
+	public void testExecuteInNewTransaction() {
+		final EntityManager em = mock(EntityManager.class);
+		final EntityTransaction tx = mock(EntityTransaction.class);
+		when(em.getTransaction()).thenReturn(tx);
+		final JpaUtils jpaUtils = new JpaUtils(em);
+
+		try {
+			jpaUtils.executeInNewTransaction(() -> {
+				when(tx.isActive()).thenReturn(true);
+				throw new IllegalStateException("failed");
+			});
+			fail("the failure should be propagated");
+		} catch (final IllegalStateException ex) {
+			assertEquals("failed", ex.getMessage());
+		}
+		verify(tx).begin();
+		verify(tx).rollback();
+		verify(tx, never()).commit();
+
+		// an active transaction is joined
+		assertEquals(Integer.valueOf(1), jpaUtils.executeInNewTransaction(() -> 1));
+		verify(tx, times(1)).begin();
+
+		// JTA entity manager
+		when(em.getTransaction()).thenThrow(new IllegalStateException("JTA"));
+		assertEquals(Integer.valueOf(2), jpaUtils.executeInNewTransaction(() -> 2));
+	}
+
+	public static class TestDto {
+		private final Long id;
+
+		public TestDto(final Long id) {
+			this.id = id;
+		}
+
+		public Long getId() {
+			return id;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testListProjections() {
+		final EntityManager em = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		final CriteriaBuilder cb = em.getCriteriaBuilder();
+		final TestDto dto = new TestDto(7L);
+		when(em.createQuery(any(CriteriaQuery.class)).getResultList()).thenReturn(Arrays.asList(dto));
+
+		final Projection<TestEntity, TestDto> projection = Projection.construct(TestDto.class, cao -> Arrays.asList(cao.getPath().get("id")));
+		final List<TestDto> dtos = new JpaUtils(em).listProjections(0, 10, null, TestEntity.class, projection);
+
+		assertEquals(Arrays.asList(dto), dtos);
+		verify(cb).createQuery(TestDto.class);
+		verify(cb).construct(eq(TestDto.class), any());
+	}
+
+	@Test
+	public void testProjectionKey() {
+		final List<Projection<TestEntity, TestDto>> projections = new ArrayList<>();
+		for (final String column : Arrays.asList("id", "version")) {
+			projections.add(Projection.construct(TestDto.class, cao -> Arrays.asList(cao.getPath().get(column))));
+		}
+		// the functions selecting different columns have the same class, so only projections with ID have a key
+		assertNull(projections.get(0).getKey());
+		assertEquals(Arrays.asList(TestDto.class, "id"), projections.get(0).withId("id").getKey());
+		assertEquals(Arrays.asList(TestDto.class, "version"), projections.get(1).withId("version").getKey());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testReadOnlyListWithHints() {
+		final EntityManager em = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		final TypedQuery<TestEntity> q = mock(TypedQuery.class);
+		doReturn(q).when(em).createQuery(any(CriteriaQuery.class));
+		when(q.getResultList()).thenReturn(Arrays.asList(new TestEntity(1)));
+		final PageableFilter filter = new PageableFilter();
+		filter.setReadOnly(true);
+
+		final JpaUtils jpaUtils = new JpaUtils(() -> em).withJpaDialect(new JpaDialect() {
+			@Override
+			public String getSql(final TypedQuery<?> query) {
+				return null;
+			}
+
+			@Override
+			public Map<String, Object> getReadOnlyHints() {
+				return JpaDialect.ECLIPSELINK_READ_ONLY_HINTS;
+			}
+		});
+		assertEquals(1, jpaUtils.listEntities(filter, (cao, f) -> null, TestEntity.class).size());
+
+		verify(q).setFlushMode(FlushModeType.COMMIT);
+		verify(q).setHint("eclipselink.read-only", "true");
+		verify(em, never()).detach(any());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testReadOnlyListDetach() {
+		final EntityManager em = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		final TypedQuery<TestEntity> q = mock(TypedQuery.class);
+		doReturn(q).when(em).createQuery(any(CriteriaQuery.class));
+		final TestEntity e1 = new TestEntity(1);
+		final TestEntity e2 = new TestEntity(2);
+		when(q.getResultList()).thenReturn(Arrays.asList(e1, e2));
+		final PageableFilter filter = new PageableFilter();
+
+		new JpaUtils(em).listEntities(filter, (cao, f) -> null, TestEntity.class);
+		verify(em, never()).detach(any());
+
+		filter.setReadOnly(true);
+		new JpaUtils(em).listEntities(filter, (cao, f) -> null, TestEntity.class);
+		verify(q).setFlushMode(FlushModeType.COMMIT);
+		verify(em).detach(e1);
+		verify(em).detach(e2);
+		verify(em, never()).flush();
+
+		// the pending changes of the entities managed before the query are flushed before detaching
+		when(em.isJoinedToTransaction()).thenReturn(true);
+		new JpaUtils(em).listEntities(filter, (cao, f) -> null, TestEntity.class);
+		final InOrder inOrder = inOrder(em);
+		inOrder.verify(em).flush();
+		inOrder.verify(em).detach(e1);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testHintsAndFetchGraph() {
+		final EntityManager em = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		final TypedQuery<TestEntity> q = mock(TypedQuery.class);
+		doReturn(q).when(em).createQuery(any(CriteriaQuery.class));
+		when(em.getCriteriaBuilder().createQuery(TestEntity.class).getResultType()).thenReturn(TestEntity.class);
+		final EntityGraph<TestEntity> graph = mock(EntityGraph.class);
+		final QueryConfig qc = new QueryConfig(null, null, null, false).withHint("eclipselink.jdbc.fetch-size", 500).withFetchGraph(graph);
+
+		new JpaUtils(em).listEntities(0, 0, cao -> qc, TestEntity.class);
+
+		verify(q).setHint("eclipselink.jdbc.fetch-size", 500);
+		verify(q).setHint(QueryConfig.FETCH_GRAPH_HINT, graph);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testListPageWithFetchGraph() {
+		final EntityManager em = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		final CriteriaQuery<Object> cq = mock(CriteriaQuery.class);
+		final Root<TestEntity> root = mock(Root.class);
+		when(em.getCriteriaBuilder().createQuery()).thenReturn(cq);
+		when(cq.from(TestEntity.class)).thenReturn(root);
+		when(cq.getResultType()).thenReturn(Object.class);
+		doReturn(root).when(cq).getSelection();
+		doReturn(TestEntity.class).when(root).getJavaType();
+		when(em.getMetamodel().entity(Object.class)).thenThrow(new IllegalArgumentException());
+		final TypedQuery<Object> q = mock(TypedQuery.class);
+		doReturn(q).when(em).createQuery(cq);
+		when(q.getResultList()).thenReturn(Arrays.asList(new TestEntity(1)));
+		final EntityGraph<TestEntity> graph = mock(EntityGraph.class);
+		final QueryConfig qc = new QueryConfig(null, null, null, false).withFetchGraph(graph);
+
+		assertEquals(1, new JpaUtils(em).listPage(0, 10, cao -> qc, TestEntity.class).getTotal());
+
+		verify(q).setHint(QueryConfig.FETCH_GRAPH_HINT, graph);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testKeysetListWithLoadGraph() {
+		final EntityManager em = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		final CriteriaQuery<Object[]> cq = mock(CriteriaQuery.class, RETURNS_DEEP_STUBS);
+		final Root<TestEntity> root = mock(Root.class);
+		when(em.getCriteriaBuilder().createQuery(Object[].class)).thenReturn(cq);
+		when(cq.from(TestEntity.class)).thenReturn(root);
+		doReturn(TestEntity.class).when(root).getJavaType();
+		final TypedQuery<Object[]> q = mock(TypedQuery.class);
+		doReturn(q).when(em).createQuery(cq);
+		when(q.getResultList()).thenReturn(new ArrayList<>());
+		final EntityGraph<TestEntity> graph = mock(EntityGraph.class);
+		final QueryConfig qc = new QueryConfig(null, null, null, false).withLoadGraph(graph);
+
+		new JpaUtils(em).listEntities(null, 10, cao -> qc, TestEntity.class);
+		verify(q).setHint(QueryConfig.LOAD_GRAPH_HINT, graph);
+
+		// the IDs are not entities
+		new JpaUtils(em).listEntityIds(null, 10, cao -> qc, TestEntity.class);
+		verify(q, times(1)).setHint(QueryConfig.LOAD_GRAPH_HINT, graph);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testStreamEntitiesFlushesBeforeDetach() {
+		final EntityManager em = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		final CriteriaQuery<Object[]> cq = mock(CriteriaQuery.class, RETURNS_DEEP_STUBS);
+		when(em.getCriteriaBuilder().createQuery(Object[].class)).thenReturn(cq);
+		final TypedQuery<Object[]> q = mock(TypedQuery.class);
+		doReturn(q).when(em).createQuery(cq);
+		final TestEntity e1 = new TestEntity(1);
+		final TestEntity e2 = new TestEntity(2);
+		when(q.getResultList()).thenReturn(Arrays.asList(new Object[] { e1, 1L }, new Object[] { e2, 2L }));
+		when(em.isJoinedToTransaction()).thenReturn(true);
+
+		try (Stream<TestEntity> s = new JpaUtils(em).streamEntities(cao -> null, TestEntity.class, 5)) {
+			assertEquals(Arrays.asList(e1, e2), s.collect(Collectors.toList()));
+		}
+
+		// the changes of the consumer are flushed before the entities are detached
+		final InOrder inOrder = inOrder(em);
+		inOrder.verify(em).flush();
+		inOrder.verify(em).detach(e1);
+		inOrder.verify(em).detach(e2);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testCountLeavesOutFetchGraph() {
+		final EntityManager em = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		final TypedQuery<Long> q = mock(TypedQuery.class);
+		doReturn(q).when(em).createQuery(any(CriteriaQuery.class));
+		when(q.getSingleResult()).thenReturn(3L);
+		when(em.getCriteriaBuilder().createQuery(Long.class).getResultType()).thenReturn(Long.class);
+		when(em.getMetamodel().entity(Long.class)).thenThrow(new IllegalArgumentException());
+		final QueryConfig qc = new QueryConfig(null, null, null, false).withHint(QueryConfig.QUERY_TIMEOUT_HINT, 1000).withFetchGraph(mock(EntityGraph.class));
+
+		assertEquals(3L, new JpaUtils(em).countEntities(cao -> qc, TestEntity.class));
+
+		verify(q).setHint(QueryConfig.QUERY_TIMEOUT_HINT, 1000);
+		verify(q, never()).setHint(eq(QueryConfig.FETCH_GRAPH_HINT), any());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testSlowQueryListener() {
+		final EntityManager em = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		final TypedQuery<Long> q = mock(TypedQuery.class);
+		doReturn(q).when(em).createQuery(any(CriteriaQuery.class));
+		when(q.getSingleResult()).thenReturn(5L);
+		final JpaDialect dialect = mock(JpaDialect.class);
+		when(dialect.getSql(q)).thenReturn("SELECT COUNT(ID) FROM TEST");
+		final InMemoryQueryMetrics metrics = new InMemoryQueryMetrics();
+		final List<String> slow = new ArrayList<>();
+		final JpaUtils jpaUtils = new JpaUtils(() -> em).withJpaDialect(dialect).withMetrics(metrics);
+
+		jpaUtils.withSlowQueryListener(60_000, (op, c, nanos, sql) -> slow.add(sql)).countEntities(null, TestEntity.class);
+		assertEquals(0, slow.size());
+		verify(dialect, never()).getSql(any());
+		assertEquals(1, metrics.getLatency(QueryMetrics.COUNT, TestEntity.class).getCount());
+
+		jpaUtils.withSlowQueryListener(0, (op, c, nanos, sql) -> slow.add(op + ":" + sql)).countEntities(null, TestEntity.class);
+		assertEquals(Arrays.asList("count:SELECT COUNT(ID) FROM TEST"), slow);
+		assertEquals(2, metrics.getLatency(QueryMetrics.COUNT, TestEntity.class).getCount());
+		assertNull(metrics.getLatency(QueryMetrics.LIST, TestEntity.class));
+	}
+
+	@Table(name = "item")
+	public static class UpsertEntity extends AuditableEntity {
+		private static final long serialVersionUID = 1L;
+
+		@Column(name = "item_code")
+		private String code;
+
+		private String title;
+
+		UpsertEntity(final String code, final String title) {
+			this.code = code;
+			this.title = title;
+		}
+
+		public String getTitle() {
+			return title;
+		}
+
+		public void setTitle(final String title) {
+			this.title = title;
+		}
+	}
+
+	@Test
+	public void testUpsert() {
+		final EntityManager em = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		final Query q = mock(Query.class);
+		when(em.createNativeQuery(any(String.class))).thenReturn(q);
+		when(q.executeUpdate()).thenReturn(2);
+		final DatabaseDialect dialect = new DatabaseDialect() {
+			@Override
+			public String createSequenceNextValueSql(final String sequenceName) {
+				return null;
+			}
+
+			@Override
+			public String createUpsertSql(final String tableName, final List<String> keyColumns, final List<String> insertColumns, final List<String> updateColumns, final String versionColumn, final int rows) {
+				return UpsertSql.createInsertOnConflictSql(tableName, keyColumns, insertColumns, updateColumns, versionColumn, rows);
+			}
+		};
+		final UpsertEntity a1 = new UpsertEntity("a", "a1");
+		final UpsertEntity b = new UpsertEntity("b", "b1");
+		final UpsertEntity a2 = new UpsertEntity("a", "a2");
+		final Date created = new Date(0);
+		a2.setCreated(created);
+
+		assertEquals(2, new JpaUtils(em).upsertAll(dialect, Arrays.asList(a1, b, a2), 10, "code"));
+
+		verify(em).createNativeQuery("INSERT INTO item (created, edited, creator, editor, version, deleted, item_code, title) VALUES (?1, ?2, ?3, ?4, ?5, ?6, ?7, ?8), (?9, ?10, ?11, ?12, ?13, ?14, ?15, ?16)"
+				+ " ON CONFLICT (item_code) DO UPDATE SET edited = EXCLUDED.edited, editor = EXCLUDED.editor, deleted = EXCLUDED.deleted, title = EXCLUDED.title, version = item.version + 1");
+		// the last entity with the same natural key wins
+		verify(q).setParameter(1, created);
+		verify(q).setParameter(8, "a2");
+		verify(q).setParameter(15, "b");
+		verify(q, never()).setParameter(any(Integer.class), eq("a1"));
+		assertNull(a1.getEdited());
+		assertEquals(b.getCreated(), b.getEdited());
+		verify(em.getEntityManagerFactory().getCache()).evict(UpsertEntity.class);
+
+		assertEquals("MERGE INTO item t USING (VALUES (?1, ?2)) s (item_code, title) ON (t.item_code = s.item_code) WHEN MATCHED THEN UPDATE SET t.title = s.title WHEN NOT MATCHED THEN INSERT (item_code, title) VALUES (s.item_code, s.title)",
+				UpsertSql.createMergeSql("item", Arrays.asList("item_code"), Arrays.asList("item_code", "title"), Arrays.asList("title"), null, 1));
+		assertEquals("MERGE INTO item t USING (VALUES (?1)) s (item_code) ON (t.item_code = s.item_code) WHEN NOT MATCHED THEN INSERT (item_code) VALUES (s.item_code);",
+				UpsertSql.createSqlServerMergeSql("item", Arrays.asList("item_code"), Arrays.asList("item_code"), Arrays.asList(), null, 1));
+		assertEquals("MERGE INTO item t USING (VALUES (CAST(?1 AS VARCHAR(20)), CAST(?2 AS CLOB)), (CAST(?3 AS VARCHAR(20)), CAST(?4 AS CLOB))) s (item_code, title) ON (t.item_code = s.item_code)"
+				+ " WHEN MATCHED THEN UPDATE SET t.title = s.title, t.version = t.version + 1 WHEN NOT MATCHED THEN INSERT (item_code, title) VALUES (s.item_code, s.title)",
+				UpsertSql.createDb2MergeSql("item", Arrays.asList("item_code"), Arrays.asList("item_code", "title"), Arrays.asList("title"), "version", 2, c -> "title".equals(c) ? "CLOB" : "VARCHAR(20)"));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testSaveVersionedUpdate() throws ObjectAlreadyModifiedException {
+		final EntityManager em = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		final Query q = mock(Query.class);
+		doReturn(q).when(em).createQuery(any(CriteriaUpdate.class));
+		when(q.executeUpdate()).thenReturn(1);
+		final UpsertEntity entity = new UpsertEntity("a", "new");
+		entity.setId(5);
+		entity.setVersion(3);
+		final JpaUtils jpaUtils = new JpaUtils(em);
+
+		assertSame(entity, jpaUtils.save(entity, true, SaveMode.VERSIONED_UPDATE));
+		assertEquals(4, entity.getVersion());
+		final CriteriaUpdate<UpsertEntity> cu = em.getCriteriaBuilder().createCriteriaUpdate(UpsertEntity.class);
+		verify(cu).set("title", "new");
+		verify(cu, never()).set(eq("created"), any());
+		verify(em, never()).merge(any());
+		verify(em.getEntityManagerFactory().getCache()).evict(UpsertEntity.class, 5L);
+
+		// managed entities are saved by the dirty checking
+		when(em.contains(entity)).thenReturn(true);
+		assertSame(entity, jpaUtils.save(entity, true, SaveMode.VERSIONED_UPDATE));
+		verify(q, times(1)).executeUpdate();
+		verify(em, never()).merge(any());
+	}
+
+	@Test(expected = ObjectAlreadyModifiedException.class)
+	public void testSaveVersionedUpdateConflict() throws ObjectAlreadyModifiedException {
+		final EntityManager em = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		when(em.createQuery(any(CriteriaUpdate.class)).executeUpdate()).thenReturn(0);
+		final UpsertEntity entity = new UpsertEntity("a", "new");
+		entity.setId(5);
+		new JpaUtils(em).save(entity, true, SaveMode.VERSIONED_UPDATE);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testSaveInvalidationVersion() throws ObjectAlreadyModifiedException {
+		final EntityManager em = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		final CacheInvalidationBus bus = mock(CacheInvalidationBus.class);
+		final UpsertEntity entity = new UpsertEntity("a", "new");
+		entity.setId(5);
+		entity.setVersion(3);
+		when(em.contains(entity)).thenReturn(true);
+		doAnswer(i -> {
+			entity.setVersion(entity.getVersion() + 1);
+			return null;
+		}).when(em).flush();
+		final JpaUtils jpaUtils = new JpaUtils(() -> em).withInvalidationBus(bus);
+
+		// the version is not incremented before the flush, so the invalidation is unconditional
+		jpaUtils.save(entity, false);
+		verify(bus).publishAfterCommit(CacheInvalidation.of(UpsertEntity.class, 5, 0));
+		jpaUtils.save(entity, true);
+		verify(bus).publishAfterCommit(CacheInvalidation.of(UpsertEntity.class, 5, 4));
+
+		// reads do not publish invalidations
+		final TypedQuery<UpsertEntity> q = mock(TypedQuery.class);
+		when(q.getResultList()).thenReturn(Arrays.asList(entity));
+		jpaUtils.loadEntity(q, UpsertEntity.class, true);
+		jpaUtils.findOrCreateEntity(q, UpsertEntity.class, true);
+		verify(em, times(2)).refresh(entity);
+		verify(bus, never()).publish(any());
+		verify(bus, times(2)).publishAfterCommit(any());
+	}
+
+	/**
+	 * Criteria builder creating predicates printed as text
+	 */
+	private static CriteriaBuilder textCriteriaBuilder() {
+		return (CriteriaBuilder) Proxy.newProxyInstance(JpaUtilsTest.class.getClassLoader(), new Class<?>[] { CriteriaBuilder.class }, (proxy, method, args) -> {
+			switch (method.getName()) {
+			case "greaterThan":
+				return textPredicate(args[0] + " > " + args[1]);
+			case "lessThan":
+				return textPredicate(args[0] + " < " + args[1]);
+			case "equal":
+				return textPredicate(args[0] + " = " + args[1]);
+			case "isNull":
+				return textPredicate(args[0] + " IS NULL");
+			case "and":
+				return textPredicate("(" + Arrays.stream((Object[]) args[0]).map(Object::toString).collect(Collectors.joining(" AND ")) + ")");
+			case "or":
+				return textPredicate(Arrays.stream((Object[]) args[0]).map(Object::toString).collect(Collectors.joining(" OR ")));
+			default:
+				throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+
+	private static Predicate textPredicate(final String text) {
+		return (Predicate) Proxy.newProxyInstance(JpaUtilsTest.class.getClassLoader(), new Class<?>[] { Predicate.class }, (proxy, method, args) -> {
+			if ("toString".equals(method.getName())) {
+				return text;
+			}
+			throw new UnsupportedOperationException(method.getName());
+		});
+	}
+
+	private static Order order(final String name, final boolean ascending) {
+		final Order order = mock(Order.class);
+		final Expression<?> expression = mock(Expression.class, name);
+		doReturn(expression).when(order).getExpression();
+		when(order.isAscending()).thenReturn(ascending);
+		return order;
+	}
+
+	@Test
+	public void testSeekPredicate() {
+		final CriteriaBuilder cb = textCriteriaBuilder();
+		final JpaUtils jpaUtils = new JpaUtils(mock(EntityManager.class));
+
+		assertEquals("(id > 5)", jpaUtils.createSeekPredicate(cb, Arrays.asList(order("id", true)), Arrays.asList(5L)).toString());
+		assertEquals("(id < 5)", jpaUtils.createSeekPredicate(cb, Arrays.asList(order("id", false)), Arrays.asList(5L)).toString());
+		// the ID is the tie-breaker of equal sort keys
+		assertEquals("(name > a) OR (name = a AND created < 2) OR (name = a AND created = 2 AND id > 7)",
+				jpaUtils.createSeekPredicate(cb, Arrays.asList(order("name", true), order("created", false), order("id", true)), Arrays.asList("a", 2L, 7L)).toString());
+		// null key values are ordered by the IS NULL indicator preceding them
+		assertEquals("(edited_null > 1) OR (edited_null = 1 AND edited IS NULL AND id > 7)",
+				jpaUtils.createSeekPredicate(cb, Arrays.asList(order("edited_null", true), order("edited", false), order("id", true)), Arrays.asList(1, null, 7L)).toString());
+		assertEquals("(edited_null > 0) OR (edited_null = 0 AND edited < 2) OR (edited_null = 0 AND edited = 2 AND id > 7)",
+				jpaUtils.createSeekPredicate(cb, Arrays.asList(order("edited_null", true), order("edited", false), order("id", true)), Arrays.asList(0, 2L, 7L)).toString());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testSeekPredicateEnum() {
+		final CriteriaBuilder cb = mock(CriteriaBuilder.class);
+		final Order order = order("unit", true);
+		final Expression<?> unit = order.getExpression();
+		doReturn(TimeUnit.class).when(unit).getJavaType();
+
+		new JpaUtils(mock(EntityManager.class)).createSeekPredicate(cb, Arrays.asList(order), Arrays.asList("SECONDS"));
+		verify(cb).greaterThan(any(Expression.class), eq(TimeUnit.SECONDS));
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Test
+	public void testKeysetNullableSortOrders() {
+		final EntityManager em = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		final CriteriaQuery<Object[]> cq = mock(CriteriaQuery.class, RETURNS_DEEP_STUBS);
+		when(em.getCriteriaBuilder().createQuery(Object[].class)).thenReturn(cq);
+		final TypedQuery<Object[]> q = mock(TypedQuery.class);
+		doReturn(q).when(em).createQuery(cq);
+		when(q.getResultList()).thenReturn(new ArrayList<>());
+		final Order nullable = order("edited", false);
+		final Order required = order("name", true);
+		final JpaUtils jpaUtils = new JpaUtils(em) {
+			@Override
+			protected boolean isNullable(final Expression<?> expression) {
+				return expression == nullable.getExpression();
+			}
+		};
+
+		jpaUtils.listEntities((String) null, 10, cao -> new QueryConfig(null, null, Arrays.asList(nullable, required), false), TestEntity.class);
+
+		// IS NULL indicator of the nullable order, the orders and the ID
+		final ArgumentCaptor<List> orders = ArgumentCaptor.forClass(List.class);
+		verify(cq).orderBy(orders.capture());
+		assertEquals(4, orders.getValue().size());
+		assertSame(nullable, orders.getValue().get(1));
+		assertSame(required, orders.getValue().get(2));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testKeysetFirstPage() {
+		final EntityManager em = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		final TypedQuery<Object[]> q = mock(TypedQuery.class);
+		doReturn(q).when(em).createQuery(any(CriteriaQuery.class));
+		when(q.getResultList()).thenReturn(new ArrayList<>());
+		final List<List<Object>> seeks = new ArrayList<>();
+		final JpaUtils jpaUtils = new JpaUtils(em) {
+			@Override
+			protected Predicate createSeekPredicate(final CriteriaBuilder cb, final List<Order> sortOrders, final List<Object> values) {
+				seeks.add(values);
+				return mock(Predicate.class);
+			}
+		};
+
+		// no token or blank token is the first page, without seek predicate
+		assertNull(jpaUtils.listEntities((String) null, 10, null, TestEntity.class).getContinuationToken());
+		jpaUtils.listEntities(" ", 10, null, TestEntity.class);
+		assertEquals(0, seeks.size());
+
+		jpaUtils.listEntities(KeysetToken.encode(Arrays.asList(5L)), 10, null, TestEntity.class);
+		assertEquals(Arrays.asList(Arrays.asList((Object) 5L)), seeks);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testListEntityIdsAsLongArray() {
+		final EntityManager em = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		final TypedQuery<Object[]> q = mock(TypedQuery.class);
+		doReturn(q).when(em).createQuery(any(CriteriaQuery.class));
+		// the keyset query fetches one row more to find out if there is a next chunk
+		when(q.getResultList()).thenReturn(rows(1L, 2L, 3L), rows(3L, 4L, 5L), rows(5L, 6L));
+		final List<List<Object>> seeks = new ArrayList<>();
+		final JpaUtils jpaUtils = new JpaUtils(em) {
+			@Override
+			protected Predicate createSeekPredicate(final CriteriaBuilder cb, final List<Order> sortOrders, final List<Object> values) {
+				seeks.add(values);
+				return mock(Predicate.class);
+			}
+		};
+
+		// the first ID is skipped
+		assertArrayEquals(new long[] { 2L, 3L, 4L, 5L, 6L }, jpaUtils.listEntityIdsAsLongArray(1, 0, null, TestEntity.class, 2));
+		assertEquals(Arrays.asList(Arrays.asList((Object) 2L), Arrays.asList((Object) 4L)), seeks);
+		verify(q, times(3)).setMaxResults(3);
+	}
+
+	private static List<Object[]> rows(final Long... ids) {
+		return Arrays.stream(ids).map(id -> new Object[] { id, id }).collect(Collectors.toList());
+	}
+
+	@Test
+	public void testSaveAll() throws ObjectAlreadyModifiedException {
+		final EntityManager em = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		// persist generates the ID, merge returns a managed copy
+		doAnswer(inv -> {
+			((TestEntity) inv.getArgument(0)).setId(100);
+			return null;
+		}).when(em).persist(any(TestEntity.class));
+		doAnswer(inv -> new TestEntity(((TestEntity) inv.getArgument(0)).getId())).when(em).merge(any(TestEntity.class));
+		final TestEntity created = new TestEntity();
+		final TestEntity existing = new TestEntity(5);
+
+		final List<Long> ids = new JpaUtils(em).saveAll(Arrays.asList(created, existing, null), 2);
+
+		assertEquals(Arrays.asList(100L, 5L, null), ids);
+		final InOrder inOrder = inOrder(em);
+		inOrder.verify(em).persist(created);
+		inOrder.verify(em).merge(existing);
+		// the batch boundary
+		inOrder.verify(em).flush();
+		inOrder.verify(em).clear();
+		// the last incomplete batch
+		inOrder.verify(em).flush();
+		inOrder.verify(em).clear();
+		verify(em, times(2)).flush();
+	}
+
+	@Test
+	public void testSaveAllEmpty() throws ObjectAlreadyModifiedException {
+		final EntityManager em = mock(EntityManager.class);
+
+		assertEquals(0, new JpaUtils(em).saveAll(new ArrayList<TestEntity>(), 10).size());
+		verify(em, never()).flush();
+		verify(em, never()).clear();
+	}
+
+	private static List<TestEntity> entities(final int count) {
+		final List<TestEntity> list = new ArrayList<>();
+		for (int i = 1; i <= count; i++) {
+			list.add(new TestEntity(i));
+		}
+		return list;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testListPage() {
+		final EntityManager em = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		final TypedQuery<Object> q = mock(TypedQuery.class);
+		doReturn(q).when(em).createQuery(any(CriteriaQuery.class));
+		when(q.getResultList()).thenReturn((List<Object>) (List<?>) entities(3));
+		when(q.getSingleResult()).thenReturn(25L);
+		final InMemoryQueryMetrics metrics = new InMemoryQueryMetrics();
+		final JpaUtils jpaUtils = new JpaUtils(em).withMetrics(metrics);
+		final QueryConfig qc = new QueryConfig(null, null, null, false).withHint(QueryConfig.QUERY_TIMEOUT_HINT, 1000);
+
+		// the total of a page which is not full is known without count query
+		final Page<TestEntity> last = jpaUtils.listPage(0, 10, cao -> qc, TestEntity.class);
+		assertEquals(3, last.getTotal());
+		verify(q, never()).getSingleResult();
+
+		when(q.getResultList()).thenReturn((List<Object>) (List<?>) entities(10));
+		final Page<TestEntity> full = jpaUtils.listPage(0, 10, cao -> qc, TestEntity.class);
+		assertEquals(25, full.getTotal());
+		assertEquals(true, full.hasNext());
+		// the count query gets the hints and the metrics as the page query
+		verify(q, times(3)).setHint(QueryConfig.QUERY_TIMEOUT_HINT, 1000);
+		assertEquals(1, metrics.getLatency(QueryMetrics.COUNT, TestEntity.class).getCount());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testListPageParallelCount() {
+		final EntityManager em = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		final TypedQuery<Object> q = mock(TypedQuery.class);
+		doReturn(q).when(em).createQuery(any(CriteriaQuery.class));
+		when(q.getResultList()).thenReturn((List<Object>) (List<?>) entities(3));
+		final EntityManager countEm = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		final TypedQuery<Long> countQuery = mock(TypedQuery.class);
+		doReturn(countQuery).when(countEm).createQuery(any(CriteriaQuery.class));
+		when(countQuery.getSingleResult()).thenReturn(25L);
+		final Supplier<EntityManager> countEntityManagerSupplier = mock(Supplier.class);
+		when(countEntityManagerSupplier.get()).thenReturn(countEm);
+		final InMemoryQueryMetrics metrics = new InMemoryQueryMetrics();
+		final JpaUtils jpaUtils = new JpaUtils(em).withMetrics(metrics);
+		final PageableFilter filter = new PageableFilter();
+		filter.setMaxResults(10);
+
+		// the first page is not full, so the count query is not needed
+		assertEquals(3, jpaUtils.listPage(filter, (cao, f) -> null, TestEntity.class, countEntityManagerSupplier, Runnable::run).getTotal());
+		verify(countEntityManagerSupplier, never()).get();
+
+		when(q.getResultList()).thenReturn((List<Object>) (List<?>) entities(10));
+		assertEquals(25, jpaUtils.listPage(filter, (cao, f) -> null, TestEntity.class, countEntityManagerSupplier, Runnable::run).getTotal());
+		filter.setFirstResult(20);
+		assertEquals(25, jpaUtils.listPage(filter, (cao, f) -> null, TestEntity.class, countEntityManagerSupplier, Runnable::run).getTotal());
+		verify(countEm, times(2)).close();
+		// the count query is executed with the configuration of this object
+		assertEquals(2, metrics.getLatency(QueryMetrics.COUNT, TestEntity.class).getCount());
+	}
+}
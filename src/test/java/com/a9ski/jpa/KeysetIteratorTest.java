@@ -0,0 +1,45 @@
+package com.a9ski.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class KeysetIteratorTest {
+
+	@Test
+	public void testIterateChunks() {
+		final List<List<Integer>> released = new ArrayList<>();
+		final KeysetIterator<Integer> it = new KeysetIterator<>(token -> {
+			if (token == null) {
+				return new KeysetPage<>(Arrays.asList(1, 2), "a");
+			} else if ("a".equals(token)) {
+				return new KeysetPage<>(Arrays.asList(3, 4), "b");
+			}
+			return new KeysetPage<>(Arrays.asList(5), null);
+		}, released::add);
+
+		final List<Integer> items = new ArrayList<>();
+		it.forEachRemaining(items::add);
+
+		assertEquals(Arrays.asList(1, 2, 3, 4, 5), items);
+		assertEquals(Arrays.asList(Arrays.asList(1, 2), Arrays.asList(3, 4), Arrays.asList(5)), released);
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void testClose() {
+		final List<List<Integer>> released = new ArrayList<>();
+		final KeysetIterator<Integer> it = new KeysetIterator<>(token -> new KeysetPage<>(Arrays.asList(1, 2), "a"), released::add);
+
+		assertEquals(Integer.valueOf(1), it.next());
+		it.close();
+
+		assertFalse(it.hasNext());
+		assertEquals(Arrays.asList(Arrays.asList(1, 2)), released);
+	}
+}
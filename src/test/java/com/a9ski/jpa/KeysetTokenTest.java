@@ -0,0 +1,42 @@
+package com.a9ski.jpa;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class KeysetTokenTest {
+
+	@Test
+	public void testEncodeDecode() {
+		final Timestamp ts = new Timestamp(1520000000123L);
+		ts.setNanos(123456789);
+		final List<Object> values = Arrays.asList(42L, 7, "hello. world,;%", new Date(1520000000000L), ts, new BigDecimal("3.14"), Boolean.TRUE, 2.5d);
+
+		final String token = KeysetToken.encode(values);
+		assertEquals(values, KeysetToken.decode(token, values.size()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDecodeWrongSize() {
+		KeysetToken.decode(KeysetToken.encode(Arrays.asList(1L, 2L)), 3);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDecodeInvalidToken() {
+		KeysetToken.decode("X!!", 1);
+	}
+
+	@Test
+	public void testEncodeNullAndEnum() {
+		// the enums are decoded as names, the seek predicate converts them to the type of the sort expression
+		final String token = KeysetToken.encode(Arrays.asList(1L, null, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList(1L, null, "SECONDS"), KeysetToken.decode(token, 3));
+	}
+}
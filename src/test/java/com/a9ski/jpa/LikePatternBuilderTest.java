@@ -0,0 +1,77 @@
+package com.a9ski.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.a9ski.entities.filters.Matching;
+import com.a9ski.utils.StringUtils;
+
+public class LikePatternBuilderTest {
+
+	private static final char[] ALPHABET = { 'a', 'B', 'i', 'I', ' ', ' ', '\t', '\n', '\r', '\u000B', '\f', '\u0001', '%', '_', '\\', '!', 'ß', 'İ', 'ı', 'É' };
+
+	private static final Locale[] LOCALES = { Locale.ENGLISH, new Locale("tr", "TR"), Locale.GERMANY };
+
+	private static final char[] ESCAPE_CHARS = { '\\', '!', 'a', ' ', '\t' };
+
+	/**
+	 * The algorithm used before the single pass builder
+	 */
+	private static String legacy(final String text, final Matching matching, final char escapeChar, final Locale locale) {
+		if (org.apache.commons.lang3.StringUtils.isBlank(text)) {
+			return "";
+		}
+		// @formatter:off
+		final String escaped = StringUtils.replaceWithSingleSpace(text.toLowerCase(locale).trim())
+				.replace(escapeChar + "", escapeChar + "" + escapeChar)
+				.replace("%", escapeChar + "%")
+				.replace("_", escapeChar + "_");
+		// @formatter:on
+		final String s = StringUtils.replaceWithSingleSpace(escaped).replace(' ', '%');
+		switch (matching) {
+			case STARTS_WITH:
+				return s + "%";
+			case ENDS_WITH:
+				return "%" + s;
+			default:
+				return "%" + s + "%";
+		}
+	}
+
+	@Test
+	public void testSameAsLegacy() {
+		final Random random = new Random(42);
+		final LikePatternBuilder builder = new LikePatternBuilder(true, 0);
+		final Matching[] matchings = { Matching.LIKE, Matching.STARTS_WITH, Matching.ENDS_WITH };
+		for (int i = 0; i < 20000; i++) {
+			final char[] chars = new char[random.nextInt(12)];
+			for (int j = 0; j < chars.length; j++) {
+				chars[j] = ALPHABET[random.nextInt(ALPHABET.length)];
+			}
+			final String text = new String(chars);
+			final Matching matching = matchings[random.nextInt(matchings.length)];
+			final char escapeChar = ESCAPE_CHARS[random.nextInt(ESCAPE_CHARS.length)];
+			final Locale locale = LOCALES[random.nextInt(LOCALES.length)];
+			assertEquals(text, legacy(text, matching, escapeChar, locale), builder.build(text, matching, escapeChar, locale));
+		}
+	}
+
+	@Test
+	public void testCache() {
+		final LikePatternBuilder builder = new LikePatternBuilder(false, 2);
+		final String p = builder.build("Hello World", Matching.LIKE, '\\', Locale.ENGLISH);
+		assertEquals("%hello%world%", p);
+		assertSame(p, builder.build("Hello World", Matching.LIKE, '\\', Locale.ENGLISH));
+		assertEquals("hello%world%", builder.build("Hello World", Matching.STARTS_WITH, '\\', Locale.ENGLISH));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidEscapeChar() {
+		new LikePatternBuilder(false, 0).build("text", Matching.LIKE, '%', Locale.ENGLISH);
+	}
+}
@@ -0,0 +1,20 @@
+package com.a9ski.jpa;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class PaddingInStrategyTest {
+
+	@Test
+	public void testPad() {
+		assertEquals(Arrays.asList(1L, 2L), PaddingInStrategy.pad(Arrays.asList(1L, 2L), 100));
+		assertEquals(Arrays.asList(1L, 2L, 3L, 3L), PaddingInStrategy.pad(Arrays.asList(1L, 2L, 3L), 100));
+		assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L, 5L, 5L, 5L), PaddingInStrategy.pad(Arrays.asList(1L, 2L, 3L, 4L, 5L), 100));
+		// the last chunk is padded up to maxNumberOfInElements
+		assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L, 7L, 7L), PaddingInStrategy.pad(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L, 7L), 4));
+		assertEquals(Arrays.asList(1L, 2L, 3L, 4L), PaddingInStrategy.pad(Arrays.asList(1L, 2L, 3L, 4L), 3));
+	}
+}
@@ -0,0 +1,155 @@
+package com.a9ski.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Parameter;
+import javax.persistence.Query;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import com.a9ski.utils.Range;
+
+public class QueryPlanCacheTest {
+
+	@Test
+	public void testSizeBucket() {
+		assertEquals(0, QueryShape.sizeBucket(null));
+		assertEquals(1, QueryShape.sizeBucket(Arrays.asList(1L)));
+		assertEquals(2, QueryShape.sizeBucket(Arrays.asList(1L, 2L)));
+		assertEquals(4, QueryShape.sizeBucket(Arrays.asList(1L, 2L, 3L)));
+		assertEquals(4, QueryShape.sizeBucket(Arrays.asList(1L, 2L, 3L, 4L)));
+		assertEquals(8, QueryShape.sizeBucket(Arrays.asList(1L, 2L, 3L, 4L, 5L)));
+	}
+
+	@Test
+	public void testShape() {
+		assertEquals(QueryShape.collection(new HashSet<>(Arrays.asList(1L, 2L, 3L))), QueryShape.collection(new HashSet<>(Arrays.asList(4L, 5L, 6L, 7L))));
+		assertNotEquals(QueryShape.collection(Arrays.asList(1L)), QueryShape.collection(Arrays.asList(1L, 2L)));
+		assertEquals(0, QueryShape.range(null));
+		assertEquals(4, QueryShape.range(new Range<Long>(Comparator.naturalOrder(), 1L, 1L)));
+		assertEquals(3, QueryShape.range(new Range<Long>(Comparator.naturalOrder(), 1L, 2L)));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testHitsAndMisses() {
+		final QueryPlanCache cache = new QueryPlanCache();
+		final EntityManagerFactory emf = mock(EntityManagerFactory.class);
+		final Query q = mock(Query.class);
+		final Parameter<Object> p = mock(Parameter.class);
+		when(p.getName()).thenReturn("p0");
+		when(p.getParameterType()).thenReturn(Object.class);
+		when(q.getParameters()).thenReturn(Collections.singleton(p));
+
+		final List<Pair<Parameter<Object>, Object>> params = Collections.singletonList(Pair.of(p, 42L));
+		final QueryConfig qc = new QueryConfig(null, params, null, false).asParameterized().withPlanKey("byId");
+		final List<Object> key = Arrays.asList(emf, "list", "byId");
+
+		assertNull(cache.lookup(key, qc));
+		cache.register(key, emf, q, qc);
+		verify(emf).addNamedQuery(anyString(), eq(q));
+		assertNotNull(cache.lookup(key, qc));
+
+		// different number of parameters is a miss
+		assertNull(cache.lookup(key, new QueryConfig(null, Collections.emptyList(), null, false).asParameterized().withPlanKey("byId")));
+
+		// the same number of parameters with different name or type is a miss
+		final Parameter<Object> other = mock(Parameter.class);
+		when(other.getName()).thenReturn("p1");
+		when(other.getParameterType()).thenReturn(Object.class);
+		assertNull(cache.lookup(key, new QueryConfig(null, Collections.singletonList(Pair.of(other, 42L)), null, false).asParameterized().withPlanKey("byId")));
+		when(other.getName()).thenReturn("p0");
+		doReturn(String.class).when(other).getParameterType();
+		assertNull(cache.lookup(key, new QueryConfig(null, Collections.singletonList(Pair.of(other, "42")), null, false).asParameterized().withPlanKey("byId")));
+		when(other.getParameterType()).thenReturn(Object.class);
+		assertNotNull(cache.lookup(key, new QueryConfig(null, Collections.singletonList(Pair.of(other, 24L)), null, false).asParameterized().withPlanKey("byId")));
+
+		assertEquals(2, cache.getHits());
+		assertEquals(4, cache.getMisses());
+		assertEquals(1, cache.size());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testUnnamedParametersAreNotCached() {
+		final QueryPlanCache cache = new QueryPlanCache();
+		final EntityManagerFactory emf = mock(EntityManagerFactory.class);
+		final Query q = mock(Query.class);
+		final Parameter<Object> p = mock(Parameter.class);
+		when(q.getParameters()).thenReturn(Collections.singleton(p));
+
+		final QueryConfig qc = new QueryConfig(null, Collections.singletonList(Pair.of(p, 42L)), null, false).asParameterized().withPlanKey("byId");
+		cache.register(Arrays.asList(emf, "list"), emf, q, qc);
+
+		verify(emf, never()).addNamedQuery(anyString(), eq(q));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testOnlyExplicitParameterizedQueriesAreCached() {
+		final QueryPlanCache cache = new QueryPlanCache();
+		final EntityManagerFactory emf = mock(EntityManagerFactory.class);
+		final Query q = mock(Query.class);
+		final List<Object> key = Arrays.asList(emf, "list");
+
+		// values inlined as literals
+		cache.register(key, emf, q, new QueryConfig(null, null, null, false).asParameterized().withPlanKey("literal"));
+		// predicates not declared as parameterized may contain literals
+		cache.register(key, emf, q, new QueryConfig(null, Collections.emptyList(), null, false).withPlanKey("literal"));
+		// no plan key
+		cache.register(key, emf, q, new QueryConfig(null, Collections.emptyList(), null, false).asParameterized());
+
+		verify(emf, never()).addNamedQuery(anyString(), eq(q));
+		assertEquals(0, cache.size());
+		assertNull(cache.lookup(key, new QueryConfig(null, null, null, false).withPlanKey("literal")));
+	}
+
+	@Test
+	public void testParameterized() {
+		// helpers in parameter binding mode create parameterized configurations
+		assertTrue(new QueryConfig(new CriteriaBuilderHelper(null, Locale.ENGLISH, new ArrayList<>(), 100, new ArrayList<>()), null, false).isParameterized());
+		assertFalse(new QueryConfig(new CriteriaBuilderHelper(null, Locale.ENGLISH), null, false).isParameterized());
+		assertTrue(QueryPlanCache.isCacheable(new QueryConfig(new CriteriaBuilderHelper(null, Locale.ENGLISH, new ArrayList<>(), 100, new ArrayList<>()), null, false).withHint("h", 1).withPlanKey("k")));
+		assertFalse(new QueryConfig(null, Collections.emptyList(), null, false).isParameterized());
+		assertFalse(new QueryConfig(null, null, null, false).asParameterized().isParameterized());
+	}
+
+	@Test
+	public void testRegisterAgainReusesName() {
+		final QueryPlanCache cache = new QueryPlanCache();
+		final EntityManagerFactory emf = mock(EntityManagerFactory.class);
+		final Query q = mock(Query.class);
+		final QueryConfig qc = new QueryConfig(null, Collections.emptyList(), null, false).asParameterized().withPlanKey("all");
+		final List<Object> key = Arrays.asList(emf, "list", "all");
+
+		cache.register(key, emf, q, qc);
+		final String name = cache.lookup(key, qc).getName();
+		cache.register(key, emf, q, qc);
+
+		verify(emf, times(2)).addNamedQuery(name, q);
+		assertEquals(1, cache.size());
+	}
+}
@@ -0,0 +1,114 @@
+package com.a9ski.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class SequenceIdGeneratorTest {
+
+	@Test
+	public void testPooled() {
+		final JpaUtils jpaUtils = mock(JpaUtils.class);
+		final DatabaseDialect dialect = mock(DatabaseDialect.class);
+		when(jpaUtils.generateId(dialect, "seq")).thenReturn(1L, 11L);
+
+		final SequenceIdGenerator generator = new SequenceIdGenerator(jpaUtils, dialect, 1, 1, 10, 1000);
+		for (long i = 1; i <= 15; i++) {
+			assertEquals(i, generator.nextId("seq"));
+		}
+		verify(jpaUtils, times(2)).generateId(dialect, "seq");
+	}
+
+	@Test
+	public void testMultipleValues() {
+		final JpaUtils jpaUtils = mock(JpaUtils.class);
+		final DatabaseDialect dialect = mock(DatabaseDialect.class);
+		when(dialect.createSequenceNextValuesSql(eq("seq"), anyInt())).thenReturn("SELECT nextval('seq') FROM generate_series(1, 3)");
+		when(jpaUtils.generateIds(eq(dialect), eq("seq"), anyInt())).thenReturn(new long[] { 5, 7, 9 }, new long[] { 20, 21, 22 });
+
+		final SequenceIdGenerator generator = new SequenceIdGenerator(jpaUtils, dialect, 3, 3);
+		final List<Long> ids = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			ids.add(generator.nextId("seq"));
+		}
+		assertEquals(Arrays.asList(5L, 7L, 9L, 20L, 21L), ids);
+		verify(jpaUtils, times(2)).generateIds(dialect, "seq", 3);
+	}
+
+	@Test
+	public void testSingleValueDialect() {
+		final JpaUtils jpaUtils = mock(JpaUtils.class);
+		final DatabaseDialect dialect = mock(DatabaseDialect.class);
+		when(jpaUtils.generateId(dialect, "seq")).thenReturn(5L, 6L, 7L);
+
+		// without multi-value SQL the IDs are not reserved in blocks
+		final SequenceIdGenerator generator = new SequenceIdGenerator(jpaUtils, dialect, 8, 64, 1, 3600_000);
+		for (long i = 5; i <= 7; i++) {
+			assertEquals(i, generator.nextId("seq"));
+		}
+		assertEquals(1, generator.getBlockSize("seq"));
+		verify(jpaUtils, times(3)).generateId(dialect, "seq");
+		verify(jpaUtils, never()).generateIds(any(), any(), anyInt());
+	}
+
+	@Test
+	public void testAdaptiveBlockSize() {
+		final JpaUtils jpaUtils = mock(JpaUtils.class);
+		final DatabaseDialect dialect = mock(DatabaseDialect.class);
+		when(dialect.createSequenceNextValuesSql(eq("seq"), anyInt())).thenReturn("SELECT nextval('seq') FROM generate_series(1, 16)");
+		when(jpaUtils.generateIds(any(), any(), anyInt())).thenAnswer(inv -> new long[(Integer) inv.getArgument(2)]);
+
+		// the blocks are used much faster than once per hour, so the block size grows up to the maximum
+		final SequenceIdGenerator generator = new SequenceIdGenerator(jpaUtils, dialect, 2, 16, 1, 3600_000);
+		for (int i = 0; i < 100; i++) {
+			generator.nextId("seq");
+		}
+		assertEquals(16, generator.getBlockSize("seq"));
+	}
+
+	@Test
+	public void testConcurrentUniqueIds() throws Exception {
+		final JpaUtils jpaUtils = mock(JpaUtils.class);
+		final DatabaseDialect dialect = mock(DatabaseDialect.class);
+		final AtomicLong sequence = new AtomicLong();
+		when(jpaUtils.generateId(dialect, "seq")).thenAnswer(inv -> sequence.getAndAdd(50));
+
+		final SequenceIdGenerator generator = new SequenceIdGenerator(jpaUtils, dialect, 1, 1, 50, 1000);
+		final Set<Long> ids = ConcurrentHashMap.newKeySet();
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 8; t++) {
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < 1000; i++) {
+						ids.add(generator.nextId("seq"));
+					}
+				}));
+			}
+			for (final Future<?> f : futures) {
+				f.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(8000, ids.size());
+	}
+}
@@ -0,0 +1,73 @@
+package com.a9ski.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import javax.persistence.TypedQuery;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+
+public class SqlLoggerTest {
+
+	@Test
+	public void testDistinct() {
+		final Logger logger = mock(Logger.class);
+		when(logger.isDebugEnabled()).thenReturn(true);
+		final JpaDialect dialect = mock(JpaDialect.class);
+		final TypedQuery<?> q1 = mock(TypedQuery.class);
+		final TypedQuery<?> q2 = mock(TypedQuery.class);
+		when(dialect.getSql(q1)).thenReturn("SELECT 1");
+		when(dialect.getSql(q2)).thenReturn("SELECT 2");
+
+		try (final SqlLogger sqlLogger = new SqlLogger(logger, dialect, 1, true, 10, 10)) {
+			assertTrue(sqlLogger.log(q1, "k1"));
+			assertFalse(sqlLogger.log(q1, "k1"));
+			assertTrue(sqlLogger.log(q2, "k2"));
+			assertFalse(sqlLogger.log(q2, "k2"));
+		}
+		verify(dialect, times(1)).getSql(q1);
+		verify(dialect, times(1)).getSql(q2);
+		verify(logger).debug("SELECT 1");
+		verify(logger).debug("SELECT 2");
+	}
+
+	@Test
+	public void testSampling() {
+		final Logger logger = mock(Logger.class);
+		when(logger.isDebugEnabled()).thenReturn(true);
+		final JpaDialect dialect = mock(JpaDialect.class);
+		final TypedQuery<?> q = mock(TypedQuery.class);
+		when(dialect.getSql(q)).thenReturn("SELECT 1");
+
+		int logged = 0;
+		try (final SqlLogger sqlLogger = new SqlLogger(logger, dialect, 10, false, 10, 100)) {
+			for (int i = 0; i < 100; i++) {
+				if (sqlLogger.log(q, "k")) {
+					logged++;
+				}
+			}
+		}
+		assertEquals(10, logged);
+		// rendered once, then served from the cache
+		verify(dialect, times(1)).getSql(q);
+		verify(logger, times(10)).debug("SELECT 1");
+	}
+
+	@Test
+	public void testDebugDisabled() {
+		final Logger logger = mock(Logger.class);
+		final JpaDialect dialect = mock(JpaDialect.class);
+		try (final SqlLogger sqlLogger = new SqlLogger(logger, dialect, 1, false, 10, 10)) {
+			assertFalse(sqlLogger.log(mock(TypedQuery.class), null));
+		}
+		verify(dialect, never()).getSql(any());
+	}
+}
@@ -0,0 +1,51 @@
+package com.a9ski.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import javax.transaction.Status;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.junit.Test;
+
+public class TransactionContextTest {
+
+	@Test
+	public void testNoRegistry() {
+		final TransactionContext ctx = new TransactionContext(null);
+		assertEquals("", ctx.getTransactionId());
+		assertFalse(ctx.isActive());
+		assertFalse(ctx.putAttachment("key", "value"));
+		assertNull(ctx.getAttachment("key"));
+		assertEquals("value", ctx.computeAttachmentIfAbsent("key", () -> "value"));
+	}
+
+	@Test
+	public void testWithoutJndi() {
+		// there is no JNDI in unit tests
+		assertEquals("", JpaUtils.getTransactionId());
+		assertNull(TransactionContext.getDefault().getRegistry());
+	}
+
+	@Test
+	public void testAttachments() {
+		final TransactionSynchronizationRegistry reg = mock(TransactionSynchronizationRegistry.class);
+		when(reg.getTransactionKey()).thenReturn("tx1");
+		when(reg.getTransactionStatus()).thenReturn(Status.STATUS_ACTIVE);
+		when(reg.getResource("key")).thenReturn(null, "cached");
+
+		final TransactionContext ctx = new TransactionContext(reg);
+		assertEquals("tx1", ctx.getTransactionId());
+		assertTrue(ctx.isActive());
+		assertEquals("computed", ctx.computeAttachmentIfAbsent("key", () -> "computed"));
+		verify(reg).putResource("key", "computed");
+		assertEquals("cached", ctx.computeAttachmentIfAbsent("key", () -> "other"));
+		verify(reg, never()).putResource("key", "other");
+	}
+}